@@ -0,0 +1,111 @@
+package ninja.egg82.mvn.benchmarks;
+
+import ninja.egg82.mvn.Fixtures;
+import ninja.egg82.mvn.classloaders.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Class loading through each InjectableClassLoader over a realistic number of injected jars
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Transparent injection needs java.net opened on 9+, and Java 8 ignores the flag
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.net=ALL-UNNAMED" })
+@State(Scope.Benchmark)
+public class ClassLoadBenchmark {
+    @Param({ "isolated", "indexed", "mapped", "transparent" })
+    public String loader;
+
+    @Param({ "20" })
+    public int jars;
+
+    @Param({ "200" })
+    public int classesPerJar;
+
+    private File dir;
+    private final List<URL> urls = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private InjectableClassLoader warmLoader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Fixtures.createTempDir("classload");
+        for (int i = 0; i < jars; i++) {
+            File jar = new File(dir, "jar-" + i + ".jar");
+            Fixtures.writeJar(jar, Fixtures.GROUP_ID + ".load" + i, classesPerJar);
+            urls.add(jar.toURI().toURL());
+            for (int j = 0; j < classesPerJar; j++) {
+                names.add(Fixtures.getClassName(Fixtures.GROUP_ID + ".load" + i, j));
+            }
+        }
+        warmLoader = newLoader();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        warmLoader.close();
+        Fixtures.delete(dir);
+    }
+
+    // Fresh loader, every jar added, every class loaded (without initializing it)
+    @Benchmark
+    public void loadAll(Blackhole blackhole) throws IOException, ClassNotFoundException {
+        try (InjectableClassLoader classLoader = newLoader()) {
+            for (String name : names) {
+                blackhole.consume(Class.forName(name, false, classLoader));
+            }
+        }
+    }
+
+    // Lookups for classes none of the jars have, which every parent-last or probing framework does plenty of
+    @Benchmark
+    public int lookupMisses() {
+        int retVal = 0;
+        for (int i = 0; i < 100; i++) {
+            try {
+                warmLoader.loadClass(Fixtures.GROUP_ID + ".missing.p" + i + ".Missing");
+            } catch (ClassNotFoundException ignored) {
+                retVal++;
+            }
+        }
+        return retVal;
+    }
+
+    // Resource lookups hit the same search path as classes do
+    @Benchmark
+    public URL findResource() {
+        return warmLoader.getResource(names.get(names.size() - 1).replace('.', '/') + ".class");
+    }
+
+    private InjectableClassLoader newLoader() {
+        ClassLoader parent = getClass().getClassLoader();
+        InjectableClassLoader retVal;
+        switch (loader) {
+            case "indexed":
+                retVal = new IndexedInjectableClassLoader(parent);
+                break;
+            case "mapped":
+                retVal = new MappedInjectableClassLoader(parent);
+                break;
+            case "transparent":
+                retVal = new TransparentInjectableClassLoader(new URLClassLoader(new URL[0], parent));
+                break;
+            default:
+                retVal = new IsolatedInjectableClassLoader(parent);
+                break;
+        }
+        for (URL url : urls) {
+            retVal.addJar(url);
+        }
+        return retVal;
+    }
+}
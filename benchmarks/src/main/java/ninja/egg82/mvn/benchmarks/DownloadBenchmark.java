@@ -0,0 +1,74 @@
+package ninja.egg82.mvn.benchmarks;
+
+import ninja.egg82.mvn.Fixtures;
+import ninja.egg82.mvn.LocalRepository;
+import ninja.egg82.mvn.internal.HttpUtils;
+import ninja.egg82.mvn.internal.ResolutionContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Raw download throughput against a loopback server, divide size by the score for bytes per second
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DownloadBenchmark {
+    @Param({ "1048576", "16777216" })
+    public int size;
+
+    private File repositoryDir;
+    private LocalRepository repository;
+    private File cacheDir;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        repositoryDir = Fixtures.createTempDir("repository");
+        File blob = new File(repositoryDir, "blob-" + size + ".jar");
+        // Random bytes, so compression can't flatter the numbers
+        byte[] buffer = new byte[65536];
+        Random random = new Random(size);
+        try (RandomAccessFile out = new RandomAccessFile(blob, "rw")) {
+            for (int written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, Math.min(buffer.length, size - written));
+            }
+        }
+        Fixtures.writeChecksum(blob);
+
+        repository = new LocalRepository(repositoryDir, true);
+        url = repository.getUrl() + blob.getName();
+        cacheDir = Fixtures.createTempDir("download");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        Fixtures.delete(repositoryDir);
+        Fixtures.delete(cacheDir);
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() throws IOException {
+        Fixtures.deleteContents(cacheDir);
+    }
+
+    // Plain transfer to disk
+    @Benchmark
+    public File tryDownloadFile() throws IOException {
+        return HttpUtils.tryDownloadFile(HttpUtils.getDefaultTransport(), new File(cacheDir, "blob.jar"), url);
+    }
+
+    // What resolution actually does: checksum sidecar, verification, and the cache manifest
+    @Benchmark
+    public File tryDownloadFileVerified() throws IOException {
+        return HttpUtils.tryDownloadFile(new ResolutionContext(cacheDir), new File(cacheDir, "blob.jar"), url);
+    }
+}
@@ -0,0 +1,56 @@
+package ninja.egg82.mvn.benchmarks;
+
+import me.lucko.jarrelocator.JarRelocator;
+import me.lucko.jarrelocator.Relocation;
+import ninja.egg82.mvn.Fixtures;
+import ninja.egg82.mvn.internal.ParallelJarRelocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Relocation of a large jar, ParallelJarRelocator being what JarInjector runs and JarRelocator the baseline
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RelocateBenchmark {
+    @Param({ "2000", "20000" })
+    public int classes;
+
+    private File dir;
+    private File input;
+    private File output;
+    private List<Relocation> relocations;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Fixtures.createTempDir("relocate");
+        input = new File(dir, "input.jar");
+        output = new File(dir, "output.jar");
+        Fixtures.writeJar(input, Fixtures.GROUP_ID + ".large", classes);
+        relocations = Collections.singletonList(new Relocation(Fixtures.GROUP_ID, "ninja.egg82.mvn.external." + Fixtures.GROUP_ID));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public File jarRelocator() throws IOException {
+        new JarRelocator(input, output, relocations).run();
+        return output;
+    }
+
+    @Benchmark
+    public File parallelJarRelocator() throws IOException {
+        new ParallelJarRelocator(input, output, relocations).run();
+        return output;
+    }
+}
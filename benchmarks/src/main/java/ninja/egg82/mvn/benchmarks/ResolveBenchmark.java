@@ -0,0 +1,98 @@
+package ninja.egg82.mvn.benchmarks;
+
+import ninja.egg82.mvn.Fixtures;
+import ninja.egg82.mvn.JarBuilder;
+import ninja.egg82.mvn.JarInjector;
+import ninja.egg82.mvn.LocalRepository;
+import ninja.egg82.mvn.Resolution;
+import ninja.egg82.mvn.classloaders.InjectableClassLoader;
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// POM graph resolution: a BOM import, a parent, and a DAG of libraries
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolveBenchmark {
+    @Param({ "10", "50" })
+    public int artifacts;
+
+    @Param({ "3" })
+    public int fanout;
+
+    private File repositoryDir;
+    private LocalRepository repository;
+    private File warmCache;
+    private File coldCache;
+    private InjectableClassLoader classLoader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ModelBuildingException {
+        repositoryDir = Fixtures.createTempDir("repository");
+        repository = new LocalRepository(repositoryDir, true);
+        Fixtures.writeRepository(repositoryDir, repository.getUrl(), artifacts, fanout, 32);
+        classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+
+        warmCache = Fixtures.createTempDir("warm");
+        coldCache = Fixtures.createTempDir("cold");
+        Resolution resolution = newInjector(warmCache).resolve(classLoader, 4);
+        if (resolution.getArtifacts().size() != artifacts) {
+            throw new IllegalStateException("Expected " + artifacts + " artifacts, resolved " + resolution.getArtifacts().size());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        classLoader.close();
+        repository.close();
+        Fixtures.delete(repositoryDir);
+        Fixtures.delete(warmCache);
+        Fixtures.delete(coldCache);
+    }
+
+    // Effective model of the root artifact (parent + BOM import) from cached POMs
+    @Benchmark
+    public Model buildWarm() throws IOException, ModelBuildingException {
+        return new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()).build(warmCache);
+    }
+
+    // Startup with an up-to-date lock file, the common case
+    @Benchmark
+    public Resolution resolveLocked() throws IOException, ModelBuildingException {
+        return newInjector(warmCache).resolve(classLoader, 4);
+    }
+
+    // The whole graph walk from cached POMs and jars, without the lock file short-circuit
+    @Benchmark
+    public Resolution resolveWarm() throws IOException, ModelBuildingException {
+        Fixtures.deleteContents(new File(new File(warmCache, ".mvnloader"), "resolutions"));
+        return newInjector(warmCache).resolve(classLoader, 4);
+    }
+
+    // First run on an empty cache, everything comes over loopback HTTP
+    @Benchmark
+    public Resolution resolveCold(ColdCache cache) throws IOException, ModelBuildingException {
+        return newInjector(coldCache).resolve(classLoader, 4);
+    }
+
+    @State(Scope.Thread)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clear(ResolveBenchmark benchmark) throws IOException {
+            Fixtures.deleteContents(benchmark.coldCache);
+        }
+    }
+
+    private JarInjector newInjector(File cacheDir) {
+        return new JarInjector(cacheDir).addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()));
+    }
+}
@@ -0,0 +1,37 @@
+package ninja.egg82.mvn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.net.URL;
+
+// Structured callbacks for everything JarInjector does, all optional
+// Called from whichever resolver thread did the work, so implementations need to be thread-safe and quick
+// Durations are in milliseconds
+public interface InjectionListener {
+    default void onPomResolved(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull String repositoryUrl, boolean cached, long duration) { }
+
+    default void onMetadataResolved(@NotNull String groupId, @NotNull String artifactId, @Nullable String version, @NotNull String repositoryUrl, boolean cached, long duration) { }
+
+    default void onCacheHit(@NotNull File file) { }
+
+    default void onCacheMiss(@NotNull File file) { }
+
+    // repositoryUrl is null for files that weren't fetched on behalf of a specific repository
+    default void onDownloadStarted(@NotNull String url, @Nullable String repositoryUrl) { }
+
+    // Bytes read since the last call for the same URL, fired for every response body (metadata and range requests included)
+    default void onDownloadProgress(@NotNull String url, long bytes) { }
+
+    default void onDownloadFinished(@NotNull String url, @Nullable String repositoryUrl, long bytes, long duration) { }
+
+    default void onDownloadFailed(@NotNull String url, @Nullable String repositoryUrl, @NotNull Throwable cause, long duration) { }
+
+    default void onRelocationStarted(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull File inFile) { }
+
+    default void onRelocationFinished(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull File inFile, @NotNull File outFile, long duration) { }
+
+    // artifact is null for the merged archive, which stands in for all of them
+    default void onJarAdded(@NotNull URL url, @Nullable ResolvedArtifact artifact) { }
+}
@@ -0,0 +1,68 @@
+package ninja.egg82.mvn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Live counters for an injection in progress, safe to read from any thread at any time
+public class InjectionProgress {
+    private final @NotNull AtomicInteger artifacts = new AtomicInteger(-1);
+    private final @NotNull AtomicInteger resolved = new AtomicInteger(0);
+    private final @NotNull AtomicInteger downloaded = new AtomicInteger(0);
+    private final @NotNull AtomicInteger relocated = new AtomicInteger(0);
+    private final @NotNull AtomicLong bytesTransferred = new AtomicLong(0L);
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull Throwable> failures = new ConcurrentHashMap<>();
+    private volatile boolean done = false;
+
+    // -1 until the dependency tree has been walked and we know how many jars there are
+    public int getArtifacts() { return artifacts.get(); }
+
+    public int getResolved() { return resolved.get(); }
+
+    public int getDownloaded() { return downloaded.get(); }
+
+    public int getRelocated() { return relocated.get(); }
+
+    public int getFailed() { return failures.size(); }
+
+    // Everything read off the wire, POMs and metadata included
+    public long getBytesTransferred() { return bytesTransferred.get(); }
+
+    // groupId:artifactId:version -> why it couldn't be resolved
+    @NotNull
+    public Map<@NotNull String, @NotNull Throwable> getFailures() { return Collections.unmodifiableMap(failures); }
+
+    public boolean isDone() { return done; }
+
+    public void setArtifacts(int artifacts) { this.artifacts.set(artifacts); }
+
+    public void addResolved() { resolved.incrementAndGet(); }
+
+    public void addDownloaded() { downloaded.incrementAndGet(); }
+
+    public void addRelocated() { relocated.incrementAndGet(); }
+
+    public void addBytesTransferred(long bytes) { bytesTransferred.addAndGet(bytes); }
+
+    public void addFailure(@NotNull String artifact, @NotNull Throwable cause) { failures.putIfAbsent(artifact, cause); }
+
+    public void setDone() { done = true; }
+
+    @Override
+    public String toString() {
+        return "InjectionProgress{" +
+                "artifacts=" + artifacts +
+                ", resolved=" + resolved +
+                ", downloaded=" + downloaded +
+                ", relocated=" + relocated +
+                ", failed=" + failures.size() +
+                ", bytesTransferred=" + bytesTransferred +
+                ", done=" + done +
+                '}';
+    }
+}
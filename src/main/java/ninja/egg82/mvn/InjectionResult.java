@@ -0,0 +1,41 @@
+package ninja.egg82.mvn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+public class InjectionResult {
+    private final @NotNull Resolution resolution;
+    private final @NotNull InjectionProgress progress;
+    private final long time;
+
+    public InjectionResult(@NotNull Resolution resolution, @NotNull InjectionProgress progress, long time) {
+        this.resolution = resolution;
+        this.progress = progress;
+        this.time = time;
+    }
+
+    // Only what was actually injected, anything that failed is in getFailures()
+    @NotNull
+    public Resolution getResolution() { return resolution; }
+
+    @NotNull
+    public Map<@NotNull String, @NotNull Throwable> getFailures() { return progress.getFailures(); }
+
+    public boolean isComplete() { return progress.getFailures().isEmpty(); }
+
+    @NotNull
+    public InjectionProgress getProgress() { return progress; }
+
+    // Milliseconds from the start of resolution to the last jar being injected
+    public long getTime() { return time; }
+
+    @Override
+    public String toString() {
+        return "InjectionResult{" +
+                "resolution=" + resolution +
+                ", progress=" + progress +
+                ", time=" + time +
+                '}';
+    }
+}
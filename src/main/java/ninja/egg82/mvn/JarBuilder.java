@@ -1,7 +1,7 @@
 package ninja.egg82.mvn;
 
 import ninja.egg82.mvn.internal.HttpUtils;
-import ninja.egg82.mvn.internal.URLModelResolver;
+import ninja.egg82.mvn.internal.ResolutionContext;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.building.*;
 import org.jetbrains.annotations.NotNull;
@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -24,6 +25,8 @@ public class JarBuilder {
     private final @NotNull String repositoryUrl;
 
     private final @NotNull Map<@NotNull String, @Nullable String> proxies = new HashMap<>();
+    private @Nullable UpdatePolicy updatePolicy = null;
+    private boolean offline = false;
 
     private static final ModelBuilder MODEL_BUILDER = new DefaultModelBuilderFactory().newInstance();
 
@@ -43,14 +46,26 @@ public class JarBuilder {
         this.groupId = groupId;
         this.artifactId = artifactId;
         this.version = version;
-        this.repositoryUrl = repositoryUrl != null ? repositoryUrl : "https://repo.maven.apache.org/maven2";
+        this.repositoryUrl = repositoryUrl != null ? HttpUtils.toRepositoryUrl(repositoryUrl) : "https://repo.maven.apache.org/maven2";
 
         this.logger = logger != null ? logger : LoggerFactory.getLogger(getClass());
     }
 
     @NotNull
     public JarBuilder setRepositoryProxy(@NotNull String repositoryUrl, @NotNull String proxyUrl) throws IOException {
-        proxies.put(HttpUtils.simplify(repositoryUrl), proxyUrl);
+        proxies.put(HttpUtils.simplify(HttpUtils.toRepositoryUrl(repositoryUrl)), HttpUtils.toRepositoryUrl(proxyUrl));
+        return this;
+    }
+
+    @NotNull
+    public JarBuilder setMetadataUpdatePolicy(@Nullable UpdatePolicy updatePolicy) {
+        this.updatePolicy = updatePolicy;
+        return this;
+    }
+
+    @NotNull
+    public JarBuilder setOffline(boolean offline) {
+        this.offline = offline;
         return this;
     }
 
@@ -58,12 +73,62 @@ public class JarBuilder {
     public JarBuilder clone(@NotNull String groupId, @NotNull String artifactId, @NotNull String version) {
         JarBuilder retVal = new JarBuilder(groupId, artifactId, version, repositoryUrl, logger);
         retVal.proxies.putAll(proxies);
+        retVal.updatePolicy = updatePolicy;
+        retVal.offline = offline;
         return retVal;
     }
 
+    @NotNull
+    public String getGroupId() { return groupId; }
+
+    @NotNull
+    public String getArtifactId() { return artifactId; }
+
+    @NotNull
+    public String getVersion() { return version; }
+
+    @NotNull
+    public String getRepositoryUrl() { return repositoryUrl; }
+
+    @NotNull
+    public Map<@NotNull String, @Nullable String> getProxies() { return Collections.unmodifiableMap(proxies); }
+
+    @Nullable
+    public UpdatePolicy getMetadataUpdatePolicy() { return updatePolicy; }
+
+    public boolean isOffline() { return offline; }
+
     @Nullable
     public Model build(@NotNull File cacheDir) throws IOException, ModelBuildingException {
-        File pomFile = downloadPom(cacheDir);
+        ResolutionContext context = new ResolutionContext(cacheDir, updatePolicy != null ? updatePolicy : UpdatePolicy.DAILY, offline);
+        try {
+            Model retVal = build(context);
+            if (!context.getMissing().isEmpty()) {
+                throw context.getMissingException(null);
+            }
+            return retVal;
+        } catch (ModelBuildingException ex) {
+            if (!context.getMissing().isEmpty()) {
+                throw context.getMissingException(ex);
+            }
+            throw ex;
+        } finally {
+            try {
+                context.getNegativeCache().save(context.getNegativeCachePolicy());
+            } catch (IOException ignored) {
+                // Only costs us another lookup next time
+            }
+        }
+    }
+
+    @Nullable
+    public Model build(@NotNull ResolutionContext context) throws IOException, ModelBuildingException {
+        Model retVal = context.getEffectiveModel(repositoryUrl, proxies, groupId, artifactId, version);
+        if (retVal != null) {
+            return retVal;
+        }
+
+        File pomFile = downloadPom(context);
         if (pomFile == null) {
             return null;
         }
@@ -73,35 +138,59 @@ public class JarBuilder {
         request.setPomFile(pomFile);
         request.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
         request.setSystemProperties(System.getProperties());
-        request.setModelResolver(new URLModelResolver(cacheDir, repositoryUrl, proxies));
+        request.setModelResolver(context.newModelResolver(repositoryUrl, proxies));
+        request.setModelCache(context.getModelCache());
 
-        Model retVal = MODEL_BUILDER.build(request).getEffectiveModel();
+        retVal = MODEL_BUILDER.build(request).getEffectiveModel();
         retVal.setRepositories(HttpUtils.proxy(retVal.getRepositories(), proxies));
         retVal.setPluginRepositories(HttpUtils.proxy(retVal.getPluginRepositories(), proxies));
-        return retVal;
+        return context.putEffectiveModel(repositoryUrl, proxies, groupId, artifactId, version, retVal);
     }
 
     @Nullable
-    private File downloadPom(@NotNull File cacheDir) throws IOException {
+    private File downloadPom(@NotNull ResolutionContext context) throws IOException {
+        File cacheDir = context.getCacheDir();
         String proxy = proxies.get(HttpUtils.simplify(repositoryUrl));
 
-        String realVersion = HttpUtils.getRealVersion(repositoryUrl, proxy, groupId, artifactId, version, logger);
+        String realVersion;
+        try {
+            realVersion = HttpUtils.getRealVersion(
+                    context,
+                    updatePolicy != null ? updatePolicy : context.getUpdatePolicy(),
+                    repositoryUrl,
+                    proxy,
+                    groupId,
+                    artifactId,
+                    version,
+                    logger
+            );
+        } catch (IOException ex) {
+            if (context.isOffline()) {
+                context.addMissing(groupId, artifactId, version, "maven-metadata.xml");
+                return null;
+            }
+            throw ex;
+        }
         File outFile;
         if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
             outFile = HttpUtils.getPomCacheFile(cacheDir, groupId, artifactId, version, realVersion);
         } else {
             outFile = HttpUtils.getPomCacheFile(cacheDir, groupId, artifactId, realVersion);
         }
-        if (outFile.exists()) {
+        if (context.isCached(outFile)) {
             return outFile;
         }
+        if (context.isOffline()) {
+            context.addMissing(groupId, artifactId, realVersion, "pom");
+            return null;
+        }
 
         if (proxy != null) {
             try {
                 if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
-                    return HttpUtils.tryDownloadPom(outFile, proxy, groupId, artifactId, version, realVersion);
+                    return HttpUtils.tryDownloadPom(context, outFile, proxy, groupId, artifactId, version, realVersion);
                 } else {
-                    return HttpUtils.tryDownloadPom(outFile, proxy, groupId, artifactId, realVersion);
+                    return HttpUtils.tryDownloadPom(context, outFile, proxy, groupId, artifactId, realVersion);
                 }
             } catch (IOException ex) {
                 logger.warn("Could not download artifact POM from proxy URL " + proxy, ex);
@@ -109,9 +198,9 @@ public class JarBuilder {
         }
         try {
             if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
-                return HttpUtils.tryDownloadPom(outFile, repositoryUrl, groupId, artifactId, version, realVersion);
+                return HttpUtils.tryDownloadPom(context, outFile, repositoryUrl, groupId, artifactId, version, realVersion);
             } else {
-                return HttpUtils.tryDownloadPom(outFile, repositoryUrl, groupId, artifactId, realVersion);
+                return HttpUtils.tryDownloadPom(context, outFile, repositoryUrl, groupId, artifactId, realVersion);
             }
         } catch (IOException ex) {
             logger.warn("Could not download artifact POM from repository URL " + repositoryUrl, ex);
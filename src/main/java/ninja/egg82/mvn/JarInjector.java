@@ -1,10 +1,22 @@
 package ninja.egg82.mvn;
 
-import me.lucko.jarrelocator.JarRelocator;
 import me.lucko.jarrelocator.Relocation;
 import ninja.egg82.mvn.classloaders.InjectableClassLoader;
+import ninja.egg82.mvn.internal.CacheLock;
+import ninja.egg82.mvn.internal.CacheManifest;
+import ninja.egg82.mvn.internal.CdsUtils;
+import ninja.egg82.mvn.internal.CompositeListener;
 import ninja.egg82.mvn.internal.DependencyWrapper;
+import ninja.egg82.mvn.internal.HttpStatusException;
 import ninja.egg82.mvn.internal.HttpUtils;
+import ninja.egg82.mvn.internal.LockFileUtils;
+import ninja.egg82.mvn.internal.MergedJarUtils;
+import ninja.egg82.mvn.internal.ParallelJarRelocator;
+import ninja.egg82.mvn.internal.RelocationUtils;
+import ninja.egg82.mvn.internal.RepositoryProber;
+import ninja.egg82.mvn.internal.ResolutionContext;
+import ninja.egg82.mvn.internal.Transport;
+import ninja.egg82.mvn.internal.Transports;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.Plugin;
@@ -12,17 +24,18 @@ import org.apache.maven.model.Repository;
 import org.apache.maven.model.building.ModelBuildingException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.commons.Remapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class JarInjector {
     private final @NotNull Logger logger;
@@ -33,6 +46,22 @@ public class JarInjector {
     private final @NotNull File cacheDir;
     private final @NotNull List<@NotNull JarBuilder> builders = new ArrayList<>();
     private final @NotNull List<@NotNull Relocation> relocations = new ArrayList<>();
+    private final @NotNull List<@NotNull InjectionListener> listeners = new CopyOnWriteArrayList<>();
+    private final @NotNull CompositeListener listener = new CompositeListener(listeners);
+    private @NotNull UpdatePolicy updatePolicy = UpdatePolicy.DAILY;
+    private @NotNull UpdatePolicy negativeCachePolicy = UpdatePolicy.DAILY;
+    private boolean offline = false;
+    private @NotNull Transport transport = HttpUtils.getDefaultTransport();
+    private boolean preconnect = false;
+    private long hedgeDelay = -1L;
+    private double hedgePercentile = -1.0D;
+    private boolean adaptiveOrdering = false;
+    private boolean persistentHealth = false;
+    private boolean streamingRelocation = false;
+    private boolean keepOriginalJars = false;
+    private boolean mergedOutput = false;
+    private boolean cdsTraining = false;
+    private boolean lazyInjection = false;
 
     public JarInjector(@NotNull File cacheDir) {
         this(cacheDir, 20L, TimeUnit.MINUTES);
@@ -89,135 +118,757 @@ public class JarInjector {
         return this;
     }
 
+    @NotNull
+    public JarInjector addListener(@NotNull InjectionListener listener) {
+        this.listeners.add(listener);
+        return this;
+    }
+
+    @NotNull
+    public JarInjector removeListener(@NotNull InjectionListener listener) {
+        this.listeners.remove(listener);
+        return this;
+    }
+
+    @NotNull
+    public JarInjector setMetadataUpdatePolicy(@NotNull UpdatePolicy updatePolicy) {
+        this.updatePolicy = updatePolicy;
+        return this;
+    }
+
+    // How long a repository's 404 is remembered, ALWAYS asks every time
+    @NotNull
+    public JarInjector setNegativeCachePolicy(@NotNull UpdatePolicy negativeCachePolicy) {
+        this.negativeCachePolicy = negativeCachePolicy;
+        return this;
+    }
+
+    @NotNull
+    public JarInjector setOffline(boolean offline) {
+        this.offline = offline;
+        return this;
+    }
+
+    @NotNull
+    public JarInjector setTransport(@NotNull Transport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    @NotNull
+    public JarInjector setTimeouts(long connectTimeout, long readTimeout, @NotNull TimeUnit unit) {
+        this.transport = Transports.create((int) unit.toMillis(connectTimeout), (int) unit.toMillis(readTimeout));
+        return this;
+    }
+
+    @NotNull
+    public JarInjector setPreconnect(boolean preconnect) {
+        this.preconnect = preconnect;
+        return this;
+    }
+
+    @NotNull
+    public JarInjector setHedgedLookup(boolean hedgedLookup) {
+        this.hedgeDelay = hedgedLookup ? Math.max(0L, hedgeDelay) : -1L;
+        return this;
+    }
+
+    // Zero probes every candidate repository at once, anything higher waits that long before trying the next one
+    @NotNull
+    public JarInjector setHedgeDelay(long hedgeDelay, @NotNull TimeUnit unit) {
+        this.hedgeDelay = unit.toMillis(hedgeDelay);
+        return this;
+    }
+
+    // Starts the next probe once the current repository is slower than this latency percentile (0-1) of its own history
+    @NotNull
+    public JarInjector setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+        return this;
+    }
+
+    // Off by default, repositories are tried strictly in declared order
+    // Turning this on lets measured health reorder them, with declared order still breaking ties
+    @NotNull
+    public JarInjector setAdaptiveOrdering(boolean adaptiveOrdering) {
+        this.adaptiveOrdering = adaptiveOrdering;
+        return this;
+    }
+
+    @NotNull
+    public JarInjector setPersistentHealth(boolean persistentHealth) {
+        this.persistentHealth = persistentHealth;
+        return this;
+    }
+
+    // Relocates jars straight off the wire, so only the relocated copy is ever written
+    @NotNull
+    public JarInjector setStreamingRelocation(boolean streamingRelocation) {
+        this.streamingRelocation = streamingRelocation;
+        return this;
+    }
+
+    // Also keeps the unrelocated jar when streaming, mostly useful for debugging
+    @NotNull
+    public JarInjector setKeepOriginalJars(boolean keepOriginalJars) {
+        this.keepOriginalJars = keepOriginalJars;
+        return this;
+    }
+
+    // Injects everything as one cached archive instead of a URL per artifact
+    @NotNull
+    public JarInjector setMergedOutput(boolean mergedOutput) {
+        this.mergedOutput = mergedOutput;
+        return this;
+    }
+
+    // Keeps a CDS archive per resolution, along with a "java @<file>" arguments file that trains or uses it
+    @NotNull
+    public JarInjector setCdsTraining(boolean cdsTraining) {
+        this.cdsTraining = cdsTraining;
+        return this;
+    }
+
+    // Jars not already cached are only downloaded once something loads a class from one of their packages
+    // Only their central directory is read up front, to find out which packages those are
+    @NotNull
+    public JarInjector setLazyInjection(boolean lazyInjection) {
+        this.lazyInjection = lazyInjection;
+        return this;
+    }
+
+    @NotNull
+    public Transport getTransport() { return transport; }
+
+    public boolean isHedgedLookup() { return hedgeDelay >= 0L; }
+
+    public boolean isAdaptiveOrdering() { return adaptiveOrdering; }
+
+    public boolean isPersistentHealth() { return persistentHealth; }
+
+    public boolean isPreconnect() { return preconnect; }
+
+    public boolean isStreamingRelocation() { return streamingRelocation; }
+
+    public boolean isKeepOriginalJars() { return keepOriginalJars; }
+
+    public boolean isMergedOutput() { return mergedOutput; }
+
+    public boolean isCdsTraining() { return cdsTraining; }
+
+    public boolean isLazyInjection() { return lazyInjection; }
+
+    public boolean isOffline() {
+        if (offline) {
+            return true;
+        }
+        for (JarBuilder builder : builders) {
+            if (builder.isOffline()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void inject(@NotNull InjectableClassLoader classLoader) throws IOException, ModelBuildingException {
         inject(classLoader, Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
     }
 
     public void inject(@NotNull InjectableClassLoader classLoader, int threads) throws IOException, ModelBuildingException {
-        Map<@NotNull String, @Nullable DependencyWrapper> dependencies = new HashMap<>();
-        List<@NotNull Model> models = new ArrayList<>();
-        for (JarBuilder builder : builders) {
-            Model model = buildChain(builder, cacheDir, classLoader, dependencies, true);
-            if (model != null) {
-                models.add(model);
+        inject(classLoader, resolve(classLoader, threads));
+    }
+
+    // Resolves and injects on a background thread, so the caller can get on with other startup work in the meantime
+    @NotNull
+    public CompletableFuture<@NotNull InjectionResult> injectAsync(@NotNull InjectableClassLoader classLoader) {
+        return injectAsync(classLoader, new InjectionProgress());
+    }
+
+    @NotNull
+    public CompletableFuture<@NotNull InjectionResult> injectAsync(@NotNull InjectableClassLoader classLoader, @NotNull InjectionProgress progress) {
+        return injectAsync(classLoader, Math.max(2, Runtime.getRuntime().availableProcessors() / 2), progress);
+    }
+
+    @NotNull
+    public CompletableFuture<@NotNull InjectionResult> injectAsync(@NotNull InjectableClassLoader classLoader, int threads, @NotNull InjectionProgress progress) {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread retVal = new Thread(r, "MVNLoader-inject");
+            retVal.setDaemon(true);
+            return retVal;
+        });
+        try {
+            return injectAsync(classLoader, threads, progress, executor);
+        } finally {
+            // Lets the thread exit once the one task is done
+            executor.shutdown();
+        }
+    }
+
+    @NotNull
+    public CompletableFuture<@NotNull InjectionResult> injectAsync(
+            @NotNull InjectableClassLoader classLoader,
+            int threads,
+            @NotNull InjectionProgress progress,
+            @NotNull Executor executor
+    ) {
+        CompletableFuture<@NotNull InjectionResult> retVal = new CompletableFuture<>();
+        executor.execute(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                Resolution resolution = resolve(classLoader, threads, progress);
+                inject(classLoader, resolution);
+                retVal.complete(new InjectionResult(resolution, progress, System.currentTimeMillis() - start));
+            } catch (Throwable ex) {
+                retVal.completeExceptionally(ex);
+            } finally {
+                progress.setDone();
+            }
+        });
+        return retVal;
+    }
+
+    public void inject(@NotNull InjectableClassLoader classLoader, @NotNull Resolution resolution) throws IOException {
+        CacheManifest manifest = CacheManifest.get(cacheDir);
+        List<@NotNull ResolvedArtifact> eager = new ArrayList<>();
+        List<@NotNull ResolvedArtifact> lazy = new ArrayList<>();
+        for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+            if (artifact.isLazy()) {
+                // Already fetched by an earlier run, or lazy injection has since been turned off
+                if (!lazyInjection || manifest.isValid(artifact.getFile()) || isOffline()) {
+                    eager.add(fetchLazy(artifact));
+                } else {
+                    lazy.add(artifact);
+                }
+                continue;
+            }
+            eager.add(artifact);
+            if (!artifact.getFile().exists()) {
+                throw new IOException("Artifact " + artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getRealVersion() + " is missing from cache: " + artifact
+                        .getFile()
+                        .getAbsolutePath());
             }
         }
-        dependencies.values().removeIf(v -> v == null || v.isCompiled());
+        if (mergedOutput && eager.size() > 1) {
+            URL url = MergedJarUtils.merge(cacheDir, eager).toURI().toURL();
+            classLoader.addJar(url);
+            listener.onJarAdded(url, null);
+        } else {
+            for (ResolvedArtifact artifact : eager) {
+                URL url = artifact.getFile().toURI().toURL();
+                classLoader.addJar(url);
+                listener.onJarAdded(url, artifact);
+            }
+        }
+        for (ResolvedArtifact artifact : lazy) {
+            classLoader.addLazyJar(Objects.requireNonNull(artifact.getPackages()), () -> {
+                ResolvedArtifact fetched = fetchLazy(artifact);
+                URL url = fetched.getFile().toURI().toURL();
+                // The class loader adds it as soon as we return
+                listener.onJarAdded(url, fetched);
+                return url;
+            });
+        }
+
+        if (cdsTraining && CdsUtils.isSupported()) {
+            try {
+                File archiveFile = CdsUtils.getArchiveFile(cacheDir, resolution);
+                File argumentsFile = CdsUtils.writeArgumentsFile(archiveFile);
+                if (!CdsUtils.isArchiveInUse(archiveFile)) {
+                    logger.info("CDS archive for injected dependencies is not in use, launch the JVM with @" + argumentsFile.getAbsolutePath());
+                }
+            } catch (IOException ex) {
+                logger.warn("Could not write CDS arguments to " + cacheDir.getAbsolutePath(), ex);
+            }
+        }
+    }
 
+    // Flags for the next JVM launch, since CDS can't be switched on for a JVM that's already running
+    @NotNull
+    public List<@NotNull String> getCdsArguments(@NotNull Resolution resolution) throws IOException {
+        return CdsUtils.getArguments(CdsUtils.getArchiveFile(cacheDir, resolution));
+    }
+
+    public boolean isCdsArchiveInUse(@NotNull Resolution resolution) throws IOException {
+        return CdsUtils.isArchiveInUse(CdsUtils.getArchiveFile(cacheDir, resolution));
+    }
+
+    @NotNull
+    public Resolution resolve(@NotNull InjectableClassLoader classLoader) throws IOException, ModelBuildingException {
+        return resolve(classLoader, Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    @NotNull
+    public Resolution resolve(@NotNull InjectableClassLoader classLoader, int threads) throws IOException, ModelBuildingException {
+        return resolve(classLoader, threads, new InjectionProgress());
+    }
+
+    @NotNull
+    private Resolution resolve(@NotNull InjectableClassLoader classLoader, int threads, @NotNull InjectionProgress progress) throws IOException, ModelBuildingException {
+        String key = LockFileUtils.getKey(builders, relocations);
+        File lockFile = LockFileUtils.getLockFile(cacheDir, key);
+        Resolution retVal = LockFileUtils.read(lockFile, key);
+        // Everything the class loader already provides gets indexed once, rather than probed per dependency
+        // The lock key says nothing about the loader, so the lock file is checked against this one too
+        PresenceIndex presence = PresenceIndex.build(classLoader);
+        if (retVal != null && isValid(presence, retVal)) {
+            progress.setArtifacts(retVal.getArtifacts().size());
+            for (int i = 0; i < retVal.getArtifacts().size(); i++) {
+                progress.addResolved();
+            }
+            return retVal;
+        }
+
+        ResolutionContext context = new ResolutionContext(cacheDir, updatePolicy, isOffline(), transport)
+                .setHedgeDelay(hedgeDelay)
+                .setNegativeCachePolicy(negativeCachePolicy)
+                .setHedgePercentile(hedgePercentile)
+                .setAdaptiveOrdering(adaptiveOrdering)
+                .setProgress(progress)
+                .setListener(listener);
+        if (persistentHealth) {
+            context.getHealth().load();
+        }
+        try {
+            retVal = resolve(context, presence, key, lockFile, threads);
+        } catch (IOException | ModelBuildingException ex) {
+            if (!context.getMissing().isEmpty()) {
+                throw context.getMissingException(ex);
+            }
+            throw ex;
+        } finally {
+            try {
+                context.getNegativeCache().save(negativeCachePolicy);
+            } catch (IOException ex) {
+                // Only costs us another lookup next time
+                logger.warn("Could not save negative cache to " + cacheDir.getAbsolutePath(), ex);
+            }
+            if (persistentHealth) {
+                try {
+                    context.getHealth().save();
+                } catch (IOException ex) {
+                    logger.warn("Could not save repository health to " + cacheDir.getAbsolutePath(), ex);
+                }
+            }
+        }
+        if (!context.getMissing().isEmpty()) {
+            throw context.getMissingException(null);
+        }
+        return retVal;
+    }
+
+    @NotNull
+    private Resolution resolve(
+            @NotNull ResolutionContext context,
+            @NotNull PresenceIndex presence,
+            @NotNull String key,
+            @NotNull File lockFile,
+            int threads
+    ) throws IOException, ModelBuildingException {
+        Map<@NotNull String, @Nullable DependencyWrapper> dependencies = new LinkedHashMap<>();
+        Set<@NotNull String> providedDependencies = new LinkedHashSet<>();
+
+        // Either way an artifact that fails is logged and recorded on the resolution, and everything else is still resolved
         if (threads <= 1) {
+            List<@NotNull Model> models = buildChain(context, presence, dependencies, providedDependencies, null);
+            dependencies.values().removeIf(v -> v == null || v.isCompiled());
+            context.getProgress().setArtifacts(dependencies.size() + models.size());
+
+            List<@NotNull ResolvedArtifact> artifacts = new ArrayList<>();
+            Map<@NotNull String, @NotNull Throwable> failures = new LinkedHashMap<>();
             for (DependencyWrapper wrapper : dependencies.values()) {
                 if (wrapper != null) {
-                    inject(classLoader, wrapper);
+                    try {
+                        artifacts.add(resolve(context, wrapper));
+                    } catch (IOException ex) {
+                        addFailure(context, failures, getName(wrapper), ex);
+                    }
                 }
             }
             for (Model model : models) {
-                inject(classLoader, model);
+                try {
+                    artifacts.add(resolve(context, model));
+                } catch (IOException ex) {
+                    addFailure(context, failures, getName(model), ex);
+                }
             }
-            return;
+
+            return toResolution(key, lockFile, artifacts, providedDependencies, failures);
         }
 
-        AtomicInteger errors = new AtomicInteger(0);
-        CountDownLatch downloadLatch = new CountDownLatch(dependencies.size() + models.size());
         ExecutorService pool = Executors.newWorkStealingPool(threads);
-        for (DependencyWrapper wrapper : dependencies.values()) {
-            if (wrapper != null) {
+        try {
+            if (preconnect && !context.isOffline()) {
+                preconnect(context, pool);
+            }
+
+            List<@NotNull Model> models = buildChain(context, presence, dependencies, providedDependencies, pool);
+            dependencies.values().removeIf(v -> v == null || v.isCompiled());
+
+            List<@NotNull DependencyWrapper> wrappers = new ArrayList<>(dependencies.values());
+            List<@NotNull String> names = new ArrayList<>();
+            for (DependencyWrapper wrapper : wrappers) {
+                names.add(getName(wrapper));
+            }
+            for (Model model : models) {
+                names.add(getName(model));
+            }
+            AtomicReferenceArray<@Nullable ResolvedArtifact> artifacts = new AtomicReferenceArray<>(names.size());
+            AtomicReferenceArray<@Nullable Throwable> errors = new AtomicReferenceArray<>(names.size());
+            context.getProgress().setArtifacts(artifacts.length());
+
+            CountDownLatch downloadLatch = new CountDownLatch(artifacts.length());
+            for (int i = 0; i < wrappers.size(); i++) {
+                DependencyWrapper wrapper = wrappers.get(i);
+                int index = i;
                 pool.execute(() -> {
                     try {
-                        inject(classLoader, wrapper);
+                        artifacts.set(index, resolve(context, wrapper));
                     } catch (IOException ex) {
-                        errors.incrementAndGet();
-                        logger.error("Could not inject artifact " + wrapper.getDependency().getGroupId() + ":" + wrapper.getDependency()
-                                .getArtifactId() + ":" + wrapper.getDependency().getVersion(), ex);
+                        errors.set(index, ex);
                     }
                     downloadLatch.countDown();
                 });
-            } else {
-                downloadLatch.countDown();
             }
-        }
-        for (Model model : models) {
-            pool.execute(() -> {
-                try {
-                    inject(classLoader, model);
-                } catch (IOException ex) {
-                    errors.incrementAndGet();
-                    logger.error("Could not inject artifact " + model.getGroupId() + ":" + model.getArtifactId() + ":" + model.getVersion(), ex);
+            for (int i = 0; i < models.size(); i++) {
+                Model model = models.get(i);
+                int index = wrappers.size() + i;
+                pool.execute(() -> {
+                    try {
+                        artifacts.set(index, resolve(context, model));
+                    } catch (IOException ex) {
+                        errors.set(index, ex);
+                    }
+                    downloadLatch.countDown();
+                });
+            }
+
+            try {
+                if (!downloadLatch.await(maxDownloadTime, maxDownloadTimeUnit)) {
+                    logger.error("Could not download required artifacts.");
                 }
-                downloadLatch.countDown();
-            });
-        }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
 
-        try {
-            if (!downloadLatch.await(maxDownloadTime, maxDownloadTimeUnit)) {
-                logger.error("Could not download required artifacts.");
+            // Collected in order so the failures read the same from one run to the next
+            List<@NotNull ResolvedArtifact> resolved = new ArrayList<>();
+            Map<@NotNull String, @NotNull Throwable> failures = new LinkedHashMap<>();
+            for (int i = 0; i < artifacts.length(); i++) {
+                ResolvedArtifact artifact = artifacts.get(i);
+                if (artifact != null) {
+                    resolved.add(artifact);
+                    continue;
+                }
+                Throwable error = errors.get(i);
+                addFailure(context, failures, names.get(i), error != null ? error : new TimeoutException("Not resolved within " + maxDownloadTime + " " + maxDownloadTimeUnit.name()
+                        .toLowerCase(Locale.ROOT)));
             }
+
+            return toResolution(key, lockFile, resolved, providedDependencies, failures);
+        } finally {
             pool.shutdownNow();
-            if (errors.get() > 0) {
-                logger.error("Some artifacts reported errors while downloading.");
+        }
+    }
+
+    @NotNull
+    private Resolution toResolution(
+            @NotNull String key,
+            @NotNull File lockFile,
+            @NotNull List<@NotNull ResolvedArtifact> artifacts,
+            @NotNull Set<@NotNull String> providedDependencies,
+            @NotNull Map<@NotNull String, @NotNull Throwable> failures
+    ) {
+        Resolution retVal = new Resolution(key, System.currentTimeMillis(), artifacts, providedDependencies, failures);
+        // Only persist complete resolutions, otherwise the next run would never retry the missing artifacts
+        if (retVal.isComplete()) {
+            writeLockFile(lockFile, retVal);
+        } else {
+            logger.error("Some artifacts reported errors while downloading.");
+        }
+        return retVal;
+    }
+
+    private void addFailure(@NotNull ResolutionContext context, @NotNull Map<@NotNull String, @NotNull Throwable> failures, @NotNull String name, @NotNull Throwable cause) {
+        failures.put(name, cause);
+        context.getProgress().addFailure(name, cause);
+        logger.error("Could not inject artifact " + name, cause);
+    }
+
+    @NotNull
+    private static String getName(@NotNull DependencyWrapper wrapper) {
+        return wrapper.getDependency().getGroupId() + ":" + wrapper.getDependency().getArtifactId() + ":" + wrapper.getDependency().getVersion();
+    }
+
+    @NotNull
+    private static String getName(@NotNull Model model) { return model.getGroupId() + ":" + model.getArtifactId() + ":" + model.getVersion(); }
+
+    private boolean isValid(@NotNull PresenceIndex presence, @NotNull Resolution resolution) {
+        // SNAPSHOT, RELEASE, and LATEST may point somewhere new since the last run
+        if (resolution.isDynamic() && !isOffline() && updatePolicy.isExpired(resolution.getCreated())) {
+            return false;
+        }
+        CacheManifest manifest = CacheManifest.get(cacheDir);
+        for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+            // Lazy artifacts are fetched on first use, so there may be nothing on disk yet
+            if (!artifact.isLazy() && !manifest.isValid(artifact.getFile()) && !(isOffline() && artifact.getFile().isFile())) {
+                return false;
             }
-        } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
+        }
+        for (String dependency : resolution.getProvidedDependencies()) {
+            int index = dependency.indexOf(':');
+            if (!presence.contains(dependency.substring(0, index), dependency.substring(index + 1))) {
+                return false;
+            }
+        }
+        // Something we'd inject is now provided by the loader, a fresh walk would skip it instead of adding a second copy
+        // Builders' own artifacts are always injected, same as the walk does
+        Set<@NotNull String> roots = new HashSet<>();
+        for (JarBuilder builder : builders) {
+            roots.add(builder.getGroupId() + ":" + builder.getArtifactId());
+        }
+        for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+            if (!roots.contains(artifact.getGroupId() + ":" + artifact.getArtifactId()) && presence.contains(artifact.getGroupId(), artifact.getArtifactId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void preconnect(@NotNull ResolutionContext context, @NotNull ExecutorService pool) {
+        // Warm up one connection per host in the background while the first POMs are being resolved
+        Map<@NotNull String, @NotNull String> hosts = new LinkedHashMap<>();
+        for (JarBuilder builder : builders) {
+            addHost(hosts, builder.getRepositoryUrl());
+            for (String proxy : builder.getProxies().values()) {
+                if (proxy != null) {
+                    addHost(hosts, proxy);
+                }
+            }
+        }
+        for (String url : hosts.values()) {
+            pool.execute(() -> context.getTransport().warm(url));
+        }
+    }
+
+    private void addHost(@NotNull Map<@NotNull String, @NotNull String> hosts, @NotNull String url) {
+        try {
+            URL u = new URL(url);
+            hosts.putIfAbsent(u.getProtocol() + "://" + u.getHost() + ":" + u.getPort(), url);
+        } catch (MalformedURLException ex) {
+            logger.debug("Could not parse repository URL " + url, ex);
+        }
+    }
+
+    private void writeLockFile(@NotNull File lockFile, @NotNull Resolution resolution) {
+        try {
+            LockFileUtils.write(lockFile, resolution);
+        } catch (IOException ex) {
+            logger.warn("Could not write resolution lock file " + lockFile.getAbsolutePath(), ex);
         }
     }
 
     @NotNull
-    private File inject(@NotNull InjectableClassLoader classLoader, @NotNull Model model) throws IOException {
-        File retVal = downloadOrThrow(model.getRepositories(), model.getGroupId(), model.getArtifactId(), model.getVersion());
-        classLoader.addJar(retVal.toURI().toURL());
+    private ResolvedArtifact resolve(@NotNull ResolutionContext context, @NotNull Model model) throws IOException {
+        ResolvedArtifact retVal = downloadOrThrow(context, model.getRepositories(), model.getGroupId(), model.getArtifactId(), model.getVersion());
+        context.getProgress().addResolved();
         return retVal;
     }
 
     @NotNull
-    private File inject(@NotNull InjectableClassLoader classLoader, @NotNull DependencyWrapper wrapper) throws IOException {
-        File retVal = downloadOrThrow(
+    private ResolvedArtifact resolve(@NotNull ResolutionContext context, @NotNull DependencyWrapper wrapper) throws IOException {
+        ResolvedArtifact retVal = downloadOrThrow(
+                context,
                 wrapper.getRepositories(),
                 wrapper.getDependency().getGroupId(),
                 wrapper.getDependency().getArtifactId(),
                 wrapper.getDependency().getVersion()
         );
-        classLoader.addJar(retVal.toURI().toURL());
+        context.getProgress().addResolved();
         return retVal;
     }
 
     @NotNull
-    private File downloadOrThrow(
+    private ResolvedArtifact downloadOrThrow(
+            @NotNull ResolutionContext context,
             @NotNull Collection<@NotNull Repository> repositories,
             @NotNull String groupId,
             @NotNull String artifactId,
             @NotNull String version
     ) throws IOException {
+        List<@NotNull Repository> candidates = context.order(new ArrayList<>(repositories), Repository::getUrl);
+        if (context.isHedging() && candidates.size() > 1 && isStatic(version)) {
+            File cacheFile = HttpUtils.getJarCacheFile(cacheDir, groupId, artifactId, version);
+            if (!context.isCached(cacheFile)) {
+                candidates = RepositoryProber.order(
+                        context,
+                        candidates,
+                        r -> HttpUtils.getArtifactUrl(r.getUrl(), groupId, artifactId, version, artifactId + "-" + version + ".jar")
+                );
+            }
+        }
+
         File outFile;
-        for (Repository repository : repositories) {
+        for (Repository repository : candidates) {
             try {
-                String realVersion = HttpUtils.getRealVersion(repository.getUrl(), null, groupId, artifactId, version, null);
+                String realVersion = HttpUtils.getRealVersion(context, updatePolicy, repository.getUrl(), null, groupId, artifactId, version, null);
                 if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
                     outFile = HttpUtils.getJarCacheFile(cacheDir, groupId, artifactId, version, realVersion);
                 } else {
                     outFile = HttpUtils.getJarCacheFile(cacheDir, groupId, artifactId, realVersion);
                 }
-                if (outFile.exists()) {
-                    return relocate(outFile, groupId, artifactId, version, realVersion);
+                boolean cached = context.isCached(outFile);
+                boolean streaming = streamingRelocation && !relocations.isEmpty() && RelocationUtils.canRemap() && !cached;
+                if (streaming) {
+                    File relocatedFile = getStreamedRelocation(context, outFile, groupId, artifactId, version, realVersion);
+                    if (relocatedFile != null) {
+                        listener.onCacheHit(relocatedFile);
+                        return new ResolvedArtifact(groupId, artifactId, version, realVersion, repository.getUrl(), relocatedFile);
+                    }
+                    listener.onCacheMiss(outFile);
+                    if (context.isOffline()) {
+                        continue;
+                    }
+                    try {
+                        relocatedFile = streamRelocate(context, outFile, repository.getUrl(), groupId, artifactId, version, realVersion);
+                        return new ResolvedArtifact(groupId, artifactId, version, realVersion, repository.getUrl(), relocatedFile);
+                    } catch (HttpStatusException ex) {
+                        throw ex;
+                    } catch (IOException ex) {
+                        // Not every jar can be relocated as it arrives (Zip64, stored entries with data descriptors)
+                        // Those still work downloaded first and relocated from the file, so this repository gets another go that way
+                        logger.debug("Could not relocate " + groupId + ":" + artifactId + ":" + realVersion + " while streaming it, downloading it first instead", ex);
+                    }
+                } else if (cached) {
+                    listener.onCacheHit(outFile);
+                } else {
+                    listener.onCacheMiss(outFile);
                 }
 
-                if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
-                    return relocate(
-                            HttpUtils.tryDownloadJar(outFile, repository.getUrl(), groupId, artifactId, version, realVersion),
-                            groupId,
-                            artifactId,
-                            version,
-                            realVersion
-                    );
-                } else {
-                    return relocate(HttpUtils.tryDownloadJar(outFile, repository.getUrl(), groupId, artifactId, realVersion), groupId, artifactId, version, realVersion);
+                if (lazyInjection && !cached && !streaming && !context.isOffline()) {
+                    Set<@NotNull String> packages = getLazyPackages(context, repository.getUrl(), groupId, artifactId, version, realVersion);
+                    if (packages != null) {
+                        return new ResolvedArtifact(groupId, artifactId, version, realVersion, repository.getUrl(), outFile, packages);
+                    }
                 }
+
+                if (!cached) {
+                    if (context.isOffline()) {
+                        continue;
+                    }
+                    if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
+                        HttpUtils.tryDownloadJar(context, outFile, repository.getUrl(), groupId, artifactId, version, realVersion);
+                    } else {
+                        HttpUtils.tryDownloadJar(context, outFile, repository.getUrl(), groupId, artifactId, realVersion);
+                    }
+                    context.getProgress().addDownloaded();
+                }
+
+                return new ResolvedArtifact(
+                        groupId,
+                        artifactId,
+                        version,
+                        realVersion,
+                        repository.getUrl(),
+                        relocate(context, outFile, groupId, artifactId, version, realVersion)
+                );
             } catch (IOException ignored) {
             }
         }
+        if (context.isOffline()) {
+            context.addMissing(groupId, artifactId, version, "jar");
+            throw new IOException("Offline mode is enabled and artifact is not cached.");
+        }
         throw new IOException("Artifact was not found in any provided repository.");
     }
 
+    // Null if the repository won't tell us, in which case the jar is just downloaded now
+    @Nullable
+    private Set<@NotNull String> getLazyPackages(
+            @NotNull ResolutionContext context,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) {
+        Set<@NotNull String> packages;
+        try {
+            packages = HttpUtils.tryGetJarPackages(
+                    context,
+                    repositoryUrl,
+                    groupId,
+                    artifactId,
+                    version.toLowerCase(Locale.ROOT).endsWith("-snapshot") ? version : realVersion,
+                    realVersion
+            );
+        } catch (IOException ex) {
+            logger.debug("Could not read packages of " + groupId + ":" + artifactId + ":" + realVersion + ", downloading it now", ex);
+            return null;
+        }
+        if (packages.isEmpty() || packages.contains("")) {
+            // Nothing (or only the default package) to trigger on
+            return null;
+        }
+        if (relocations.isEmpty()) {
+            return packages;
+        }
+        if (!RelocationUtils.canRemap()) {
+            // No way to tell what the packages will be called, so this one can't wait
+            return null;
+        }
+
+        // The class loader sees relocated names, so those are what have to trigger the download
+        Remapper remapper = RelocationUtils.newRemapper(relocations);
+        Set<@NotNull String> retVal = new HashSet<>();
+        for (String p : packages) {
+            String mapped = remapper.map(p + "/X");
+            retVal.add(mapped.substring(0, mapped.lastIndexOf('/')));
+        }
+        return retVal;
+    }
+
+    // Downloads and relocates a lazily resolved artifact, giving back the artifact as it would have been resolved eagerly
+    @NotNull
+    private ResolvedArtifact fetchLazy(@NotNull ResolvedArtifact artifact) throws IOException {
+        ResolutionContext context = new ResolutionContext(cacheDir, updatePolicy, isOffline(), transport).setListener(listener);
+        File outFile = artifact.getFile();
+        CacheLock lock = CacheLock.acquire(outFile);
+        try {
+            if (!context.isCached(outFile)) {
+                if (context.isOffline()) {
+                    throw new IOException("Offline mode is enabled and artifact is not cached: " + outFile.getAbsolutePath());
+                }
+                HttpUtils.tryDownloadJar(
+                        context,
+                        outFile,
+                        artifact.getRepositoryUrl(),
+                        artifact.getGroupId(),
+                        artifact.getArtifactId(),
+                        artifact.getVersion().toLowerCase(Locale.ROOT).endsWith("-snapshot") ? artifact.getVersion() : artifact.getRealVersion(),
+                        artifact.getRealVersion()
+                );
+                context.getProgress().addDownloaded();
+            }
+        } finally {
+            lock.close();
+        }
+        return new ResolvedArtifact(
+                artifact.getGroupId(),
+                artifact.getArtifactId(),
+                artifact.getVersion(),
+                artifact.getRealVersion(),
+                artifact.getRepositoryUrl(),
+                relocate(context, outFile, artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), artifact.getRealVersion())
+        );
+    }
+
+    private static boolean isStatic(@NotNull String version) {
+        return !version.toLowerCase(Locale.ROOT).endsWith("-snapshot") && !version.equalsIgnoreCase("release") && !version.equalsIgnoreCase("latest");
+    }
+
     @NotNull
     private File relocate(
+            @NotNull ResolutionContext context,
             @NotNull File inFile,
             @NotNull String groupId,
             @NotNull String artifactId,
@@ -228,71 +879,258 @@ public class JarInjector {
             return inFile;
         }
 
-        File outFile;
-        if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
-            outFile = HttpUtils.getRelocatedJarCacheFile(cacheDir, groupId, artifactId, version, realVersion);
-        } else {
-            outFile = HttpUtils.getRelocatedJarCacheFile(cacheDir, groupId, artifactId, realVersion);
+        // Prefer the hash recorded at download time, only hash the jar ourselves for files that predate the manifest
+        String sourceHash = context.getManifest().getHash(inFile);
+        if (sourceHash == null) {
+            sourceHash = HttpUtils.hashFile(inFile);
+            context.getManifest().put(inFile, sourceHash);
         }
+        File outFile = getRelocatedFile(sourceHash, groupId, artifactId, version, realVersion);
+
+        CacheLock lock = CacheLock.acquire(outFile);
+        try {
+            if (context.getManifest().isValid(outFile)) {
+                return outFile;
+            }
 
-        JarRelocator relocator = new JarRelocator(inFile, outFile, relocations);
-        relocator.run();
+            // Unique temp file + atomic rename, so concurrent relocations (even across processes) never see half a jar
+            long start = System.nanoTime();
+            listener.onRelocationStarted(groupId, artifactId, realVersion, inFile);
+            File tmpFile = HttpUtils.getTempFile(outFile);
+            try {
+                new ParallelJarRelocator(inFile, tmpFile, relocations).run();
+                HttpUtils.moveAtomically(tmpFile, outFile);
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+            context.getManifest().put(outFile, null);
+            context.getProgress().addRelocated();
+            listener.onRelocationFinished(groupId, artifactId, realVersion, inFile, outFile, (System.nanoTime() - start) / 1_000_000L);
+        } finally {
+            lock.close();
+        }
         return outFile;
     }
 
     @Nullable
-    private Model buildChain(
-            @NotNull JarBuilder builder,
-            @NotNull File cacheDir,
-            @NotNull InjectableClassLoader classLoader,
+    private File getStreamedRelocation(
+            @NotNull ResolutionContext context,
+            @NotNull File inFile,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) throws IOException {
+        String sourceHash = context.getManifest().getStreamedHash(inFile);
+        if (sourceHash == null) {
+            return null;
+        }
+        File outFile = getRelocatedFile(sourceHash, groupId, artifactId, version, realVersion);
+        return context.isCached(outFile) ? outFile : null;
+    }
+
+    @NotNull
+    private File streamRelocate(
+            @NotNull ResolutionContext context,
+            @NotNull File inFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) throws IOException {
+        // The output name depends on the source hash, which we only know once the download is done
+        // So the source file's lock is the one that keeps two threads (or processes) from streaming the same jar
+        CacheLock lock = CacheLock.acquire(inFile);
+        try {
+            File outFile = getStreamedRelocation(context, inFile, groupId, artifactId, version, realVersion);
+            if (outFile != null) {
+                return outFile;
+            }
+
+            // Download and relocation overlap here, so the relocation events span the whole transfer
+            long start = System.nanoTime();
+            listener.onRelocationStarted(groupId, artifactId, realVersion, inFile);
+            File tmpFile = HttpUtils.getTempFile(inFile);
+            try {
+                String sourceHash = HttpUtils.tryStreamJar(
+                        context,
+                        keepOriginalJars ? inFile : null,
+                        repositoryUrl,
+                        groupId,
+                        artifactId,
+                        version.toLowerCase(Locale.ROOT).endsWith("-snapshot") ? version : realVersion,
+                        realVersion,
+                        in -> new ParallelJarRelocator(in, tmpFile, relocations).run()
+                );
+
+                context.getProgress().addDownloaded();
+                context.getProgress().addRelocated();
+
+                outFile = getRelocatedFile(sourceHash, groupId, artifactId, version, realVersion);
+                CacheLock outLock = CacheLock.acquire(outFile);
+                try {
+                    HttpUtils.moveAtomically(tmpFile, outFile);
+                    context.getManifest().put(outFile, null);
+                } finally {
+                    outLock.close();
+                }
+                if (!keepOriginalJars) {
+                    context.getManifest().putStreamed(inFile, sourceHash);
+                }
+                listener.onRelocationFinished(groupId, artifactId, realVersion, inFile, outFile, (System.nanoTime() - start) / 1_000_000L);
+                return outFile;
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    @NotNull
+    private File getRelocatedFile(
+            @NotNull String sourceHash,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) throws IOException {
+        String relocationKey = RelocationUtils.getOutputKey(sourceHash, relocations);
+        if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
+            return HttpUtils.getRelocatedJarCacheFile(cacheDir, groupId, artifactId, version, realVersion, relocationKey);
+        }
+        return HttpUtils.getRelocatedJarCacheFile(cacheDir, groupId, artifactId, realVersion, realVersion, relocationKey);
+    }
+
+    @NotNull
+    private List<@NotNull Model> buildChain(
+            @NotNull ResolutionContext context,
+            @NotNull PresenceIndex presence,
             @NotNull Map<@NotNull String, @Nullable DependencyWrapper> dependencies,
-            boolean recurse
+            @NotNull Set<@NotNull String> providedDependencies,
+            @Nullable ExecutorService pool
     ) throws IOException, ModelBuildingException {
-        Model model = builder.build(cacheDir);
-        if (model == null) {
-            return null;
+        List<@NotNull Model> retVal = new ArrayList<>();
+
+        // Every top-level POM is built up front, the context remembers them for the walks below
+        buildLevel(context, new ArrayList<>(builders), pool);
+
+        // Each builder's graph is walked in full, in the order they were added, so earlier builders win conflicts the same as they always have
+        for (JarBuilder root : builders) {
+            Model model = buildChain(context, presence, dependencies, providedDependencies, pool, root);
+            if (model != null) {
+                retVal.add(model);
+            }
         }
+        return retVal;
+    }
 
-        // Add dependencies breadth-first so we behave like Maven
-        List<@NotNull JarBuilder> currentBuilders = new ArrayList<>();
+    @Nullable
+    private Model buildChain(
+            @NotNull ResolutionContext context,
+            @NotNull PresenceIndex presence,
+            @NotNull Map<@NotNull String, @Nullable DependencyWrapper> dependencies,
+            @NotNull Set<@NotNull String> providedDependencies,
+            @Nullable ExecutorService pool,
+            @NotNull JarBuilder root
+    ) throws IOException, ModelBuildingException {
+        Model retVal = null;
 
-        boolean hasShade = hasShadePlugin(model);
+        // Walk the graph one breadth-first level at a time so we behave like Maven
+        // Every POM in a level is built concurrently, but the level is always merged in order so the first-seen artifact wins
+        List<@NotNull JarBuilder> currentBuilders = Collections.singletonList(root);
+        boolean topLevel = true;
+        while (!currentBuilders.isEmpty()) {
+            List<@Nullable Model> models = buildLevel(context, currentBuilders, pool);
+            List<@NotNull JarBuilder> nextBuilders = new ArrayList<>();
 
-        for (Dependency dependency : model.getDependencies()) {
-            if (!hasShade && !dependency.isOptional() && dependency.getScope().equalsIgnoreCase("compile") && !hasDependency(
-                    classLoader,
-                    dependency.getGroupId(),
-                    dependency.getArtifactId()
-            )) {
-                if (!dependencies.containsKey(dependency.getGroupId() + ":" + dependency.getArtifactId())) {
-                    dependencies.put(
-                            dependency.getGroupId() + ":" + dependency.getArtifactId() + ":" + dependency.getVersion(),
-                            new DependencyWrapper(model, dependency)
-                    );
-                    currentBuilders.add(builder.clone(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion()));
+            for (int i = 0; i < currentBuilders.size(); i++) {
+                Model model = models.get(i);
+                if (model == null) {
+                    continue;
                 }
-            } else {
-                dependencies.compute(dependency.getGroupId() + ":" + dependency.getArtifactId(), (k, v) -> {
-                    if (v == null) {
-                        v = new DependencyWrapper(model, dependency);
+                if (topLevel) {
+                    retVal = model;
+                }
+
+                JarBuilder builder = currentBuilders.get(i);
+                boolean hasShade = hasShadePlugin(model);
+
+                for (Dependency dependency : model.getDependencies()) {
+                    String key = dependency.getGroupId() + ":" + dependency.getArtifactId();
+                    boolean required = !hasShade && !dependency.isOptional() && dependency.getScope().equalsIgnoreCase("compile");
+                    if (required && presence.contains(dependency.getGroupId(), dependency.getArtifactId())) {
+                        providedDependencies.add(key);
+                        required = false;
                     }
-                    v.setCompiled(true);
-                    return v;
-                });
+
+                    if (required) {
+                        if (!dependencies.containsKey(key)) {
+                            dependencies.put(key, new DependencyWrapper(model, dependency));
+                            nextBuilders.add(builder.clone(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion()));
+                        }
+                    } else {
+                        dependencies.computeIfAbsent(key, k -> {
+                            DependencyWrapper v = new DependencyWrapper(model, dependency);
+                            v.setCompiled(true);
+                            return v;
+                        });
+                    }
+                }
             }
+
+            currentBuilders = nextBuilders;
+            topLevel = false;
         }
+        return retVal;
+    }
 
-        // Again, breadth-first. Only add deps, don't recurse until everything under this pom has been accounted for
-        if (recurse) {
-            for (JarBuilder b : currentBuilders) {
-                buildChain(b, cacheDir, classLoader, dependencies, false);
-            }
-            for (JarBuilder b : currentBuilders) {
-                buildChain(b, cacheDir, classLoader, dependencies, true);
+    @NotNull
+    private List<@Nullable Model> buildLevel(
+            @NotNull ResolutionContext context,
+            @NotNull List<@NotNull JarBuilder> builders,
+            @Nullable ExecutorService pool
+    ) throws IOException, ModelBuildingException {
+        List<@Nullable Model> retVal = new ArrayList<>(builders.size());
+        if (pool == null || builders.size() == 1) {
+            for (JarBuilder builder : builders) {
+                retVal.add(builder.build(context));
             }
+            return retVal;
+        }
+
+        List<@NotNull Future<@Nullable Model>> futures = new ArrayList<>(builders.size());
+        for (JarBuilder builder : builders) {
+            futures.add(pool.submit(() -> builder.build(context)));
         }
 
-        return model;
+        try {
+            for (Future<@Nullable Model> future : futures) {
+                retVal.add(future.get(maxDownloadTime, maxDownloadTimeUnit));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building artifact models.", ex);
+        } catch (TimeoutException ex) {
+            throw new IOException("Could not build artifact models in time.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            if (ex.getCause() instanceof ModelBuildingException) {
+                throw (ModelBuildingException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException("Could not build artifact model.", ex.getCause());
+        } finally {
+            for (Future<@Nullable Model> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return retVal;
     }
 
     private boolean hasShadePlugin(@NotNull Model model) {
@@ -307,8 +1145,4 @@ public class JarInjector {
         }
         return false;
     }
-
-    private boolean hasDependency(@NotNull InjectableClassLoader classLoader, @NotNull String groupId, @NotNull String artifactId) {
-        return classLoader.findResource("META-INF/maven/" + groupId + "/" + artifactId + "/pom.xml") != null;
-    }
 }
@@ -0,0 +1,158 @@
+package ninja.egg82.mvn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Every groupId:artifactId a class loader can already see through META-INF/maven, with the versions it has of each
+// Built once from the loader's URLs instead of probing it with findResource() per dependency
+public class PresenceIndex {
+    private static final @NotNull String PREFIX = "META-INF/maven/";
+
+    private final @NotNull Map<@NotNull String, @NotNull Set<@NotNull String>> artifacts;
+    private final @Nullable URLClassLoader fallback;
+
+    private PresenceIndex(@NotNull Map<@NotNull String, @NotNull Set<@NotNull String>> artifacts, @Nullable URLClassLoader fallback) {
+        this.artifacts = artifacts;
+        this.fallback = fallback;
+    }
+
+    @NotNull
+    public static PresenceIndex build(@NotNull URLClassLoader classLoader) {
+        Set<@NotNull String> present = ConcurrentHashMap.newKeySet();
+        ConcurrentMap<@NotNull String, @NotNull Set<@NotNull String>> versions = new ConcurrentHashMap<>();
+        AtomicBoolean incomplete = new AtomicBoolean(false);
+
+        // Each classpath entry is independent, so they're all read in parallel
+        Arrays.stream(classLoader.getURLs()).parallel().forEach(url -> {
+            if (!index(url, present, versions)) {
+                incomplete.set(true);
+            }
+        });
+
+        Map<@NotNull String, @NotNull Set<@NotNull String>> artifacts = new HashMap<>();
+        for (String key : present) {
+            artifacts.put(key, Collections.unmodifiableSet(new TreeSet<>(versions.getOrDefault(key, Collections.emptySet()))));
+        }
+        // Whatever we couldn't read ourselves still gets probed the old way, but only on a miss
+        return new PresenceIndex(Collections.unmodifiableMap(artifacts), incomplete.get() ? classLoader : null);
+    }
+
+    public boolean contains(@NotNull String groupId, @NotNull String artifactId) {
+        return artifacts.containsKey(groupId + ":" + artifactId)
+                || (fallback != null && fallback.findResource(PREFIX + groupId + "/" + artifactId + "/pom.xml") != null);
+    }
+
+    // Empty if the artifact isn't present, or if it is but never said which version it was
+    @NotNull
+    public Set<@NotNull String> getVersions(@NotNull String groupId, @NotNull String artifactId) {
+        Set<@NotNull String> retVal = artifacts.get(groupId + ":" + artifactId);
+        return retVal != null ? retVal : Collections.emptySet();
+    }
+
+    @NotNull
+    public Map<@NotNull String, @NotNull Set<@NotNull String>> getArtifacts() { return artifacts; }
+
+    public boolean isComplete() { return fallback == null; }
+
+    private static boolean index(
+            @NotNull URL url,
+            @NotNull Set<@NotNull String> present,
+            @NotNull ConcurrentMap<@NotNull String, @NotNull Set<@NotNull String>> versions
+    ) {
+        if (!"file".equalsIgnoreCase(url.getProtocol())) {
+            return false;
+        }
+
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException ignored) {
+            return false;
+        }
+
+        if (file.isDirectory()) {
+            Path root = file.toPath();
+            Path maven = root.resolve(PREFIX);
+            if (!Files.isDirectory(maven)) {
+                return true;
+            }
+            try (Stream<Path> walker = Files.walk(maven, 3)) {
+                walker.filter(Files::isRegularFile).forEach(path -> {
+                    String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                    add(name, () -> Files.newInputStream(path), present, versions);
+                });
+            } catch (IOException ignored) {
+                return false;
+            }
+            return true;
+        }
+
+        if (!file.isFile()) {
+            // Missing classpath entries are common and can't provide anything
+            return true;
+        }
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                add(entry.getName(), () -> zip.getInputStream(entry), present, versions);
+            }
+        } catch (IOException ignored) {
+            return false;
+        }
+        return true;
+    }
+
+    // META-INF/maven/<groupId>/<artifactId>/pom.xml marks presence, pom.properties beside it tells us the version
+    private static void add(
+            @NotNull String name,
+            @NotNull StreamOpener opener,
+            @NotNull Set<@NotNull String> present,
+            @NotNull ConcurrentMap<@NotNull String, @NotNull Set<@NotNull String>> versions
+    ) {
+        if (!name.startsWith(PREFIX)) {
+            return;
+        }
+        String[] parts = name.substring(PREFIX.length()).split("/");
+        if (parts.length != 3) {
+            return;
+        }
+
+        String key = parts[0] + ":" + parts[1];
+        if (parts[2].equals("pom.xml")) {
+            present.add(key);
+        } else if (parts[2].equals("pom.properties")) {
+            Properties properties = new Properties();
+            try (InputStream in = opener.open()) {
+                properties.load(in);
+            } catch (IOException ignored) {
+                return;
+            }
+            String version = properties.getProperty("version");
+            if (version != null && !version.trim().isEmpty()) {
+                versions.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(version.trim());
+            }
+        }
+    }
+
+    private interface StreamOpener {
+        @NotNull
+        InputStream open() throws IOException;
+    }
+}
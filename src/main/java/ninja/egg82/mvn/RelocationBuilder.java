@@ -1,6 +1,7 @@
 package ninja.egg82.mvn;
 
 import me.lucko.jarrelocator.Relocation;
+import ninja.egg82.mvn.internal.RelocationUtils;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
@@ -8,6 +9,8 @@ import java.util.Objects;
 import java.util.regex.Pattern;
 
 public class RelocationBuilder implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final @NotNull String pattern;
     private final @NotNull String relocatedPrefix;
 
@@ -23,24 +26,24 @@ public class RelocationBuilder implements Serializable {
     @NotNull
     public Relocation build(char find, char replace) {
         String replaced = pattern.replace(find, replace);
-        return new Relocation(replaced, relocatedPrefix + replaced);
+        return RelocationUtils.register(new Relocation(replaced, relocatedPrefix + replaced), replaced, relocatedPrefix + replaced);
     }
 
     @NotNull
     public Relocation build(@NotNull String find, @NotNull String replace) {
         String replaced = pattern.replace(find, replace);
-        return new Relocation(replaced, relocatedPrefix + replaced);
+        return RelocationUtils.register(new Relocation(replaced, relocatedPrefix + replaced), replaced, relocatedPrefix + replaced);
     }
 
     @NotNull
     public Relocation build(@NotNull Pattern find, @NotNull String replace) {
         String replaced = find.matcher(pattern).replaceAll(replace);
-        return new Relocation(replaced, relocatedPrefix + replaced);
+        return RelocationUtils.register(new Relocation(replaced, relocatedPrefix + replaced), replaced, relocatedPrefix + replaced);
     }
 
     @NotNull
     public Relocation build() {
-        return new Relocation(pattern, relocatedPrefix + pattern);
+        return RelocationUtils.register(new Relocation(pattern, relocatedPrefix + pattern), pattern, relocatedPrefix + pattern);
     }
 
     @NotNull
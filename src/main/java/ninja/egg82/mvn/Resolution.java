@@ -0,0 +1,88 @@
+package ninja.egg82.mvn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class Resolution {
+    private final @NotNull String key;
+    private final long created;
+    private final @NotNull List<@NotNull ResolvedArtifact> artifacts;
+    private final @NotNull Set<@NotNull String> providedDependencies;
+    private final @NotNull Map<@NotNull String, @NotNull Throwable> failures;
+
+    public Resolution(
+            @NotNull String key,
+            long created,
+            @NotNull List<@NotNull ResolvedArtifact> artifacts,
+            @NotNull Set<@NotNull String> providedDependencies
+    ) {
+        this(key, created, artifacts, providedDependencies, Collections.emptyMap());
+    }
+
+    public Resolution(
+            @NotNull String key,
+            long created,
+            @NotNull List<@NotNull ResolvedArtifact> artifacts,
+            @NotNull Set<@NotNull String> providedDependencies,
+            @NotNull Map<@NotNull String, @NotNull Throwable> failures
+    ) {
+        this.key = key;
+        this.created = created;
+        this.artifacts = Collections.unmodifiableList(new ArrayList<>(artifacts));
+        this.providedDependencies = Collections.unmodifiableSet(new LinkedHashSet<>(providedDependencies));
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    @NotNull
+    public String getKey() { return key; }
+
+    public long getCreated() { return created; }
+
+    @NotNull
+    public List<@NotNull ResolvedArtifact> getArtifacts() { return artifacts; }
+
+    @NotNull
+    public Set<@NotNull String> getProvidedDependencies() { return providedDependencies; }
+
+    // groupId:artifactId:version -> why it couldn't be resolved, these artifacts are missing from getArtifacts()
+    @NotNull
+    public Map<@NotNull String, @NotNull Throwable> getFailures() { return failures; }
+
+    public boolean isComplete() { return failures.isEmpty(); }
+
+    public boolean isDynamic() {
+        for (ResolvedArtifact artifact : artifacts) {
+            if (artifact.isDynamic()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Resolution that = (Resolution) o;
+        return created == that.created && key.equals(that.key) && artifacts.equals(that.artifacts) && providedDependencies.equals(that.providedDependencies) && failures.equals(that.failures);
+    }
+
+    @Override
+    public int hashCode() { return Objects.hash(key, created, artifacts, providedDependencies, failures); }
+
+    @Override
+    public String toString() {
+        return "Resolution{" +
+                "key='" + key + '\'' +
+                ", created=" + created +
+                ", artifacts=" + artifacts +
+                ", providedDependencies=" + providedDependencies +
+                ", failures=" + failures.keySet() +
+                '}';
+    }
+}
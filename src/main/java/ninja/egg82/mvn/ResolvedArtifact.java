@@ -0,0 +1,108 @@
+package ninja.egg82.mvn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.*;
+
+public class ResolvedArtifact {
+    private final @NotNull String groupId;
+    private final @NotNull String artifactId;
+    private final @NotNull String version;
+    private final @NotNull String realVersion;
+    private final @NotNull String repositoryUrl;
+    private final @NotNull File file;
+    // Only set for artifacts injected lazily, these are the (relocated) packages that trigger the download
+    private final @Nullable Set<@NotNull String> packages;
+
+    public ResolvedArtifact(
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion,
+            @NotNull String repositoryUrl,
+            @NotNull File file
+    ) {
+        this(groupId, artifactId, version, realVersion, repositoryUrl, file, null);
+    }
+
+    public ResolvedArtifact(
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion,
+            @NotNull String repositoryUrl,
+            @NotNull File file,
+            @Nullable Set<@NotNull String> packages
+    ) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.realVersion = realVersion;
+        this.repositoryUrl = repositoryUrl;
+        this.file = file;
+        this.packages = packages != null ? Collections.unmodifiableSet(new TreeSet<>(packages)) : null;
+    }
+
+    @NotNull
+    public String getGroupId() { return groupId; }
+
+    @NotNull
+    public String getArtifactId() { return artifactId; }
+
+    @NotNull
+    public String getVersion() { return version; }
+
+    @NotNull
+    public String getRealVersion() { return realVersion; }
+
+    @NotNull
+    public String getRepositoryUrl() { return repositoryUrl; }
+
+    @NotNull
+    public File getFile() { return file; }
+
+    @Nullable
+    public Set<@NotNull String> getPackages() { return packages; }
+
+    public boolean isLazy() { return packages != null; }
+
+    public boolean isDynamic() {
+        return !version.equals(realVersion) || version.toLowerCase(Locale.ROOT).endsWith("-snapshot");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ResolvedArtifact that = (ResolvedArtifact) o;
+        return groupId.equals(that.groupId)
+                && artifactId.equals(that.artifactId)
+                && version.equals(that.version)
+                && realVersion.equals(that.realVersion)
+                && repositoryUrl.equals(that.repositoryUrl)
+                && file.equals(that.file)
+                && Objects.equals(packages, that.packages);
+    }
+
+    @Override
+    public int hashCode() { return Objects.hash(groupId, artifactId, version, realVersion, repositoryUrl, file, packages); }
+
+    @Override
+    public String toString() {
+        return "ResolvedArtifact{" +
+                "groupId='" + groupId + '\'' +
+                ", artifactId='" + artifactId + '\'' +
+                ", version='" + version + '\'' +
+                ", realVersion='" + realVersion + '\'' +
+                ", repositoryUrl='" + repositoryUrl + '\'' +
+                ", file=" + file +
+                ", packages=" + packages +
+                '}';
+    }
+}
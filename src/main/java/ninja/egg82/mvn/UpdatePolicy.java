@@ -0,0 +1,77 @@
+package ninja.egg82.mvn;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Calendar;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+public class UpdatePolicy {
+    public static final @NotNull UpdatePolicy ALWAYS = new UpdatePolicy("always", 0L);
+    public static final @NotNull UpdatePolicy DAILY = new UpdatePolicy("daily", -1L);
+    public static final @NotNull UpdatePolicy NEVER = new UpdatePolicy("never", Long.MAX_VALUE);
+
+    private final @NotNull String name;
+    private final long intervalMillis;
+
+    private UpdatePolicy(@NotNull String name, long intervalMillis) {
+        this.name = name;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @NotNull
+    public static UpdatePolicy interval(long interval, @NotNull TimeUnit unit) {
+        if (interval < 0L) {
+            throw new IllegalArgumentException("interval cannot be negative.");
+        }
+        return new UpdatePolicy("interval:" + unit.toMinutes(interval), unit.toMillis(interval));
+    }
+
+    public boolean isExpired(long lastUpdated) { return isExpired(lastUpdated, System.currentTimeMillis()); }
+
+    public boolean isExpired(long lastUpdated, long now) {
+        if (intervalMillis == Long.MAX_VALUE) {
+            return false;
+        }
+        if (intervalMillis == 0L) {
+            return true;
+        }
+        if (intervalMillis < 0L) {
+            // Same as Maven: anything fetched before midnight today is stale
+            Calendar midnight = Calendar.getInstance();
+            midnight.setTimeInMillis(now);
+            midnight.set(Calendar.HOUR_OF_DAY, 0);
+            midnight.set(Calendar.MINUTE, 0);
+            midnight.set(Calendar.SECOND, 0);
+            midnight.set(Calendar.MILLISECOND, 0);
+            return lastUpdated < midnight.getTimeInMillis();
+        }
+        return now - lastUpdated >= intervalMillis;
+    }
+
+    @NotNull
+    public String getName() { return name; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        UpdatePolicy that = (UpdatePolicy) o;
+        return intervalMillis == that.intervalMillis && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() { return Objects.hash(name, intervalMillis); }
+
+    @Override
+    public String toString() {
+        return "UpdatePolicy{" +
+                "name='" + name + '\'' +
+                ", intervalMillis=" + intervalMillis +
+                '}';
+    }
+}
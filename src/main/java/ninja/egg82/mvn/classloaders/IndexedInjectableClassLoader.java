@@ -0,0 +1,338 @@
+package ninja.egg82.mvn.classloaders;
+
+import ninja.egg82.mvn.internal.HttpUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Knows which jars hold which packages, so lookups go straight to the owning jar instead of walking all of them
+// Anything that can't be indexed (non-file URLs, unreadable jars) is left to URLClassLoader as usual
+public class IndexedInjectableClassLoader extends InjectableClassLoader {
+    private static final int RUNTIME_VERSION;
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+
+        String version = System.getProperty("java.specification.version", "1.8");
+        int parsed;
+        try {
+            parsed = version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+        } catch (NumberFormatException ignored) {
+            parsed = 8;
+        }
+        RUNTIME_VERSION = parsed;
+    }
+
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull List<@NotNull IndexedJar>> index = new ConcurrentHashMap<>();
+    private final @NotNull List<@NotNull IndexedJar> jars = new CopyOnWriteArrayList<>();
+    private volatile boolean hasUnindexed = false;
+    private final boolean persistIndex;
+
+    public IndexedInjectableClassLoader(@NotNull ClassLoader parent) {
+        this(parent, true);
+    }
+
+    public IndexedInjectableClassLoader(@NotNull ClassLoader parent, boolean persistIndex) {
+        super(new URL[0], parent);
+        this.persistIndex = persistIndex;
+    }
+
+    @Override
+    public synchronized void addJar(@NotNull URL url) {
+        addURL(url);
+
+        IndexedJar jar = null;
+        if ("file".equalsIgnoreCase(url.getProtocol())) {
+            try {
+                File file = new File(url.toURI());
+                if (file.isFile()) {
+                    jar = new IndexedJar(url, file, getDirectories(file));
+                }
+            } catch (URISyntaxException | IllegalArgumentException | IOException ignored) {
+            }
+        }
+        if (jar == null) {
+            hasUnindexed = true;
+            return;
+        }
+
+        jars.add(jar);
+        for (String directory : jar.directories) {
+            index.computeIfAbsent(directory, k -> new CopyOnWriteArrayList<>()).add(jar);
+        }
+    }
+
+    @Override
+    @NotNull
+    protected Class<?> findClass(@NotNull String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        for (IndexedJar jar : getOwners(path)) {
+            try {
+                JarEntry entry = jar.getEntry(path);
+                if (entry != null) {
+                    return defineClass(name, jar, entry);
+                }
+            } catch (IOException ex) {
+                throw new ClassNotFoundException(name, ex);
+            }
+        }
+        if (hasUnindexed) {
+            return super.findClass(name);
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    @Override
+    @Nullable
+    public URL findResource(@NotNull String name) {
+        if (!name.endsWith("/")) {
+            for (IndexedJar jar : getOwners(name)) {
+                try {
+                    JarEntry entry = jar.getEntry(name);
+                    if (entry != null) {
+                        return jar.getUrl(entry);
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+            if (!hasUnindexed) {
+                return null;
+            }
+        }
+        return super.findResource(name);
+    }
+
+    @Override
+    @NotNull
+    public Enumeration<@NotNull URL> findResources(@NotNull String name) throws IOException {
+        if (hasUnindexed || name.endsWith("/")) {
+            return super.findResources(name);
+        }
+        List<@NotNull URL> retVal = new ArrayList<>();
+        for (IndexedJar jar : getOwners(name)) {
+            JarEntry entry = jar.getEntry(name);
+            if (entry != null) {
+                retVal.add(jar.getUrl(entry));
+            }
+        }
+        return Collections.enumeration(retVal);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (IndexedJar jar : jars) {
+            try {
+                jar.close();
+            } catch (IOException ex) {
+                exception = ex;
+            }
+        }
+        super.close();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    @NotNull
+    private List<@NotNull IndexedJar> getOwners(@NotNull String path) {
+        int index = path.lastIndexOf('/');
+        List<@NotNull IndexedJar> retVal = this.index.get(index != -1 ? path.substring(0, index) : "");
+        return retVal != null ? retVal : Collections.emptyList();
+    }
+
+    // getDefinedPackage() only exists from Java 9
+    @SuppressWarnings("deprecation")
+    @NotNull
+    private Class<?> defineClass(@NotNull String name, @NotNull IndexedJar jar, @NotNull JarEntry entry) throws IOException {
+        byte[] bytes;
+        try (InputStream in = jar.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(entry.getSize() > 0L ? (int) entry.getSize() : 8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            bytes = out.toByteArray();
+        }
+
+        int index = name.lastIndexOf('.');
+        if (index != -1) {
+            String packageName = name.substring(0, index);
+            if (getPackage(packageName) == null) {
+                try {
+                    Manifest manifest = jar.getManifest();
+                    if (manifest != null) {
+                        definePackage(packageName, manifest, jar.url);
+                    } else {
+                        definePackage(packageName, null, null, null, null, null, null, null);
+                    }
+                } catch (IllegalArgumentException ignored) {
+                    // Another thread got there first
+                }
+            }
+        }
+
+        return defineClass(name, bytes, 0, bytes.length, new CodeSource(jar.url, entry.getCodeSigners()));
+    }
+
+    // Every directory holding an entry, read from the persisted .idx when it still matches the jar
+    @NotNull
+    private Set<@NotNull String> getDirectories(@NotNull File file) throws IOException {
+        File indexFile = new File(file.getParentFile(), file.getName() + ".idx");
+        String header = file.length() + "|" + file.lastModified();
+
+        if (persistIndex && indexFile.isFile()) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+                if (header.equals(in.readLine())) {
+                    Set<@NotNull String> retVal = new HashSet<>();
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        retVal.add(line);
+                    }
+                    return retVal;
+                }
+            } catch (IOException ignored) {
+                // Corrupt index, just rebuild it
+            }
+        }
+
+        // Only the central directory gets read here, none of the entries are inflated
+        Set<@NotNull String> retVal = new TreeSet<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                int index = name.lastIndexOf('/');
+                String directory = index != -1 ? name.substring(0, index) : "";
+                retVal.add(directory);
+                // Versioned entries of multi-release jars are looked up under their unversioned name
+                if (directory.startsWith("META-INF/versions/")) {
+                    int end = name.indexOf('/', "META-INF/versions/".length());
+                    String unversioned = name.substring(end + 1);
+                    index = unversioned.lastIndexOf('/');
+                    retVal.add(index != -1 ? unversioned.substring(0, index) : "");
+                }
+            }
+        }
+
+        if (persistIndex) {
+            File tmpFile = HttpUtils.getTempFile(indexFile);
+            try {
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+                    out.write(header);
+                    out.write('\n');
+                    for (String directory : retVal) {
+                        out.write(directory);
+                        out.write('\n');
+                    }
+                }
+                HttpUtils.moveAtomically(tmpFile, indexFile);
+            } catch (IOException ignored) {
+                // Read-only cache, we'll just index it again next time
+            } finally {
+                try {
+                    Files.deleteIfExists(tmpFile.toPath());
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return retVal;
+    }
+
+    private static class IndexedJar {
+        private final @NotNull URL url;
+        private final @NotNull File file;
+        private final @NotNull Set<@NotNull String> directories;
+
+        // Opened on first use, so jars nothing is loaded from never hold a file handle
+        private volatile @Nullable JarFile jarFile = null;
+        private volatile boolean manifestRead = false;
+        private volatile @Nullable Manifest manifest = null;
+        private volatile boolean multiRelease = false;
+
+        private IndexedJar(@NotNull URL url, @NotNull File file, @NotNull Set<@NotNull String> directories) {
+            this.url = url;
+            this.file = file;
+            this.directories = directories;
+        }
+
+        @Nullable
+        private JarEntry getEntry(@NotNull String name) throws IOException {
+            JarFile jar = getJarFile();
+            if (multiRelease) {
+                for (int version = RUNTIME_VERSION; version >= 9; version--) {
+                    JarEntry entry = jar.getJarEntry("META-INF/versions/" + version + "/" + name);
+                    if (entry != null) {
+                        return entry;
+                    }
+                }
+            }
+            return jar.getJarEntry(name);
+        }
+
+        @NotNull
+        private InputStream getInputStream(@NotNull JarEntry entry) throws IOException { return getJarFile().getInputStream(entry); }
+
+        @Nullable
+        private Manifest getManifest() throws IOException {
+            getJarFile();
+            return manifest;
+        }
+
+        @NotNull
+        private URL getUrl(@NotNull JarEntry entry) throws MalformedURLException {
+            String path;
+            try {
+                path = new URI(null, null, entry.getName(), null).getRawPath();
+            } catch (URISyntaxException ignored) {
+                path = entry.getName();
+            }
+            return new URL("jar:" + url.toExternalForm() + "!/" + path);
+        }
+
+        @NotNull
+        private JarFile getJarFile() throws IOException {
+            JarFile retVal = jarFile;
+            if (retVal != null) {
+                return retVal;
+            }
+            synchronized (this) {
+                if (jarFile == null) {
+                    JarFile jar = new JarFile(file);
+                    if (!manifestRead) {
+                        manifest = jar.getManifest();
+                        multiRelease = RUNTIME_VERSION >= 9 && manifest != null && "true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"));
+                        manifestRead = true;
+                    }
+                    jarFile = jar;
+                }
+                return jarFile;
+            }
+        }
+
+        private synchronized void close() throws IOException {
+            if (jarFile != null) {
+                jarFile.close();
+                jarFile = null;
+            }
+        }
+    }
+}
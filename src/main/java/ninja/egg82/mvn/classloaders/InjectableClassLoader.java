@@ -1,13 +1,41 @@
 package ninja.egg82.mvn.classloaders;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLStreamHandlerFactory;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 // https://github.com/lucko/LuckPerms/blob/21f5c2484744317d6998ca1739ad32f2f0c28418/common/loader-utils/src/main/java/me/lucko/luckperms/common/loader/JarInJarClassLoader.java
 public abstract class InjectableClassLoader extends URLClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private static final long LAZY_WAIT_MILLIS = 60_000L;
+    private static final long MIN_RETRY_MILLIS = 5_000L;
+    private static final long MAX_RETRY_MILLIS = 300_000L;
+
+    private final @NotNull Logger logger = LoggerFactory.getLogger(getClass());
+
+    // Package ('/'-separated) -> jars that haven't been fetched yet
+    // Usually one, but relocation can move several libraries into the same package
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull List<@NotNull LazyJar>> lazyJars = new ConcurrentHashMap<>();
+
     protected InjectableClassLoader(@NotNull URL @NotNull [] urls, @NotNull ClassLoader parent) {
         super(urls, parent);
     }
@@ -21,4 +49,143 @@ public abstract class InjectableClassLoader extends URLClassLoader {
     }
 
     public abstract void addJar(@NotNull URL url);
+
+    // The jar is only fetched (and added) the first time something asks for a class or resource in one of its packages
+    public void addLazyJar(@NotNull Set<@NotNull String> packages, @NotNull JarSupplier supplier) {
+        LazyJar jar = new LazyJar(packages, supplier);
+        for (String p : packages) {
+            lazyJars.compute(p, (k, v) -> {
+                List<@NotNull LazyJar> retVal = v != null ? v : new CopyOnWriteArrayList<>();
+                retVal.add(jar);
+                return retVal;
+            });
+        }
+    }
+
+    public boolean hasPendingJars() { return !lazyJars.isEmpty(); }
+
+    @Override
+    @NotNull
+    protected Class<?> loadClass(@NotNull String name, boolean resolve) throws ClassNotFoundException {
+        if (!lazyJars.isEmpty()) {
+            int index = name.lastIndexOf('.');
+            attach(index != -1 ? name.substring(0, index).replace('.', '/') : "");
+        }
+        return super.loadClass(name, resolve);
+    }
+
+    @Override
+    @Nullable
+    public URL getResource(@NotNull String name) {
+        attachForResource(name);
+        return super.getResource(name);
+    }
+
+    @Override
+    @NotNull
+    public Enumeration<@NotNull URL> getResources(@NotNull String name) throws IOException {
+        attachForResource(name);
+        return super.getResources(name);
+    }
+
+    private void attachForResource(@NotNull String name) {
+        if (!lazyJars.isEmpty()) {
+            String path = name.startsWith("/") ? name.substring(1) : name;
+            int index = path.lastIndexOf('/');
+            attach(index != -1 ? path.substring(0, index) : "");
+        }
+    }
+
+    private void attach(@NotNull String packageName) {
+        List<@NotNull LazyJar> jars = lazyJars.get(packageName);
+        if (jars == null) {
+            return;
+        }
+        // Every jar with a piece of the package, the class could be in any of them
+        for (LazyJar jar : jars) {
+            attach(jar);
+        }
+    }
+
+    private void attach(@NotNull LazyJar jar) {
+        CompletableFuture<@NotNull URL> fetch;
+        boolean owner = false;
+        synchronized (jar) {
+            if (jar.attached) {
+                return;
+            }
+            if (jar.fetch == null) {
+                if (System.currentTimeMillis() < jar.retryAt) {
+                    // Failed recently, don't hammer the repository on every lookup
+                    return;
+                }
+                jar.fetch = new CompletableFuture<>();
+                owner = true;
+            }
+            fetch = jar.fetch;
+        }
+
+        if (!owner) {
+            // Somebody else is already fetching it, which could take a while but shouldn't take forever
+            try {
+                fetch.get(LAZY_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignored) {
+                // Logged by the thread that fetched it
+            } catch (TimeoutException ignored) {
+                logger.warn("Timed out waiting for a lazy jar providing " + jar.packages + ", lookup will fail for now");
+            }
+            return;
+        }
+
+        // Fetched outside the monitor, so a slow download only holds up lookups that actually need this jar
+        URL url;
+        try {
+            url = jar.supplier.get();
+            addJar(url);
+        } catch (IOException | RuntimeException ex) {
+            long delay;
+            synchronized (jar) {
+                jar.failures++;
+                delay = Math.min(MAX_RETRY_MILLIS, MIN_RETRY_MILLIS << Math.min(jar.failures - 1, 16));
+                jar.retryAt = System.currentTimeMillis() + delay;
+                jar.fetch = null;
+            }
+            logger.warn("Could not fetch lazy jar providing " + jar.packages + ", retrying in " + delay + "ms", ex);
+            fetch.completeExceptionally(ex);
+            return;
+        }
+
+        synchronized (jar) {
+            jar.attached = true;
+            jar.fetch = null;
+        }
+        for (String p : jar.packages) {
+            lazyJars.computeIfPresent(p, (k, v) -> {
+                v.remove(jar);
+                return v.isEmpty() ? null : v;
+            });
+        }
+        fetch.complete(url);
+    }
+
+    public interface JarSupplier {
+        @NotNull
+        URL get() throws IOException;
+    }
+
+    private static class LazyJar {
+        private final @NotNull Set<@NotNull String> packages;
+        private final @NotNull JarSupplier supplier;
+        private boolean attached = false;
+        private @Nullable CompletableFuture<@NotNull URL> fetch = null;
+        private int failures = 0;
+        private long retryAt = 0L;
+
+        private LazyJar(@NotNull Set<@NotNull String> packages, @NotNull JarSupplier supplier) {
+            this.packages = packages;
+            this.supplier = supplier;
+        }
+    }
 }
@@ -0,0 +1,411 @@
+package ninja.egg82.mvn.classloaders;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+// Maps each jar once and defines classes straight out of the mapping, skipping the JarFile stream stack
+// The mapped pages live in the OS page cache, so every JVM on the host loading the same cached jar shares them
+// Signed jars, Zip64 archives, and non-file URLs are left to URLClassLoader, which knows how to handle them
+// Nothing is mapped on Windows, where a mapped file can't be replaced until the mapping is collected
+public class MappedInjectableClassLoader extends InjectableClassLoader {
+    private static final int RUNTIME_VERSION;
+    // Cache entries are replaced by renaming a new file over them, which Windows refuses while the old one is mapped
+    // That would break re-downloading a damaged jar, SNAPSHOT updates, and rewriting relocated output
+    private static final boolean MAPPING_SUPPORTED = !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+
+    private static final @NotNull ThreadLocal<@NotNull Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final @NotNull ThreadLocal<byte @NotNull []> scratch = ThreadLocal.withInitial(() -> new byte[65536]);
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+
+        String version = System.getProperty("java.specification.version", "1.8");
+        int parsed;
+        try {
+            parsed = version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+        } catch (NumberFormatException ignored) {
+            parsed = 8;
+        }
+        RUNTIME_VERSION = parsed;
+    }
+
+    // First jar to provide a name wins, same as the URLClassLoader search order
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull MappedEntry> entries = new ConcurrentHashMap<>();
+    private final @NotNull List<@NotNull MappedJar> jars = new CopyOnWriteArrayList<>();
+    private volatile boolean hasUnmapped = false;
+    private volatile boolean closed = false;
+
+    public MappedInjectableClassLoader(@NotNull ClassLoader parent) {
+        super(new URL[0], parent);
+    }
+
+    @Override
+    public synchronized void addJar(@NotNull URL url) {
+        if (closed) {
+            return;
+        }
+        addURL(url);
+
+        MappedJar jar = null;
+        if (MAPPING_SUPPORTED && "file".equalsIgnoreCase(url.getProtocol())) {
+            try {
+                File file = new File(url.toURI());
+                if (file.isFile()) {
+                    jar = MappedJar.map(url, file);
+                }
+            } catch (URISyntaxException | IllegalArgumentException | IOException ignored) {
+            }
+        }
+        if (jar == null) {
+            hasUnmapped = true;
+            return;
+        }
+
+        jars.add(jar);
+        for (Map.Entry<@NotNull String, @NotNull MappedEntry> entry : jar.entries.entrySet()) {
+            entries.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Only drops our references, the OS releases the mappings once the buffers are collected
+    // Never unmapped by force: a findClass() still running on another thread would be reading freed memory
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            entries.clear();
+            jars.clear();
+        }
+        super.close();
+    }
+
+    @Override
+    @NotNull
+    protected Class<?> findClass(@NotNull String name) throws ClassNotFoundException {
+        MappedEntry entry = entries.get(name.replace('.', '/') + ".class");
+        if (entry == null) {
+            if (hasUnmapped) {
+                return super.findClass(name);
+            }
+            throw new ClassNotFoundException(name);
+        }
+
+        try {
+            definePackage(name, entry.jar);
+            CodeSource source = new CodeSource(entry.jar.url, (Certificate[]) null);
+            if (entry.method == ZipEntry.STORED) {
+                // Zero-copy, the class bytes are read straight out of the mapping
+                return defineClass(name, entry.getData(), source);
+            }
+            byte[] bytes = entry.inflate();
+            return defineClass(name, bytes, 0, bytes.length, source);
+        } catch (IOException ex) {
+            throw new ClassNotFoundException(name, ex);
+        }
+    }
+
+    @Override
+    @Nullable
+    public URL findResource(@NotNull String name) {
+        MappedEntry entry = entries.get(name);
+        if (entry != null) {
+            try {
+                return entry.getUrl();
+            } catch (MalformedURLException ignored) {
+            }
+        }
+        return hasUnmapped || name.endsWith("/") ? super.findResource(name) : null;
+    }
+
+    @Override
+    @NotNull
+    public Enumeration<@NotNull URL> findResources(@NotNull String name) throws IOException {
+        if (hasUnmapped || name.endsWith("/")) {
+            return super.findResources(name);
+        }
+        List<@NotNull URL> retVal = new ArrayList<>();
+        for (MappedJar jar : jars) {
+            MappedEntry entry = jar.entries.get(name);
+            if (entry != null) {
+                retVal.add(entry.getUrl());
+            }
+        }
+        return Collections.enumeration(retVal);
+    }
+
+    // getDefinedPackage() only exists from Java 9
+    @SuppressWarnings("deprecation")
+    private void definePackage(@NotNull String className, @NotNull MappedJar jar) throws IOException {
+        int index = className.lastIndexOf('.');
+        if (index == -1) {
+            return;
+        }
+        String packageName = className.substring(0, index);
+        if (getPackage(packageName) != null) {
+            return;
+        }
+        try {
+            Manifest manifest = jar.getManifest();
+            if (manifest != null) {
+                definePackage(packageName, manifest, jar.url);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException ignored) {
+            // Another thread got there first
+        }
+    }
+
+    private static class MappedJar {
+        private final @NotNull URL url;
+        private final @NotNull ByteBuffer buffer;
+        private final @NotNull Map<@NotNull String, @NotNull MappedEntry> entries = new HashMap<>();
+        private volatile boolean manifestRead = false;
+        private volatile @Nullable Manifest manifest = null;
+
+        private MappedJar(@NotNull URL url, @NotNull ByteBuffer buffer) {
+            this.url = url;
+            this.buffer = buffer;
+        }
+
+        @Nullable
+        private static MappedJar map(@NotNull URL url, @NotNull File file) throws IOException {
+            if (file.length() > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            ByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                // The mapping stays valid after the channel is closed, it's released once the buffer is collected
+                // Cache entries are only ever replaced by rename, which leaves an existing mapping on the old file (see MAPPING_SUPPORTED)
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            MappedJar retVal = new MappedJar(url, buffer);
+            return retVal.readCentralDirectory() ? retVal : null;
+        }
+
+        // Returns false for anything we'd rather URLClassLoader dealt with
+        private boolean readCentralDirectory() {
+            int end = findEnd();
+            if (end == -1) {
+                return false;
+            }
+            int count = buffer.getShort(end + 10) & 0xFFFF;
+            long size = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+            long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+            if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL || offset + size > buffer.limit()) {
+                return false;
+            }
+
+            boolean multiRelease = false;
+            Map<@NotNull String, @NotNull MappedEntry> versioned = new HashMap<>();
+            Map<@NotNull String, @NotNull Integer> versions = new HashMap<>();
+
+            int position = (int) offset;
+            for (int i = 0; i < count; i++) {
+                if (position + 46 > buffer.limit() || buffer.getInt(position) != CENTRAL_HEADER) {
+                    return false;
+                }
+                int method = buffer.getShort(position + 10) & 0xFFFF;
+                long compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+                long uncompressedSize = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+                int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+                int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+                int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+                long localOffset = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+                if (compressedSize == 0xFFFFFFFFL || uncompressedSize == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) {
+                    return false;
+                }
+
+                byte[] nameBytes = new byte[nameLength];
+                ByteBuffer nameBuffer = buffer.duplicate();
+                ((Buffer) nameBuffer).position(position + 46);
+                nameBuffer.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                position += 46 + nameLength + extraLength + commentLength;
+
+                if (name.endsWith("/")) {
+                    continue;
+                }
+                String upper = name.toUpperCase(Locale.ROOT);
+                if (upper.startsWith("META-INF/") && upper.indexOf('/', 9) == -1
+                        && (upper.endsWith(".SF") || upper.endsWith(".DSA") || upper.endsWith(".RSA") || upper.endsWith(".EC"))) {
+                    // Signed, so the signatures need verifying, which is JarFile's job
+                    return false;
+                }
+                if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                    return false;
+                }
+
+                MappedEntry entry = new MappedEntry(this, name, method, (int) compressedSize, (int) uncompressedSize, (int) localOffset);
+                if (name.startsWith("META-INF/versions/")) {
+                    int slash = name.indexOf('/', "META-INF/versions/".length());
+                    if (slash != -1) {
+                        try {
+                            int version = Integer.parseInt(name.substring("META-INF/versions/".length(), slash));
+                            String unversioned = name.substring(slash + 1);
+                            Integer current = versions.get(unversioned);
+                            if (version <= RUNTIME_VERSION && (current == null || version > current)) {
+                                versions.put(unversioned, version);
+                                versioned.put(unversioned, entry);
+                            }
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+                entries.put(name, entry);
+            }
+
+            try {
+                Manifest jarManifest = getManifest();
+                multiRelease = RUNTIME_VERSION >= 9 && jarManifest != null && "true".equalsIgnoreCase(jarManifest.getMainAttributes().getValue("Multi-Release"));
+            } catch (IOException ignored) {
+                return false;
+            }
+            if (multiRelease) {
+                entries.putAll(versioned);
+            }
+            return true;
+        }
+
+        private int findEnd() {
+            // The end record is at least 22 bytes and may be followed by a comment of up to 64k
+            int min = Math.max(0, buffer.limit() - 22 - 0xFFFF);
+            for (int i = buffer.limit() - 22; i >= min; i--) {
+                if (buffer.getInt(i) == END_HEADER) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Nullable
+        private Manifest getManifest() throws IOException {
+            if (!manifestRead) {
+                synchronized (this) {
+                    if (!manifestRead) {
+                        MappedEntry entry = entries.get("META-INF/MANIFEST.MF");
+                        manifest = entry != null ? new Manifest(new ByteArrayInputStream(entry.inflate())) : null;
+                        manifestRead = true;
+                    }
+                }
+            }
+            return manifest;
+        }
+    }
+
+    private static class MappedEntry {
+        private final @NotNull MappedJar jar;
+        private final @NotNull String name;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localOffset;
+
+        private MappedEntry(@NotNull MappedJar jar, @NotNull String name, int method, int compressedSize, int size, int localOffset) {
+            this.jar = jar;
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+
+        // A read-only view over the entry's (possibly compressed) bytes, nothing is copied
+        @NotNull
+        private ByteBuffer getData() throws IOException {
+            ByteBuffer buffer = jar.buffer;
+            if (localOffset + 30 > buffer.limit() || buffer.getInt(localOffset) != LOCAL_HEADER) {
+                throw new IOException("Invalid local header for " + name + " in " + jar.url);
+            }
+            // The local header can carry a different extra field than the central one
+            int start = localOffset + 30 + (buffer.getShort(localOffset + 26) & 0xFFFF) + (buffer.getShort(localOffset + 28) & 0xFFFF);
+            if (start + compressedSize > buffer.limit()) {
+                throw new IOException("Truncated entry " + name + " in " + jar.url);
+            }
+            ByteBuffer retVal = buffer.duplicate();
+            // Casts keep the Java 8 Buffer signatures when compiled on a newer JDK
+            ((Buffer) retVal).position(start);
+            ((Buffer) retVal).limit(start + compressedSize);
+            return retVal.slice();
+        }
+
+        private byte @NotNull [] inflate() throws IOException {
+            ByteBuffer data = getData();
+            byte[] retVal = new byte[size];
+            if (method == ZipEntry.STORED) {
+                data.get(retVal);
+                return retVal;
+            }
+
+            // Java 8's Inflater only takes arrays, so the compressed bytes go through a reused per-thread buffer
+            byte[] input = scratch.get();
+            if (input.length < compressedSize) {
+                input = new byte[Math.max(compressedSize, input.length * 2)];
+                scratch.set(input);
+            }
+            data.get(input, 0, compressedSize);
+
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(input, 0, compressedSize);
+            try {
+                int read = 0;
+                while (read < size) {
+                    int inflated = inflater.inflate(retVal, read, size - read);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += inflated;
+                }
+                if (read != size) {
+                    throw new IOException("Could not inflate " + name + " in " + jar.url + " (" + read + " of " + size + " bytes)");
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupt entry " + name + " in " + jar.url, ex);
+            }
+            return retVal;
+        }
+
+        @NotNull
+        private URL getUrl() throws MalformedURLException {
+            String path;
+            try {
+                path = new URI(null, null, name, null).getRawPath();
+            } catch (URISyntaxException ignored) {
+                path = name;
+            }
+            return new URL("jar:" + jar.url.toExternalForm() + "!/" + path);
+        }
+    }
+}
@@ -14,6 +14,7 @@ import java.net.URLClassLoader;
 import java.security.CodeSource;
 import java.security.PermissionCollection;
 import java.util.Enumeration;
+import java.util.Set;
 
 public class TransparentInjectableClassLoader extends InjectableClassLoader {
     private static final @NotNull Method ADD_URL_METHOD;
@@ -52,6 +53,16 @@ public class TransparentInjectableClassLoader extends InjectableClassLoader {
     @Override
     public void addJar(@NotNull URL url) { addURL(url); }
 
+    // Lookups go through the wrapped loader, where we can't see them coming, so these are fetched right away
+    @Override
+    public void addLazyJar(@NotNull Set<@NotNull String> packages, @NotNull JarSupplier supplier) {
+        try {
+            addJar(supplier.get());
+        } catch (IOException ex) {
+            logger.error("Could not fetch lazy jar for packages " + packages, ex);
+        }
+    }
+
     @Override
     @Nullable
     public InputStream getResourceAsStream(String name) { return classLoader.getResourceAsStream(name); }
@@ -0,0 +1,39 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+// Gives up on a request that's blocked in another thread: the transport says how, the caller decides when
+// Interrupting the thread isn't enough, blocking socket I/O ignores interrupts
+public class Abort {
+    private @Nullable Runnable action = null;
+    private boolean aborted = false;
+
+    // Runs straight away if we've already given up
+    public void onAbort(@NotNull Runnable action) {
+        synchronized (this) {
+            if (!aborted) {
+                this.action = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
+    public void abort() {
+        Runnable a;
+        synchronized (this) {
+            if (aborted) {
+                return;
+            }
+            aborted = true;
+            a = action;
+            action = null;
+        }
+        if (a != null) {
+            a.run();
+        }
+    }
+
+    public synchronized boolean isAborted() { return aborted; }
+}
@@ -0,0 +1,153 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One lock per cache file, held against other threads and against other processes sharing the cache
+// The OS lock lives on "<file>.lock" beside it, which is never deleted - removing a lock file is how two processes end up holding "the same" lock
+// Re-entrant, since file locks aren't: a JVM asking for a region it already holds gets an exception instead of a no-op
+public class CacheLock implements Closeable {
+    private static final @NotNull Logger logger = LoggerFactory.getLogger(CacheLock.class);
+
+    // Only files someone is holding or waiting on, so a long run over many artifacts doesn't keep every path it ever touched
+    private static final @NotNull ConcurrentMap<@NotNull String, @NotNull Holder> holders = new ConcurrentHashMap<>();
+    // One warning is enough to explain the rest, a cache without locking has no locking anywhere
+    private static final @NotNull AtomicBoolean warned = new AtomicBoolean(false);
+
+    private final @NotNull String path;
+    private final @NotNull Holder holder;
+    private boolean closed = false;
+
+    private CacheLock(@NotNull String path, @NotNull Holder holder) {
+        this.path = path;
+        this.holder = holder;
+    }
+
+    // Blocks until every other thread and process is done with the file
+    @NotNull
+    public static CacheLock acquire(@NotNull File file) throws IOException {
+        String path = file.getAbsolutePath();
+        Holder holder = holders.compute(path, (k, v) -> {
+            if (v == null) {
+                v = new Holder(new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".lock"));
+            }
+            v.users++;
+            return v;
+        });
+        try {
+            holder.lock.lock();
+        } catch (RuntimeException ex) {
+            leave(path);
+            throw ex;
+        }
+        try {
+            if (holder.lock.getHoldCount() == 1) {
+                holder.open();
+            }
+        } catch (IOException | RuntimeException ex) {
+            holder.lock.unlock();
+            leave(path);
+            throw ex;
+        }
+        return new CacheLock(path, holder);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (holder.lock.getHoldCount() == 1) {
+                holder.release();
+            }
+        } finally {
+            holder.lock.unlock();
+            leave(path);
+        }
+    }
+
+    private static void leave(@NotNull String path) {
+        // Counted under the map's lock, so nobody can pick up a holder that's on its way out
+        holders.computeIfPresent(path, (k, v) -> --v.users == 0 ? null : v);
+    }
+
+    private static class Holder {
+        private final @NotNull File lockFile;
+        private final @NotNull ReentrantLock lock = new ReentrantLock();
+        // Threads holding or waiting on the lock, guarded by the holders map
+        private int users = 0;
+        private @Nullable FileChannel channel = null;
+        private @Nullable FileLock fileLock = null;
+
+        private Holder(@NotNull File lockFile) {
+            this.lockFile = lockFile;
+        }
+
+        private void open() throws IOException {
+            File parent = lockFile.getParentFile();
+            if (!parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+            }
+
+            FileChannel c = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                // Polled rather than blocking: the kernel tracks these per process, not per thread,
+                // so two processes each holding one lock and waiting on another can be refused as a "deadlock" that isn't one
+                long wait = 1L;
+                while ((fileLock = c.tryLock()) == null) {
+                    Thread.sleep(wait);
+                    wait = Math.min(wait * 2L, 50L);
+                }
+            } catch (InterruptedException ex) {
+                c.close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + lockFile.getAbsolutePath());
+            } catch (ClosedChannelException ex) {
+                c.close();
+                throw ex;
+            } catch (IOException ex) {
+                // Some network filesystems have no locking at all, this JVM's threads are still kept apart
+                // Everything is published with an atomic rename, so the worst case is a duplicate download
+                c.close();
+                if (warned.compareAndSet(false, true)) {
+                    logger.warn("Could not lock " + lockFile.getAbsolutePath() + ", falling back to locking within this process only", ex);
+                } else {
+                    logger.debug("Could not lock " + lockFile.getAbsolutePath(), ex);
+                }
+                return;
+            }
+            channel = c;
+        }
+
+        private void release() throws IOException {
+            try {
+                if (fileLock != null) {
+                    fileLock.release();
+                }
+            } finally {
+                fileLock = null;
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+    }
+}
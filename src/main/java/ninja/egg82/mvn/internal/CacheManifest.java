@@ -0,0 +1,268 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Kept as an append-only journal: each put() adds one line, and properties files let later lines win
+// Rewritten from scratch only once the journal is twice the size it needs to be, so a resolution of N artifacts costs O(N) writes, not O(N^2)
+public class CacheManifest {
+    private static final @NotNull ConcurrentMap<@NotNull String, @NotNull CacheManifest> manifests = new ConcurrentHashMap<>();
+    private static final int MIN_COMPACT_LINES = 256;
+
+    private final @NotNull File cacheDir;
+    private final @NotNull File manifestFile;
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull Entry> entries = new ConcurrentHashMap<>();
+
+    // What another process sharing the cache last wrote, re-read only when the file changes
+    private @NotNull Map<@NotNull String, @NotNull Entry> onDisk = new HashMap<>();
+    private long onDiskModified;
+    private long onDiskSize;
+    private int onDiskLines;
+
+    private CacheManifest(@NotNull File cacheDir) {
+        this.cacheDir = cacheDir.getAbsoluteFile();
+        this.manifestFile = new File(new File(this.cacheDir, ".mvnloader"), "manifest.properties");
+        reload();
+        entries.putAll(onDisk);
+    }
+
+    @NotNull
+    public static CacheManifest get(@NotNull File cacheDir) {
+        return manifests.computeIfAbsent(cacheDir.getAbsolutePath(), k -> new CacheManifest(cacheDir));
+    }
+
+    // Size and mtime are enough to catch truncated or replaced files without re-hashing them on every start
+    public boolean isValid(@NotNull File file) {
+        String key = getKey(file);
+        if (matches(entries.get(key), file)) {
+            return true;
+        }
+        if (!file.isFile()) {
+            return false;
+        }
+
+        // Another process may have downloaded it while we waited for the lock
+        Entry entry = getOnDisk(key);
+        if (matches(entry, file)) {
+            entries.put(key, entry);
+            return true;
+        }
+        return false;
+    }
+
+    @Nullable
+    public String getHash(@NotNull File file) {
+        return isValid(file) ? entries.get(getKey(file)).hash : null;
+    }
+
+    public void put(@NotNull File file, @Nullable String hash) throws IOException { put(getKey(file), new Entry(file.length(), file.lastModified(), hash)); }
+
+    // For files whose bytes went straight into something else (eg. a relocated jar) and were never written out
+    @Nullable
+    public String getStreamedHash(@NotNull File file) {
+        String key = getKey(file);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.size != -1L) {
+            entry = getOnDisk(key);
+            if (entry == null || entry.size != -1L) {
+                return null;
+            }
+            entries.put(key, entry);
+        }
+        return entry.hash;
+    }
+
+    public void putStreamed(@NotNull File file, @NotNull String hash) throws IOException { put(getKey(file), new Entry(-1L, -1L, hash)); }
+
+    private static boolean matches(@Nullable Entry entry, @NotNull File file) {
+        return entry != null && file.isFile() && entry.size == file.length() && entry.lastModified == file.lastModified();
+    }
+
+    @Nullable
+    private synchronized Entry getOnDisk(@NotNull String key) {
+        if (manifestFile.lastModified() != onDiskModified || manifestFile.length() != onDiskSize) {
+            reload();
+        }
+        return onDisk.get(key);
+    }
+
+    private synchronized void put(@NotNull String key, @NotNull Entry entry) throws IOException {
+        entries.put(key, entry);
+
+        File parent = manifestFile.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+
+        // Other processes append to the same file, so every write (and every read) happens under the lock
+        CacheLock lock = CacheLock.acquire(manifestFile);
+        try {
+            boolean current = manifestFile.lastModified() == onDiskModified && manifestFile.length() == onDiskSize;
+            if (onDiskLines >= Math.max(MIN_COMPACT_LINES, onDisk.size() * 2)) {
+                if (!current) {
+                    reload();
+                }
+                compact(key, entry);
+                return;
+            }
+
+            append(key, entry);
+            // Nobody else wrote in between, so what's on disk is exactly what we had plus this line
+            if (current) {
+                onDisk.put(key, entry);
+                onDiskModified = manifestFile.lastModified();
+                onDiskSize = manifestFile.length();
+                onDiskLines++;
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    private void append(@NotNull String key, @NotNull Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(key, entry.toString());
+        // Stored as a stream so anything outside ASCII gets escaped, which keeps the file readable as UTF-8 too
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        properties.store(stored, null);
+
+        StringBuilder line = new StringBuilder();
+        // A process that died mid-append leaves half a line behind, which shouldn't swallow ours
+        if (manifestFile.isFile() && !endsWithNewLine()) {
+            line.append('\n');
+        }
+        for (String l : new String(stored.toByteArray(), StandardCharsets.ISO_8859_1).split("\\r?\\n")) {
+            if (!l.isEmpty() && !l.startsWith("#")) {
+                line.append(l).append('\n');
+            }
+        }
+        try (OutputStream out = new FileOutputStream(manifestFile, true)) {
+            out.write(line.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private boolean endsWithNewLine() throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(manifestFile, "r")) {
+            if (in.length() == 0L) {
+                return true;
+            }
+            in.seek(in.length() - 1L);
+            return in.read() == '\n';
+        }
+    }
+
+    private void compact(@NotNull String key, @NotNull Entry entry) throws IOException {
+        Map<@NotNull String, @NotNull Entry> compacted = new HashMap<>(onDisk);
+        compacted.put(key, entry);
+
+        Properties properties = new Properties();
+        for (Map.Entry<@NotNull String, @NotNull Entry> e : compacted.entrySet()) {
+            properties.setProperty(e.getKey(), e.getValue().toString());
+        }
+
+        File tmpFile = HttpUtils.getTempFile(manifestFile);
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+                properties.store(out, null);
+            }
+            HttpUtils.moveAtomically(tmpFile, manifestFile);
+            onDisk = compacted;
+            onDiskModified = manifestFile.lastModified();
+            onDiskSize = manifestFile.length();
+            onDiskLines = compacted.size();
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    @NotNull
+    private String getKey(@NotNull File file) {
+        String path = file.getAbsolutePath();
+        String root = cacheDir.getPath() + File.separator;
+        if (path.startsWith(root)) {
+            path = path.substring(root.length());
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+
+    private synchronized void reload() {
+        Map<@NotNull String, @NotNull Entry> retVal = new HashMap<>();
+        onDisk = retVal;
+        onDiskLines = 0;
+        onDiskModified = manifestFile.lastModified();
+        onDiskSize = manifestFile.length();
+        if (!manifestFile.isFile()) {
+            return;
+        }
+
+        byte[] bytes;
+        try {
+            CacheLock lock = CacheLock.acquire(manifestFile);
+            try {
+                onDiskModified = manifestFile.lastModified();
+                onDiskSize = manifestFile.length();
+                bytes = Files.readAllBytes(manifestFile.toPath());
+            } finally {
+                lock.close();
+            }
+        } catch (IOException ignored) {
+            // Corrupt manifest, everything will be verified again on the next download
+            return;
+        }
+
+        Properties properties = new Properties();
+        try {
+            properties.load(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+        } catch (IOException | IllegalArgumentException ignored) {
+            return;
+        }
+        for (byte b : bytes) {
+            if (b == '\n') {
+                onDiskLines++;
+            }
+        }
+        for (String key : properties.stringPropertyNames()) {
+            Entry entry = Entry.parse(properties.getProperty(key));
+            if (entry != null) {
+                retVal.put(key, entry);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final @Nullable String hash;
+
+        private Entry(long size, long lastModified, @Nullable String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        @Nullable
+        private static Entry parse(@NotNull String value) {
+            String[] parts = value.split("\\|", 3);
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2].isEmpty() ? null : parts[2]);
+            } catch (NumberFormatException ignored) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() { return size + "|" + lastModified + "|" + (hash != null ? hash : ""); }
+    }
+}
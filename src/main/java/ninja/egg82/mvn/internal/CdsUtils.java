@@ -0,0 +1,106 @@
+package ninja.egg82.mvn.internal;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.VMOption;
+import ninja.egg82.mvn.Resolution;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// CDS archives can only be picked at JVM launch, so all we can do from in here is work out the flags for the next one
+// The JVM's own dynamic archiving (JDK 13+) records which injected classes were actually loaded
+public class CdsUtils {
+    private static final int RUNTIME_VERSION;
+
+    static {
+        String version = System.getProperty("java.specification.version", "1.8");
+        int parsed;
+        try {
+            parsed = version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+        } catch (NumberFormatException ignored) {
+            parsed = 8;
+        }
+        RUNTIME_VERSION = parsed;
+    }
+
+    private CdsUtils() { }
+
+    public static boolean isSupported() { return RUNTIME_VERSION >= 13; }
+
+    // Keyed by the resolved jars themselves, so a new resolution (or a re-downloaded jar) gets a fresh archive
+    @NotNull
+    public static File getArchiveFile(@NotNull File cacheDir, @NotNull Resolution resolution) throws IOException {
+        File retVal = new File(new File(new File(cacheDir, ".mvnloader"), "cds"), MergedJarUtils.getKey(resolution.getArtifacts()) + ".jsa");
+        File parent = retVal.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+        return retVal;
+    }
+
+    // Use the archive if a training run already produced one, otherwise make this run the training run
+    @NotNull
+    public static List<@NotNull String> getArguments(@NotNull File archiveFile) {
+        if (!isSupported()) {
+            return Collections.emptyList();
+        }
+        List<@NotNull String> retVal = new ArrayList<>();
+        if (archiveFile.isFile() && archiveFile.length() > 0L) {
+            retVal.add("-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath());
+        } else {
+            retVal.add("-XX:ArchiveClassesAtExit=" + archiveFile.getAbsolutePath());
+        }
+        return retVal;
+    }
+
+    // Written beside the archive, for launchers that pass it along as "java @<file>"
+    @NotNull
+    public static File writeArgumentsFile(@NotNull File archiveFile) throws IOException {
+        File retVal = new File(archiveFile.getParentFile(), archiveFile.getName().substring(0, archiveFile.getName().length() - 4) + ".args");
+        StringBuilder builder = new StringBuilder();
+        for (String argument : getArguments(archiveFile)) {
+            builder.append('"').append(argument.replace("\\", "\\\\")).append('"').append('\n');
+        }
+
+        File tmpFile = HttpUtils.getTempFile(retVal);
+        try {
+            Files.write(tmpFile.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+            HttpUtils.moveAtomically(tmpFile, retVal);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+        return retVal;
+    }
+
+    // True only if this JVM was started with the archive and actually mapped it
+    public static boolean isArchiveInUse(@NotNull File archiveFile) {
+        try {
+            HotSpotDiagnosticMXBean diagnostics = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            if (diagnostics == null) {
+                return false;
+            }
+            VMOption sharing = diagnostics.getVMOption("UseSharedSpaces");
+            VMOption archive = diagnostics.getVMOption("SharedArchiveFile");
+            if (!"true".equalsIgnoreCase(sharing.getValue())) {
+                return false;
+            }
+            // The base archive may be listed ahead of ours
+            for (String path : archive.getValue().split(File.pathSeparator)) {
+                if (!path.isEmpty() && new File(path).getAbsoluteFile().equals(archiveFile.getAbsoluteFile())) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IllegalArgumentException | UnsupportedOperationException | LinkageError ignored) {
+            // Not HotSpot, or a HotSpot without these flags
+            return false;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ninja.egg82.mvn.internal;
+
+import ninja.egg82.mvn.InjectionListener;
+import ninja.egg82.mvn.ResolvedArtifact;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+// Fans every event out to a live collection of listeners
+// A listener that throws never gets to break resolution, or stop the others from hearing about it
+public class CompositeListener implements InjectionListener {
+    private final @NotNull Collection<@NotNull InjectionListener> listeners;
+
+    public CompositeListener(@NotNull Collection<@NotNull InjectionListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    public boolean isEmpty() { return listeners.isEmpty(); }
+
+    @Override
+    public void onPomResolved(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull String repositoryUrl, boolean cached, long duration) {
+        fire(l -> l.onPomResolved(groupId, artifactId, version, repositoryUrl, cached, duration));
+    }
+
+    @Override
+    public void onMetadataResolved(@NotNull String groupId, @NotNull String artifactId, @Nullable String version, @NotNull String repositoryUrl, boolean cached, long duration) {
+        fire(l -> l.onMetadataResolved(groupId, artifactId, version, repositoryUrl, cached, duration));
+    }
+
+    @Override
+    public void onCacheHit(@NotNull File file) { fire(l -> l.onCacheHit(file)); }
+
+    @Override
+    public void onCacheMiss(@NotNull File file) { fire(l -> l.onCacheMiss(file)); }
+
+    @Override
+    public void onDownloadStarted(@NotNull String url, @Nullable String repositoryUrl) { fire(l -> l.onDownloadStarted(url, repositoryUrl)); }
+
+    @Override
+    public void onDownloadProgress(@NotNull String url, long bytes) {
+        // Called per chunk, so don't allocate a lambda when nobody is listening
+        if (!listeners.isEmpty()) {
+            fire(l -> l.onDownloadProgress(url, bytes));
+        }
+    }
+
+    @Override
+    public void onDownloadFinished(@NotNull String url, @Nullable String repositoryUrl, long bytes, long duration) {
+        fire(l -> l.onDownloadFinished(url, repositoryUrl, bytes, duration));
+    }
+
+    @Override
+    public void onDownloadFailed(@NotNull String url, @Nullable String repositoryUrl, @NotNull Throwable cause, long duration) {
+        fire(l -> l.onDownloadFailed(url, repositoryUrl, cause, duration));
+    }
+
+    @Override
+    public void onRelocationStarted(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull File inFile) {
+        fire(l -> l.onRelocationStarted(groupId, artifactId, version, inFile));
+    }
+
+    @Override
+    public void onRelocationFinished(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull File inFile, @NotNull File outFile, long duration) {
+        fire(l -> l.onRelocationFinished(groupId, artifactId, version, inFile, outFile, duration));
+    }
+
+    @Override
+    public void onJarAdded(@NotNull URL url, @Nullable ResolvedArtifact artifact) { fire(l -> l.onJarAdded(url, artifact)); }
+
+    private void fire(@NotNull Consumer<@NotNull InjectionListener> event) {
+        for (InjectionListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException ignored) {
+            }
+        }
+    }
+}
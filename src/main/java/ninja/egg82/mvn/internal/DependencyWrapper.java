@@ -11,6 +11,8 @@ import java.util.Objects;
 import java.util.Set;
 
 public class DependencyWrapper implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final @NotNull Dependency dependency;
     private boolean compiled = false;
     private final @NotNull Set<@NotNull Repository> repositories = new LinkedHashSet<>();
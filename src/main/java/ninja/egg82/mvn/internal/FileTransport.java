@@ -0,0 +1,214 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+// Serves file: URLs straight from disk and hands everything else to the wrapped transport
+// Answers the way an HTTP repository would (404s, ranges, lengths) so nothing above it needs to care
+public class FileTransport implements Transport {
+    private final @NotNull Transport delegate;
+
+    private FileTransport(@NotNull Transport delegate) {
+        this.delegate = delegate;
+    }
+
+    @NotNull
+    public static Transport wrap(@NotNull Transport transport) { return transport instanceof FileTransport ? transport : new FileTransport(transport); }
+
+    public static boolean isFileUrl(@NotNull String url) { return url.regionMatches(true, 0, "file:", 0, 5); }
+
+    @Nullable
+    public static File toFile(@NotNull String url) {
+        if (!isFileUrl(url)) {
+            return null;
+        }
+        try {
+            return new File(new URI(url.replace(" ", "%20")));
+        } catch (URISyntaxException | IllegalArgumentException ignored) {
+            return null;
+        }
+    }
+
+    @NotNull
+    public Transport getDelegate() { return delegate; }
+
+    @Override
+    @NotNull
+    public Response get(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        return isFileUrl(url) ? open(url, headers, true) : delegate.get(url, headers);
+    }
+
+    @Override
+    @NotNull
+    public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        return isFileUrl(url) ? open(url, headers, false) : delegate.head(url, headers);
+    }
+
+    @Override
+    @NotNull
+    public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers, @NotNull Abort abort) throws IOException {
+        return isFileUrl(url) ? open(url, headers, false) : delegate.head(url, headers, abort);
+    }
+
+    @Override
+    public void warm(@NotNull String url) {
+        if (!isFileUrl(url)) {
+            delegate.warm(url);
+        }
+    }
+
+    @NotNull
+    private Response open(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers, boolean body) throws IOException {
+        File file = toFile(url);
+        if (file == null) {
+            throw new IOException("Not a valid file URL " + url);
+        }
+        if (!file.isFile()) {
+            return new FileResponse(url, 404, null, -1L, -1L, Collections.emptyMap());
+        }
+
+        long length = file.length();
+        Map<@NotNull String, @NotNull String> responseHeaders = new HashMap<>();
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        responseHeaders.put("last-modified", format.format(new Date(file.lastModified())));
+
+        String range = getHeader(headers, "Range");
+        if (range != null && range.trim().startsWith("bytes=") && !range.contains(",")) {
+            String spec = range.trim().substring("bytes=".length());
+            int dash = spec.indexOf('-');
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    start = Math.max(0L, length - Long.parseLong(spec.substring(1).trim()));
+                    end = length - 1L;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash).trim());
+                    end = dash == spec.length() - 1 ? length - 1L : Math.min(length - 1L, Long.parseLong(spec.substring(dash + 1).trim()));
+                }
+            } catch (NumberFormatException | IndexOutOfBoundsException ignored) {
+                start = -1L;
+                end = -1L;
+            }
+            if (start < 0L || start >= length || end < start) {
+                responseHeaders.put("content-range", "bytes */" + length);
+                return new FileResponse(url, 416, null, -1L, -1L, responseHeaders);
+            }
+            responseHeaders.put("content-range", "bytes " + start + "-" + end + "/" + length);
+            responseHeaders.put("content-length", String.valueOf(end - start + 1L));
+            return new FileResponse(url, 206, body ? file : null, start, end - start + 1L, responseHeaders);
+        }
+
+        responseHeaders.put("content-length", String.valueOf(length));
+        return new FileResponse(url, 200, body ? file : null, 0L, length, responseHeaders);
+    }
+
+    @Nullable
+    private static String getHeader(@NotNull Map<@NotNull String, @NotNull String> headers, @NotNull String name) {
+        for (Map.Entry<@NotNull String, @NotNull String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static class FileResponse implements Response {
+        private final @NotNull String url;
+        private final int status;
+        private final @Nullable File file;
+        private final long offset;
+        private final long length;
+        private final @NotNull Map<@NotNull String, @NotNull String> headers;
+        private @Nullable InputStream body = null;
+
+        private FileResponse(@NotNull String url, int status, @Nullable File file, long offset, long length, @NotNull Map<@NotNull String, @NotNull String> headers) {
+            this.url = url;
+            this.status = status;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.headers = headers;
+        }
+
+        @Override
+        public int getStatus() { return status; }
+
+        @Override
+        @NotNull
+        public String getUrl() { return url; }
+
+        @Override
+        @Nullable
+        public String getHeader(@NotNull String name) { return headers.get(name.toLowerCase(Locale.ROOT)); }
+
+        @Override
+        @NotNull
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                if (file == null) {
+                    body = new ByteArrayInputStream(new byte[0]);
+                } else {
+                    RandomAccessFile in = new RandomAccessFile(file, "r");
+                    in.seek(offset);
+                    body = new RangeInputStream(in, length);
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (body != null) {
+                body.close();
+            }
+        }
+    }
+
+    private static class RangeInputStream extends InputStream {
+        private final @NotNull RandomAccessFile file;
+        private long remaining;
+
+        private RangeInputStream(@NotNull RandomAccessFile file, long length) {
+            this.file = file;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0L) {
+                return -1;
+            }
+            int retVal = file.read();
+            if (retVal != -1) {
+                remaining--;
+            }
+            return retVal;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            if (remaining <= 0L) {
+                return -1;
+            }
+            int retVal = file.read(b, off, (int) Math.min(len, remaining));
+            if (retVal > 0) {
+                remaining -= retVal;
+            }
+            return retVal;
+        }
+
+        @Override
+        public int available() { return (int) Math.min(Integer.MAX_VALUE, remaining); }
+
+        @Override
+        public void close() throws IOException { file.close(); }
+    }
+}
@@ -0,0 +1,20 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public HttpStatusException(int status, @NotNull String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() { return status; }
+
+    public boolean isNotFound() { return status == 404 || status == 410; }
+}
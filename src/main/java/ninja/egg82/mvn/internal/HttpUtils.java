@@ -1,32 +1,55 @@
 package ninja.egg82.mvn.internal;
 
 import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import ninja.egg82.mvn.UpdatePolicy;
 import ninja.egg82.mvn.internal.compressors.AbstractCompressor;
 import ninja.egg82.mvn.internal.compressors.BrotliCompressor;
 import ninja.egg82.mvn.internal.compressors.GZIPCompresor;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
 import org.apache.maven.model.Repository;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 public class HttpUtils {
+    private static final @NotNull Pattern RE_NON_FILE_CHARS = Pattern.compile("[^a-zA-Z0-9.\\-]");
+
     private static final boolean HAS_BROTLI;
     private static final @NotNull AbstractCompressor compressor;
 
+    private static final @NotNull Map<@NotNull String, @NotNull String> DEFAULT_HEADERS;
+    private static final @NotNull Transport DEFAULT_TRANSPORT = Transports.create(3500, 5000);
+
+    private static final @NotNull String @NotNull [] @NotNull [] CHECKSUM_SIDECARS = {
+            { ".sha1", "SHA-1", "40" },
+            { ".sha256", "SHA-256", "64" },
+            { ".md5", "MD5", "32" }
+    };
+
     static {
         boolean hasBrotli = false;
         AbstractCompressor c = null;
@@ -45,6 +68,12 @@ public class HttpUtils {
         }
         HAS_BROTLI = hasBrotli;
         compressor = c;
+
+        Map<@NotNull String, @NotNull String> headers = new LinkedHashMap<>();
+        headers.put("Accept-Language", "en-US,en;q=0.8");
+        headers.put("Accept-Encoding", HAS_BROTLI ? "br,gzip,deflate;q=0.8" : "gzip,deflate;q=0.8");
+        headers.put("User-Agent", "egg82/MVNLoader");
+        DEFAULT_HEADERS = Collections.unmodifiableMap(headers);
     }
 
     private HttpUtils() { }
@@ -101,6 +130,24 @@ public class HttpUtils {
         return retVal;
     }
 
+    // Keyed by the source jar and the relocation rules, so a changed jar or rule set never re-uses a stale output
+    @NotNull
+    public static File getRelocatedJarCacheFile(
+            @NotNull File cacheDir,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion,
+            @NotNull String relocationKey
+    ) throws IOException {
+        File retVal = new File(
+                new File(new File(new File(cacheDir, groupId.replace('.', File.separatorChar)), artifactId), version),
+                artifactId + "-" + realVersion + "-relocated-" + relocationKey + ".jar"
+        );
+        ensureCacheFileStability(retVal);
+        return retVal;
+    }
+
     @NotNull
     public static File getPomCacheFile(@NotNull File cacheDir, @NotNull String groupId, @NotNull String artifactId, @NotNull String version) throws IOException {
         File retVal = new File(
@@ -127,32 +174,63 @@ public class HttpUtils {
         return retVal;
     }
 
+    @NotNull
+    public static File getMetadataCacheFile(
+            @NotNull File cacheDir,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @Nullable String version
+    ) throws IOException {
+        File parent = new File(new File(cacheDir, groupId.replace('.', File.separatorChar)), artifactId);
+        if (version != null) {
+            parent = new File(parent, version);
+        }
+        File retVal = new File(parent, "maven-metadata-" + RE_NON_FILE_CHARS.matcher(simplify(repositoryUrl)).replaceAll("_") + ".xml");
+        ensureCacheFileStability(retVal);
+        return retVal;
+    }
+
+    // Other processes may be publishing into the same directories, so this never touches a regular file
+    // A file that appears between two checks here is somebody's finished download, not junk
     private static void ensureCacheFileStability(@NotNull File cacheFile) throws IOException {
-        if (cacheFile.exists() && cacheFile.isFile()) {
+        if (cacheFile.isFile()) {
             return;
         }
 
         File parent = cacheFile.getParentFile();
-        if (parent.exists() && !parent.isDirectory()) {
-            Files.delete(parent.toPath());
+        if (parent.isFile()) {
+            Files.deleteIfExists(parent.toPath());
         }
-        if (!parent.exists() && !parent.mkdirs()) {
+        if (!parent.mkdirs() && !parent.isDirectory()) {
             throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
         }
 
-        if (cacheFile.exists()) {
+        // Only a directory squatting on the file's name is cleared away
+        if (Files.isDirectory(cacheFile.toPath(), LinkOption.NOFOLLOW_LINKS)) {
             try (Stream<Path> walker = Files.walk(cacheFile.toPath())) {
                 walker
                         .sorted(Comparator.reverseOrder())
                         .map(Path::toFile)
                         .forEach(File::delete);
             }
-            if (cacheFile.exists()) {
+            if (cacheFile.isDirectory()) {
                 throw new IOException("Could not create directory structure for " + cacheFile.getAbsolutePath());
             }
         }
     }
 
+    // Repositories may also be given as plain directories, which are turned into file: URLs
+    @NotNull
+    public static String toRepositoryUrl(@NotNull String url) {
+        int colon = url.indexOf(':');
+        // Anything without a scheme is a path, and so is a Windows drive letter
+        if (colon <= 1 || url.substring(0, colon).matches(".*[^a-zA-Z0-9+.\\-].*")) {
+            return new File(url).getAbsoluteFile().toURI().toString();
+        }
+        return url;
+    }
+
     @NotNull
     public static String simplify(@NotNull String url) throws IOException {
         URL retVal = new URL(url);
@@ -212,20 +290,58 @@ public class HttpUtils {
         return repository;
     }
 
+    @NotNull
+    public static Transport getDefaultTransport() { return DEFAULT_TRANSPORT; }
+
+    @NotNull
+    public static Map<@NotNull String, @NotNull String> getDefaultHeaders() { return DEFAULT_HEADERS; }
+
     @NotNull
     public static File tryDownloadJar(
+            @NotNull ResolutionContext context,
             @NotNull File outFile,
             @NotNull String repositoryUrl,
             @NotNull String groupId,
             @NotNull String artifactId,
             @NotNull String version
     ) throws IOException {
-        if (repositoryUrl.length() > 0 && repositoryUrl.charAt(repositoryUrl.length() - 1) != '/') {
-            repositoryUrl += '/';
-        }
-        repositoryUrl += groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".jar";
+        return tryDownloadFile(context, repositoryUrl, outFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + version + ".jar"));
+    }
+
+    @NotNull
+    public static File tryDownloadJar(
+            @NotNull ResolutionContext context,
+            @NotNull File outFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) throws IOException {
+        return tryDownloadFile(context, repositoryUrl, outFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + realVersion + ".jar"));
+    }
+
+    @NotNull
+    public static File tryDownloadJar(
+            @NotNull File outFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version
+    ) throws IOException {
+        return tryDownloadJar(DEFAULT_TRANSPORT, outFile, repositoryUrl, groupId, artifactId, version);
+    }
 
-        return tryDownloadFile(outFile, repositoryUrl);
+    @NotNull
+    public static File tryDownloadJar(
+            @NotNull Transport transport,
+            @NotNull File outFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version
+    ) throws IOException {
+        return tryDownloadFile(transport, outFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + version + ".jar"));
     }
 
     @NotNull
@@ -237,28 +353,68 @@ public class HttpUtils {
             @NotNull String version,
             @NotNull String realVersion
     ) throws IOException {
-        if (repositoryUrl.length() > 0 && repositoryUrl.charAt(repositoryUrl.length() - 1) != '/') {
-            repositoryUrl += '/';
-        }
-        repositoryUrl += groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + realVersion + ".jar";
+        return tryDownloadJar(DEFAULT_TRANSPORT, outFile, repositoryUrl, groupId, artifactId, version, realVersion);
+    }
 
-        return tryDownloadFile(outFile, repositoryUrl);
+    @NotNull
+    public static File tryDownloadJar(
+            @NotNull Transport transport,
+            @NotNull File outFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) throws IOException {
+        return tryDownloadFile(transport, outFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + realVersion + ".jar"));
     }
 
     @NotNull
     public static File tryDownloadPom(
+            @NotNull ResolutionContext context,
             @NotNull File outFile,
             @NotNull String repositoryUrl,
             @NotNull String groupId,
             @NotNull String artifactId,
             @NotNull String version
     ) throws IOException {
-        if (repositoryUrl.length() > 0 && repositoryUrl.charAt(repositoryUrl.length() - 1) != '/') {
-            repositoryUrl += '/';
-        }
-        repositoryUrl += groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom";
+        return tryDownloadFile(context, repositoryUrl, outFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + version + ".pom"));
+    }
+
+    @NotNull
+    public static File tryDownloadPom(
+            @NotNull ResolutionContext context,
+            @NotNull File outFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) throws IOException {
+        return tryDownloadFile(context, repositoryUrl, outFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + realVersion + ".pom"));
+    }
 
-        return tryDownloadFile(outFile, repositoryUrl);
+    @NotNull
+    public static File tryDownloadPom(
+            @NotNull File outFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version
+    ) throws IOException {
+        return tryDownloadPom(DEFAULT_TRANSPORT, outFile, repositoryUrl, groupId, artifactId, version);
+    }
+
+    @NotNull
+    public static File tryDownloadPom(
+            @NotNull Transport transport,
+            @NotNull File outFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version
+    ) throws IOException {
+        return tryDownloadFile(transport, outFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + version + ".pom"));
     }
 
     @NotNull
@@ -270,42 +426,593 @@ public class HttpUtils {
             @NotNull String version,
             @NotNull String realVersion
     ) throws IOException {
-        if (repositoryUrl.length() > 0 && repositoryUrl.charAt(repositoryUrl.length() - 1) != '/') {
-            repositoryUrl += '/';
-        }
-        repositoryUrl += groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + realVersion + ".pom";
+        return tryDownloadPom(DEFAULT_TRANSPORT, outFile, repositoryUrl, groupId, artifactId, version, realVersion);
+    }
 
-        return tryDownloadFile(outFile, repositoryUrl);
+    @NotNull
+    public static File tryDownloadPom(
+            @NotNull Transport transport,
+            @NotNull File outFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) throws IOException {
+        return tryDownloadFile(transport, outFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + realVersion + ".pom"));
     }
 
     @NotNull
     public static File tryDownloadFile(@NotNull File outFile, @NotNull String fileUrl) throws IOException {
-        URL url = new URL(fileUrl);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setInstanceFollowRedirects(true);
-        conn.setConnectTimeout(3500);
-        conn.setReadTimeout(5000);
-        conn.setDoInput(true);
-        conn.setDoOutput(false);
-
-        conn.setRequestProperty("Accept-Language", "en-US,en;q=0.8");
-        conn.setRequestProperty("Accept-Encoding", HAS_BROTLI ? "br,gzip,deflate;q=0.8" : "gzip,deflate;q=0.8");
-        conn.setRequestProperty("User-Agent", "egg82/MVNLoader");
-
-        throwOnStandardErrors(conn);
-
-        try (
-                InputStream in = compressor.decompress(conn.getInputStream(), conn.getHeaderField("Content-Encoding"));
-                FileOutputStream out = new FileOutputStream(outFile)
-        ) {
-            byte[] buffer = new byte[4096];
+        return tryDownloadFile(DEFAULT_TRANSPORT, outFile, fileUrl);
+    }
+
+    @NotNull
+    public static File tryDownloadFile(@NotNull Transport transport, @NotNull File outFile, @NotNull String fileUrl) throws IOException {
+        return tryDownloadFile(transport, null, outFile, fileUrl);
+    }
+
+    @NotNull
+    public static File tryDownloadFile(@NotNull ResolutionContext context, @NotNull File outFile, @NotNull String fileUrl) throws IOException {
+        return tryDownloadFile(context, null, outFile, fileUrl);
+    }
+
+    @NotNull
+    private static File tryDownloadFile(
+            @NotNull ResolutionContext context,
+            @Nullable String repositoryUrl,
+            @NotNull File outFile,
+            @NotNull String fileUrl
+    ) throws IOException {
+        throwIfKnownMissing(context, fileUrl);
+        return track(context, repositoryUrl, fileUrl, () -> {
+            try {
+                return tryDownloadFile(context.getTransport(), context.getManifest(), outFile, fileUrl);
+            } catch (HttpStatusException ex) {
+                if (ex.isNotFound()) {
+                    context.getNegativeCache().addMissing(fileUrl);
+                }
+                throw ex;
+            }
+        });
+    }
+
+    // Hands the body to consumer as it arrives and returns its hash ("algo:hex") once the whole thing checks out
+    // Anything the consumer produced must be thrown away if this throws
+    @NotNull
+    public static String tryStreamJar(
+            @NotNull ResolutionContext context,
+            @Nullable File keepFile,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion,
+            @NotNull StreamConsumer consumer
+    ) throws IOException {
+        return tryStreamFile(context, repositoryUrl, keepFile, getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + realVersion + ".jar"), consumer);
+    }
+
+    @NotNull
+    public static String tryStreamFile(
+            @NotNull ResolutionContext context,
+            @Nullable File keepFile,
+            @NotNull String fileUrl,
+            @NotNull StreamConsumer consumer
+    ) throws IOException {
+        return tryStreamFile(context, null, keepFile, fileUrl, consumer);
+    }
+
+    @NotNull
+    private static String tryStreamFile(
+            @NotNull ResolutionContext context,
+            @Nullable String repositoryUrl,
+            @Nullable File keepFile,
+            @NotNull String fileUrl,
+            @NotNull StreamConsumer consumer
+    ) throws IOException {
+        throwIfKnownMissing(context, fileUrl);
+        return track(context, repositoryUrl, fileUrl, () -> {
+            try {
+                return tryStreamFile(context.getTransport(), context.getManifest(), keepFile, fileUrl, consumer);
+            } catch (HttpStatusException ex) {
+                if (ex.isNotFound()) {
+                    context.getNegativeCache().addMissing(fileUrl);
+                }
+                throw ex;
+            }
+        });
+    }
+
+    // Reports the download to the context's listener, bytes being whatever came off the wire for that URL
+    private static <T> T track(
+            @NotNull ResolutionContext context,
+            @Nullable String repositoryUrl,
+            @NotNull String fileUrl,
+            @NotNull Download<T> download
+    ) throws IOException {
+        long start = System.nanoTime();
+        context.startDownload(fileUrl);
+        context.getListener().onDownloadStarted(fileUrl, repositoryUrl);
+        try {
+            T retVal = download.run();
+            context.getListener().onDownloadFinished(fileUrl, repositoryUrl, context.finishDownload(fileUrl), (System.nanoTime() - start) / 1_000_000L);
+            return retVal;
+        } catch (IOException | RuntimeException ex) {
+            context.finishDownload(fileUrl);
+            context.getListener().onDownloadFailed(fileUrl, repositoryUrl, ex, (System.nanoTime() - start) / 1_000_000L);
+            throw ex;
+        }
+    }
+
+    // Every directory holding a class in a remote jar, read from its central directory with range requests
+    // So we can tell what a jar provides without downloading all of it
+    @NotNull
+    public static Set<@NotNull String> tryGetJarPackages(
+            @NotNull ResolutionContext context,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String realVersion
+    ) throws IOException {
+        String fileUrl = getArtifactUrl(repositoryUrl, groupId, artifactId, version, artifactId + "-" + realVersion + ".jar");
+        throwIfKnownMissing(context, fileUrl);
+        try {
+            return tryGetJarPackages(context.getTransport(), fileUrl);
+        } catch (HttpStatusException ex) {
+            if (ex.isNotFound()) {
+                context.getNegativeCache().addMissing(fileUrl);
+            }
+            throw ex;
+        }
+    }
+
+    private static void throwIfKnownMissing(@NotNull ResolutionContext context, @NotNull String url) throws HttpStatusException {
+        if (context.getNegativeCache().isMissing(url, context.getNegativeCachePolicy())) {
+            throw new HttpStatusException(404, "Could not get connection (HTTP status 404 - not found, cached) " + url);
+        }
+    }
+
+    @NotNull
+    private static File tryDownloadFile(
+            @NotNull Transport transport,
+            @Nullable CacheManifest manifest,
+            @NotNull File outFile,
+            @NotNull String fileUrl
+    ) throws IOException {
+        // Only one thread or process at a time may own a file's .part, or two resumes would interleave their bytes
+        // Whoever waited here finds the winner's file in the manifest and is done
+        CacheLock lock = CacheLock.acquire(outFile);
+        try {
+            if (manifest != null && manifest.isValid(outFile)) {
+                return outFile;
+            }
+
+            if (FileTransport.isFileUrl(fileUrl)) {
+                return copyLocalFile(manifest, outFile, fileUrl);
+            }
+
+            // The sidecar is only fetched once we know the file exists, so a miss costs one request instead of four
+            ChecksumLookup checksum = new ChecksumLookup(transport, fileUrl);
+            try {
+                return tryDownloadFile(transport, manifest, outFile, fileUrl, checksum, true);
+            } catch (ResumeFailedException ignored) {
+                return tryDownloadFile(transport, manifest, outFile, fileUrl, checksum, false);
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    // Local repositories skip the transport and the checksum, nothing crosses a wire so the bytes we end up with are the bytes the repository has
+    // Always a copy, never a hard link: the cached jar may be mapped by MappedInjectableClassLoader,
+    // and a link would let anyone rewriting the repository's file in place change (or truncate) the pages under a running JVM
+    @NotNull
+    private static File copyLocalFile(@Nullable CacheManifest manifest, @NotNull File outFile, @NotNull String fileUrl) throws IOException {
+        File source = FileTransport.toFile(fileUrl);
+        if (source == null) {
+            throw new IOException("Not a valid file URL " + fileUrl);
+        }
+        if (!source.isFile()) {
+            throw new HttpStatusException(404, "Could not get connection (HTTP status 404 - not found) " + fileUrl);
+        }
+
+        File tmpFile = getTempFile(outFile);
+        try {
+            try (
+                    FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+            ) {
+                long size = in.size();
+                long position = 0L;
+                while (position < size) {
+                    long transferred = in.transferTo(position, size - position, out);
+                    if (transferred <= 0L) {
+                        break;
+                    }
+                    position += transferred;
+                }
+                if (out.size() != size) {
+                    throw new IOException("Copy was truncated (" + out.size() + " of " + size + " bytes) " + fileUrl);
+                }
+            }
+            moveAtomically(tmpFile, outFile);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+
+        if (manifest != null) {
+            manifest.put(outFile, null);
+        }
+        return outFile;
+    }
+
+    @NotNull
+    private static File tryDownloadFile(
+            @NotNull Transport transport,
+            @Nullable CacheManifest manifest,
+            @NotNull File outFile,
+            @NotNull String fileUrl,
+            @NotNull ChecksumLookup checksumLookup,
+            boolean resume
+    ) throws IOException {
+        // Partial downloads are kept beside the cache entry along with the validator they were fetched with
+        File partFile = new File(outFile.getParentFile(), outFile.getName() + ".part");
+        File validatorFile = new File(outFile.getParentFile(), outFile.getName() + ".part.validator");
+
+        // A partial is safe to resume if the server can tell us it changed (If-Range) or if the checksum will catch it afterwards
+        long offset = 0L;
+        String validator = resume ? readValidator(validatorFile) : null;
+        Map<@NotNull String, @NotNull String> headers = new LinkedHashMap<>(DEFAULT_HEADERS);
+        if (resume && partFile.isFile() && partFile.length() > 0L && (validator != null || checksumLookup.get() != null)) {
+            offset = partFile.length();
+            // Byte offsets only line up with the identity encoding, so never ask for compression when resuming
+            headers.put("Accept-Encoding", "identity");
+            headers.put("Range", "bytes=" + offset + "-");
+            if (validator != null) {
+                headers.put("If-Range", validator);
+            }
+        } else {
+            deletePartial(partFile, validatorFile);
+        }
+
+        try (Transport.Response response = transport.get(fileUrl, headers)) {
+            if (response.getStatus() == 416) {
+                deletePartial(partFile, validatorFile);
+                throw new ResumeFailedException("Could not resume download (HTTP status 416) " + response.getUrl());
+            }
+            throwOnStandardErrors(response);
+
+            Checksum checksum = checksumLookup.get();
+            MessageDigest digest = getDigest(checksum != null ? checksum.algorithm : "SHA-1");
+
+            String contentEncoding = response.getHeader("Content-Encoding");
+            boolean identity = contentEncoding == null || contentEncoding.equalsIgnoreCase("identity");
+            long expected = -1L;
+            if (response.getStatus() == 206) {
+                String contentRange = response.getHeader("Content-Range");
+                if (offset == 0L || !identity || contentRange == null || !contentRange.trim().startsWith("bytes " + offset + "-")) {
+                    deletePartial(partFile, validatorFile);
+                    throw new ResumeFailedException("Server returned an unexpected range (" + contentRange + ") " + response.getUrl());
+                }
+                expected = parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1));
+                seedDigest(digest, partFile);
+            } else {
+                // The server ignored the range (or the file changed under us), so start over
+                offset = 0L;
+                String contentLength = response.getHeader("Content-Length");
+                if (identity && contentLength != null) {
+                    expected = parseLong(contentLength);
+                }
+                validator = identity ? getValidator(response) : null;
+                if (identity && validator != null) {
+                    writeValidator(validatorFile, validator);
+                } else {
+                    Files.deleteIfExists(validatorFile.toPath());
+                }
+            }
+
+            boolean resumable = identity && (validator != null || checksum != null);
+            boolean complete = false;
+            try {
+                try (
+                        InputStream in = new DigestInputStream(compressor.decompress(response.getBody(), contentEncoding), digest);
+                        FileOutputStream out = new FileOutputStream(partFile, offset > 0L)
+                ) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+
+                if (expected >= 0L && partFile.length() != expected) {
+                    throw new IOException("Download was truncated (" + partFile.length() + " of " + expected + " bytes) " + fileUrl);
+                }
+
+                String hash = toHex(digest.digest());
+                if (checksum != null && !checksum.hash.equals(hash)) {
+                    deletePartial(partFile, validatorFile);
+                    if (offset > 0L) {
+                        // The bytes we resumed from were stale, one clean download will sort it out
+                        throw new ResumeFailedException("Checksum mismatch after resuming " + fileUrl);
+                    }
+                    throw new IOException("Checksum mismatch for " + fileUrl + " (expected " + checksum.algorithm + " " + checksum.hash + ", got " + hash + ")");
+                }
+
+                moveAtomically(partFile, outFile);
+                Files.deleteIfExists(validatorFile.toPath());
+                complete = true;
+                if (manifest != null) {
+                    manifest.put(outFile, digest.getAlgorithm().replace("-", "").toLowerCase(Locale.ROOT) + ":" + hash);
+                }
+            } finally {
+                // If we could never safely resume, don't leave the bytes lying around
+                if (!complete && !resumable) {
+                    deletePartial(partFile, validatorFile);
+                }
+            }
+        }
+
+        return outFile;
+    }
+
+    // No .part here, there's nothing on disk to resume from
+    @NotNull
+    private static String tryStreamFile(
+            @NotNull Transport transport,
+            @NotNull CacheManifest manifest,
+            @Nullable File keepFile,
+            @NotNull String fileUrl,
+            @NotNull StreamConsumer consumer
+    ) throws IOException {
+        ChecksumLookup checksumLookup = new ChecksumLookup(transport, fileUrl);
+        try (Transport.Response response = transport.get(fileUrl, DEFAULT_HEADERS)) {
+            throwOnStandardErrors(response);
+
+            Checksum checksum = checksumLookup.get();
+            MessageDigest digest = getDigest(checksum != null ? checksum.algorithm : "SHA-1");
+
+            String contentEncoding = response.getHeader("Content-Encoding");
+            String contentLength = response.getHeader("Content-Length");
+            long expected = (contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")) && contentLength != null ? parseLong(contentLength) : -1L;
+
+            File tmpFile = keepFile != null ? getTempFile(keepFile) : null;
+            try {
+                try (
+                        OutputStream copy = tmpFile != null ? new BufferedOutputStream(new FileOutputStream(tmpFile), 65536) : null;
+                        CopyingInputStream in = new CopyingInputStream(new DigestInputStream(compressor.decompress(response.getBody(), contentEncoding), digest), copy)
+                ) {
+                    consumer.accept(in);
+                    // The consumer may stop at the last entry, the checksum covers everything after it too
+                    in.drain();
+
+                    if (expected >= 0L && in.count != expected) {
+                        throw new IOException("Download was truncated (" + in.count + " of " + expected + " bytes) " + fileUrl);
+                    }
+                }
+
+                String hash = toHex(digest.digest());
+                if (checksum != null && !checksum.hash.equals(hash)) {
+                    throw new IOException("Checksum mismatch for " + fileUrl + " (expected " + checksum.algorithm + " " + checksum.hash + ", got " + hash + ")");
+                }
+                hash = digest.getAlgorithm().replace("-", "").toLowerCase(Locale.ROOT) + ":" + hash;
+
+                if (tmpFile != null) {
+                    CacheLock lock = CacheLock.acquire(keepFile);
+                    try {
+                        moveAtomically(tmpFile, keepFile);
+                        manifest.put(keepFile, hash);
+                    } finally {
+                        lock.close();
+                    }
+                }
+                return hash;
+            } finally {
+                if (tmpFile != null) {
+                    Files.deleteIfExists(tmpFile.toPath());
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private static Set<@NotNull String> tryGetJarPackages(@NotNull Transport transport, @NotNull String fileUrl) throws IOException {
+        // The end record is 22 bytes, plus a comment of up to 64k
+        long[] range = new long[2];
+        byte[] tail = getRange(transport, fileUrl, "bytes=-" + (22 + 0xFFFF), range);
+        long tailStart = range[0];
+        long total = range[1];
+
+        ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        int end = -1;
+        for (int i = tail.length - 22; i >= 0; i--) {
+            if (buffer.getInt(i) == 0x06054b50) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new IOException("Could not find the end of the central directory " + fileUrl);
+        }
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long size = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+        long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL || offset + size > total) {
+            throw new IOException("Zip64 or corrupt jar " + fileUrl);
+        }
+
+        ByteBuffer directory;
+        if (offset >= tailStart) {
+            directory = ByteBuffer.wrap(tail, (int) (offset - tailStart), (int) size).slice().order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            directory = ByteBuffer.wrap(getRange(transport, fileUrl, "bytes=" + offset + "-" + (offset + size - 1L), range)).order(ByteOrder.LITTLE_ENDIAN);
+            if (range[0] != offset) {
+                throw new IOException("Server returned an unexpected range (" + range[0] + ") " + fileUrl);
+            }
+        }
+
+        Set<@NotNull String> retVal = new HashSet<>();
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (position + 46 > directory.limit() || directory.getInt(position) != 0x02014b50) {
+                throw new IOException("Corrupt central directory " + fileUrl);
+            }
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = directory.duplicate();
+            ((Buffer) nameBuffer).position(position + 46);
+            nameBuffer.get(nameBytes);
+            position += 46 + nameLength + extraLength + commentLength;
+
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (!name.endsWith(".class") || name.endsWith("module-info.class")) {
+                continue;
+            }
+            if (name.startsWith("META-INF/versions/")) {
+                int slash = name.indexOf('/', "META-INF/versions/".length());
+                name = slash != -1 ? name.substring(slash + 1) : name;
+            }
+            int index = name.lastIndexOf('/');
+            retVal.add(index != -1 ? name.substring(0, index) : "");
+        }
+        return retVal;
+    }
+
+    // Fills range with the offset of the returned bytes and the total length of the file
+    private static byte @NotNull [] getRange(@NotNull Transport transport, @NotNull String fileUrl, @NotNull String range, long @NotNull [] outRange) throws IOException {
+        Map<@NotNull String, @NotNull String> headers = new LinkedHashMap<>(DEFAULT_HEADERS);
+        // Byte offsets only line up with the identity encoding
+        headers.put("Accept-Encoding", "identity");
+        headers.put("Range", range);
+
+        try (Transport.Response response = transport.get(fileUrl, headers)) {
+            throwOnStandardErrors(response);
+
+            // Anything but a 206 is the whole jar, which is closed unread - the caller downloads it properly instead
+            String contentRange = response.getHeader("Content-Range");
+            if (response.getStatus() != 206 || contentRange == null || !contentRange.trim().startsWith("bytes ")) {
+                throw new IOException("Server does not support range requests (HTTP status " + response.getStatus() + ") " + response.getUrl());
+            }
+            String value = contentRange.trim().substring("bytes ".length());
+            int dash = value.indexOf('-');
+            int slash = value.indexOf('/');
+            outRange[0] = dash != -1 ? parseLong(value.substring(0, dash)) : -1L;
+            outRange[1] = slash != -1 ? parseLong(value.substring(slash + 1)) : -1L;
+            if (outRange[0] < 0L || outRange[1] < 0L) {
+                throw new IOException("Server returned an unexpected range (" + contentRange + ") " + fileUrl);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = response.getBody()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Nullable
+    private static String getValidator(@NotNull Transport.Response response) {
+        // Weak ETags aren't allowed in If-Range, Last-Modified is the fallback
+        String etag = response.getHeader("ETag");
+        if (etag != null && !etag.trim().isEmpty() && !etag.trim().startsWith("W/")) {
+            return etag.trim();
+        }
+        String lastModified = response.getHeader("Last-Modified");
+        return lastModified != null && !lastModified.trim().isEmpty() ? lastModified.trim() : null;
+    }
+
+    @Nullable
+    private static String readValidator(@NotNull File validatorFile) {
+        if (!validatorFile.isFile()) {
+            return null;
+        }
+        try {
+            String retVal = new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8).trim();
+            return retVal.isEmpty() ? null : retVal;
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    private static void writeValidator(@NotNull File validatorFile, @NotNull String validator) throws IOException {
+        Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void deletePartial(@NotNull File partFile, @NotNull File validatorFile) throws IOException {
+        Files.deleteIfExists(partFile.toPath());
+        Files.deleteIfExists(validatorFile.toPath());
+    }
+
+    private static void seedDigest(@NotNull MessageDigest digest, @NotNull File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
             int read;
             while ((read = in.read(buffer)) > 0) {
-                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
             }
         }
+    }
 
-        return outFile;
+    private static long parseLong(@NotNull String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ignored) {
+            return -1L;
+        }
+    }
+
+    @Nullable
+    private static Checksum tryGetChecksum(@NotNull Transport transport, @NotNull String fileUrl) {
+        // Every Maven repository publishes .sha1, newer deploys also publish .sha256, and .md5 is the last resort
+        for (String[] sidecar : CHECKSUM_SIDECARS) {
+            try (Transport.Response response = transport.get(fileUrl + sidecar[0], DEFAULT_HEADERS)) {
+                if (response.getStatus() != 200) {
+                    continue;
+                }
+                String body;
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        compressor.decompress(response.getBody(), response.getHeader("Content-Encoding")),
+                        StandardCharsets.US_ASCII
+                ))) {
+                    body = in.readLine();
+                }
+                // Sidecars are either "<hash>" or "<hash>  <file name>"
+                if (body != null && !(body = body.trim()).isEmpty()) {
+                    String hash = body.split("\\s+", 2)[0].toLowerCase(Locale.ROOT);
+                    if (hash.length() == Integer.parseInt(sidecar[2])) {
+                        return new Checksum(sidecar[1], hash);
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private static MessageDigest getDigest(@NotNull String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(algorithm + " is not available.", ex);
+        }
+    }
+
+    @NotNull
+    private static String toHex(byte @NotNull [] bytes) {
+        StringBuilder retVal = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            retVal.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return retVal.toString();
     }
 
     @NotNull
@@ -315,62 +1022,185 @@ public class HttpUtils {
             @NotNull String artifactId,
             @NotNull String version
     ) throws IOException {
-        if (repositoryUrl.length() > 0 && repositoryUrl.charAt(repositoryUrl.length() - 1) != '/') {
-            repositoryUrl += '/';
-        }
-        repositoryUrl += groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/maven-metadata.xml";
-
-        URL url = new URL(repositoryUrl);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setInstanceFollowRedirects(true);
-        conn.setConnectTimeout(3500);
-        conn.setReadTimeout(5000);
-        conn.setDoInput(true);
-        conn.setDoOutput(false);
-
-        conn.setRequestProperty("Accept-Language", "en-US,en;q=0.8");
-        conn.setRequestProperty("Accept-Encoding", HAS_BROTLI ? "br,gzip,deflate;q=0.8" : "gzip,deflate;q=0.8");
-        conn.setRequestProperty("User-Agent", "egg82/MVNLoader");
+        return tryGetMetadata(DEFAULT_TRANSPORT, repositoryUrl, groupId, artifactId, version);
+    }
 
-        throwOnStandardErrors(conn);
+    @NotNull
+    public static Metadata tryGetMetadata(
+            @NotNull Transport transport,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version
+    ) throws IOException {
+        return tryGetMetadata(transport, getArtifactUrl(repositoryUrl, groupId, artifactId, version, "maven-metadata.xml"));
+    }
 
-        try (InputStream in = compressor.decompress(conn.getInputStream(), conn.getHeaderField("Content-Encoding"))) {
-            return new MetadataXpp3Reader().read(in);
-        } catch (XmlPullParserException ex) {
-            throw new IOException("Could not parse maven-metadata XML file " + repositoryUrl, ex);
-        }
+    @NotNull
+    public static Metadata tryGetMetadata(
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId
+    ) throws IOException {
+        return tryGetMetadata(DEFAULT_TRANSPORT, repositoryUrl, groupId, artifactId);
     }
 
     @NotNull
     public static Metadata tryGetMetadata(
+            @NotNull Transport transport,
             @NotNull String repositoryUrl,
             @NotNull String groupId,
             @NotNull String artifactId
     ) throws IOException {
+        return tryGetMetadata(transport, getArtifactUrl(repositoryUrl, groupId, artifactId, null, "maven-metadata.xml"));
+    }
+
+    @NotNull
+    private static Metadata tryGetMetadata(@NotNull Transport transport, @NotNull String metadataUrl) throws IOException {
+        try (Transport.Response response = transport.get(metadataUrl, DEFAULT_HEADERS)) {
+            throwOnStandardErrors(response);
+
+            try (InputStream in = compressor.decompress(response.getBody(), response.getHeader("Content-Encoding"))) {
+                return new MetadataXpp3Reader().read(in);
+            } catch (XmlPullParserException ex) {
+                throw new IOException("Could not parse maven-metadata XML file " + metadataUrl, ex);
+            }
+        }
+    }
+
+    @NotNull
+    public static String getArtifactUrl(
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @Nullable String version,
+            @NotNull String fileName
+    ) {
+        StringBuilder retVal = new StringBuilder(repositoryUrl);
         if (repositoryUrl.length() > 0 && repositoryUrl.charAt(repositoryUrl.length() - 1) != '/') {
-            repositoryUrl += '/';
+            retVal.append('/');
         }
-        repositoryUrl += groupId.replace('.', '/') + "/" + artifactId + "/maven-metadata.xml";
+        retVal.append(groupId.replace('.', '/')).append('/').append(artifactId).append('/');
+        if (version != null) {
+            retVal.append(version).append('/');
+        }
+        return retVal.append(fileName).toString();
+    }
 
-        URL url = new URL(repositoryUrl);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setInstanceFollowRedirects(true);
-        conn.setConnectTimeout(3500);
-        conn.setReadTimeout(5000);
-        conn.setDoInput(true);
-        conn.setDoOutput(false);
+    @NotNull
+    public static Metadata getMetadata(
+            @NotNull ResolutionContext context,
+            @NotNull UpdatePolicy updatePolicy,
+            @NotNull String repositoryUrl,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @Nullable String version
+    ) throws IOException {
+        File cacheFile = getMetadataCacheFile(context.getCacheDir(), repositoryUrl, groupId, artifactId, version);
+        Metadata retVal = context.getMetadata(cacheFile);
+        if (retVal != null) {
+            return retVal;
+        }
 
-        conn.setRequestProperty("Accept-Language", "en-US,en;q=0.8");
-        conn.setRequestProperty("Accept-Encoding", HAS_BROTLI ? "br,gzip,deflate;q=0.8" : "gzip,deflate;q=0.8");
-        conn.setRequestProperty("User-Agent", "egg82/MVNLoader");
+        long start = System.nanoTime();
+        if (FileTransport.isFileUrl(repositoryUrl)) {
+            // Already on disk, so there's nothing to cache and nothing to expire
+            String metadataUrl = getArtifactUrl(repositoryUrl, groupId, artifactId, version, "maven-metadata.xml");
+            File file = FileTransport.toFile(metadataUrl);
+            if (file == null || !file.isFile()) {
+                throw new HttpStatusException(404, "Could not get connection (HTTP status 404 - not found) " + metadataUrl);
+            }
+            retVal = readMetadata(file);
+            context.getListener().onMetadataResolved(groupId, artifactId, version, repositoryUrl, false, (System.nanoTime() - start) / 1_000_000L);
+            return context.putMetadata(cacheFile, retVal);
+        }
 
-        throwOnStandardErrors(conn);
+        // Never go to the network while offline, no matter how old the cached copy is
+        if (cacheFile.isFile() && (context.isOffline() || !updatePolicy.isExpired(cacheFile.lastModified()))) {
+            try {
+                retVal = context.putMetadata(cacheFile, readMetadata(cacheFile));
+                context.getListener().onCacheHit(cacheFile);
+                context.getListener().onMetadataResolved(groupId, artifactId, version, repositoryUrl, true, (System.nanoTime() - start) / 1_000_000L);
+                return retVal;
+            } catch (IOException ignored) {
+                // Corrupt cache file, fetch it again
+            }
+        }
 
-        try (InputStream in = compressor.decompress(conn.getInputStream(), conn.getHeaderField("Content-Encoding"))) {
-            return new MetadataXpp3Reader().read(in);
-        } catch (XmlPullParserException ex) {
-            throw new IOException("Could not parse maven-metadata XML file " + repositoryUrl, ex);
+        if (context.isOffline()) {
+            throw new IOException("Offline mode is enabled and metadata is not cached: " + cacheFile.getAbsolutePath());
+        }
+
+        context.getListener().onCacheMiss(cacheFile);
+        String metadataUrl = getArtifactUrl(repositoryUrl, groupId, artifactId, version, "maven-metadata.xml");
+        try {
+            throwIfKnownMissing(context, metadataUrl);
+            try {
+                retVal = tryGetMetadata(context.getTransport(), metadataUrl);
+            } catch (HttpStatusException ex) {
+                if (ex.isNotFound()) {
+                    context.getNegativeCache().addMissing(metadataUrl);
+                }
+                throw ex;
+            }
+        } catch (IOException ex) {
+            // Stale metadata is better than no metadata
+            if (cacheFile.isFile()) {
+                try {
+                    retVal = context.putMetadata(cacheFile, readMetadata(cacheFile));
+                    context.getListener().onMetadataResolved(groupId, artifactId, version, repositoryUrl, true, (System.nanoTime() - start) / 1_000_000L);
+                    return retVal;
+                } catch (IOException ignored) {
+                }
+            }
+            throw ex;
+        }
+
+        try {
+            writeMetadata(cacheFile, retVal);
+        } catch (IOException ignored) {
+            // Only costs us another lookup next time
         }
+        context.getListener().onMetadataResolved(groupId, artifactId, version, repositoryUrl, false, (System.nanoTime() - start) / 1_000_000L);
+        return context.putMetadata(cacheFile, retVal);
+    }
+
+    @NotNull
+    public static String getRealVersion(
+            @NotNull ResolutionContext context,
+            @NotNull UpdatePolicy updatePolicy,
+            @NotNull String repositoryUrl,
+            @Nullable String proxy,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @Nullable Logger logger
+    ) throws IOException {
+        boolean snapshot = version.toLowerCase(Locale.ROOT).endsWith("-snapshot");
+        if (!snapshot && !version.equalsIgnoreCase("release") && !version.equalsIgnoreCase("latest")) {
+            return version;
+        }
+
+        Metadata metadata = null;
+        if (proxy != null) {
+            try {
+                metadata = getMetadata(context, updatePolicy, proxy, groupId, artifactId, snapshot ? version : null);
+            } catch (IOException ex) {
+                if (logger != null) {
+                    logger.warn("Could not download metadata XML from proxy URL " + proxy, ex);
+                }
+            }
+        }
+        if (metadata == null) {
+            metadata = getMetadata(context, updatePolicy, repositoryUrl, groupId, artifactId, snapshot ? version : null);
+        }
+
+        if (snapshot) {
+            return version.substring(0, version.lastIndexOf('-')) + "-" + metadata.getVersioning()
+                    .getSnapshot()
+                    .getTimestamp() + "-" + metadata.getVersioning().getSnapshot().getBuildNumber();
+        }
+        return version.equalsIgnoreCase("release") ? metadata.getVersioning().getRelease() : metadata.getVersioning().getLatest();
     }
 
     @NotNull
@@ -436,32 +1266,175 @@ public class HttpUtils {
         return version;
     }
 
-    private static void throwOnStandardErrors(@NotNull HttpURLConnection connection) throws IOException {
-        int status = connection.getResponseCode();
+    @NotNull
+    private static Metadata readMetadata(@NotNull File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return new MetadataXpp3Reader().read(in);
+        } catch (XmlPullParserException ex) {
+            throw new IOException("Could not parse maven-metadata XML file " + file.getAbsolutePath(), ex);
+        }
+    }
+
+    private static void writeMetadata(@NotNull File file, @NotNull Metadata metadata) throws IOException {
+        File tmpFile = getTempFile(file);
+        try {
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                new MetadataXpp3Writer().write(out, metadata);
+            }
+            moveAtomically(tmpFile, file);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    @NotNull
+    public static String hashFile(@NotNull File file) throws IOException {
+        MessageDigest digest = getDigest("SHA-1");
+        seedDigest(digest, file);
+        return "sha1:" + toHex(digest.digest());
+    }
+
+    @NotNull
+    public static File getTempFile(@NotNull File file) {
+        // Files.createTempFile() would make the file owner-only, which breaks caches shared between users
+        return new File(file.getParentFile(), file.getName() + "." + UUID.randomUUID() + ".tmp");
+    }
+
+    public static void moveAtomically(@NotNull File from, @NotNull File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ignored) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static void throwOnStandardErrors(@NotNull Transport.Response response) throws IOException {
+        int status = response.getStatus();
 
         if (status >= 200 && status < 300) {
             if (status == HttpURLConnection.HTTP_RESET) {
-                throw new IOException("Could not get connection (HTTP status " + status + " - reset connection) " + connection.getURL());
+                throw new HttpStatusException(status, "Could not get connection (HTTP status " + status + " - reset connection) " + response.getUrl());
             }
         } else if (status >= 300 && status < 400) {
             if (status != HttpURLConnection.HTTP_MOVED_TEMP && status != HttpURLConnection.HTTP_MOVED_PERM && status != HttpURLConnection.HTTP_SEE_OTHER) {
-                throw new IOException("Could not get connection (HTTP status " + status + " - reset connection) " + connection.getURL());
+                throw new HttpStatusException(status, "Could not get connection (HTTP status " + status + " - reset connection) " + response.getUrl());
             }
         } else if (status >= 400 && status < 500) {
             if (status == HttpURLConnection.HTTP_UNAUTHORIZED || status == HttpURLConnection.HTTP_FORBIDDEN) {
-                throw new IOException("Could not get connection (HTTP status " + status + " - access denied) " + connection.getURL());
+                throw new HttpStatusException(status, "Could not get connection (HTTP status " + status + " - access denied) " + response.getUrl());
             }
             if (status == 429) { // Too many queries
-                throw new IOException("Could not get connection (HTTP status " + status + " - too many queries, temporary issue) " + connection.getURL());
+                throw new HttpStatusException(status, "Could not get connection (HTTP status " + status + " - too many queries, temporary issue) " + response.getUrl());
             }
             if (status == 404) { // Not found
-                throw new IOException("Could not get connection (HTTP status " + status + " - not found) " + connection.getURL());
+                throw new HttpStatusException(status, "Could not get connection (HTTP status " + status + " - not found) " + response.getUrl());
             }
-            throw new IOException("Could not get connection (HTTP status " + status + ") " + connection.getURL());
+            throw new HttpStatusException(status, "Could not get connection (HTTP status " + status + ") " + response.getUrl());
         } else if (status >= 500 && status < 600) { // Server errors (usually temporary)
-            throw new IOException("Could not get connection (HTTP status " + status + " - remote server issue) " + connection.getURL());
+            throw new HttpStatusException(status, "Could not get connection (HTTP status " + status + " - remote server issue) " + response.getUrl());
         } else {
-            throw new IOException("Could not get connection (HTTP status " + status + ") " + connection.getURL());
+            throw new HttpStatusException(status, "Could not get connection (HTTP status " + status + ") " + response.getUrl());
+        }
+    }
+
+    public interface StreamConsumer {
+        void accept(@NotNull InputStream in) throws IOException;
+    }
+
+    private interface Download<T> {
+        T run() throws IOException;
+    }
+
+    // Counts (and optionally copies) everything read through it, skips are reads so nothing escapes the digest
+    private static class CopyingInputStream extends FilterInputStream {
+        private final @Nullable OutputStream copy;
+        private long count = 0L;
+
+        private CopyingInputStream(@NotNull InputStream in, @Nullable OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int retVal = in.read();
+            if (retVal != -1) {
+                count++;
+                if (copy != null) {
+                    copy.write(retVal);
+                }
+            }
+            return retVal;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            int retVal = in.read(b, off, len);
+            if (retVal > 0) {
+                count += retVal;
+                if (copy != null) {
+                    copy.write(b, off, retVal);
+                }
+            }
+            return retVal;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(8192L, Math.max(1L, n))];
+            long skipped = 0L;
+            int read;
+            while (skipped < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() { return false; }
+
+        private void drain() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) != -1) { }
+        }
+    }
+
+    private static class ChecksumLookup {
+        private final @NotNull Transport transport;
+        private final @NotNull String fileUrl;
+        private boolean done = false;
+        private @Nullable Checksum checksum = null;
+
+        private ChecksumLookup(@NotNull Transport transport, @NotNull String fileUrl) {
+            this.transport = transport;
+            this.fileUrl = fileUrl;
+        }
+
+        @Nullable
+        private Checksum get() {
+            if (!done) {
+                checksum = tryGetChecksum(transport, fileUrl);
+                done = true;
+            }
+            return checksum;
+        }
+    }
+
+    private static class Checksum {
+        private final @NotNull String algorithm;
+        private final @NotNull String hash;
+
+        private Checksum(@NotNull String algorithm, @NotNull String hash) {
+            this.algorithm = algorithm;
+            this.hash = hash;
+        }
+    }
+
+    private static class ResumeFailedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private ResumeFailedException(@NotNull String message) {
+            super(message);
         }
     }
 }
@@ -0,0 +1,173 @@
+package ninja.egg82.mvn.internal;
+
+import me.lucko.jarrelocator.Relocation;
+import ninja.egg82.mvn.JarBuilder;
+import ninja.egg82.mvn.Resolution;
+import ninja.egg82.mvn.ResolvedArtifact;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+public class LockFileUtils {
+    private static final int FORMAT = 2;
+
+    private LockFileUtils() { }
+
+    @NotNull
+    public static String getKey(@NotNull Collection<@NotNull JarBuilder> builders, @NotNull Collection<@NotNull Relocation> relocations) {
+        StringBuilder builder = new StringBuilder();
+        for (JarBuilder b : builders) {
+            builder.append("builder:")
+                    .append(b.getGroupId()).append(':')
+                    .append(b.getArtifactId()).append(':')
+                    .append(b.getVersion()).append('@')
+                    .append(b.getRepositoryUrl()).append('\n');
+            for (Map.Entry<@NotNull String, String> proxy : new TreeMap<>(b.getProxies()).entrySet()) {
+                builder.append("proxy:").append(proxy.getKey()).append("=").append(proxy.getValue()).append('\n');
+            }
+        }
+        for (Relocation relocation : relocations) {
+            builder.append("relocation:").append(RelocationUtils.toKey(relocation)).append('\n');
+        }
+        return hash(builder.toString());
+    }
+
+    @NotNull
+    public static File getLockFile(@NotNull File cacheDir, @NotNull String key) throws IOException {
+        File retVal = new File(new File(new File(cacheDir, ".mvnloader"), "resolutions"), key + ".lock");
+        File parent = retVal.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+        return retVal;
+    }
+
+    // Plain properties rather than serialized objects, the cache directory may be shared and nothing in it should get to pick which classes are loaded
+    @Nullable
+    public static Resolution read(@NotNull File lockFile, @NotNull String key) {
+        if (!lockFile.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (Reader in = new InputStreamReader(new BufferedInputStream(new FileInputStream(lockFile)), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (IOException ignored) {
+            return null;
+        }
+
+        try {
+            if (!String.valueOf(FORMAT).equals(properties.getProperty("format")) || !key.equals(properties.getProperty("key"))) {
+                // Written by an incompatible version or for a different set of builders, just resolve again
+                return null;
+            }
+            long created = Long.parseLong(get(properties, "created"));
+
+            Set<@NotNull String> provided = new LinkedHashSet<>();
+            int providedCount = Integer.parseInt(get(properties, "provided"));
+            for (int i = 0; i < providedCount; i++) {
+                provided.add(get(properties, "provided." + i));
+            }
+
+            List<@NotNull ResolvedArtifact> artifacts = new ArrayList<>();
+            int artifactCount = Integer.parseInt(get(properties, "artifacts"));
+            for (int i = 0; i < artifactCount; i++) {
+                String prefix = "artifact." + i + ".";
+                String packages = properties.getProperty(prefix + "packages");
+                artifacts.add(new ResolvedArtifact(
+                        get(properties, prefix + "groupId"),
+                        get(properties, prefix + "artifactId"),
+                        get(properties, prefix + "version"),
+                        get(properties, prefix + "realVersion"),
+                        get(properties, prefix + "repositoryUrl"),
+                        new File(get(properties, prefix + "file")),
+                        packages != null ? split(packages) : null
+                ));
+            }
+            return new Resolution(key, created, artifacts, provided);
+        } catch (IOException | NumberFormatException ignored) {
+            // Corrupt, just resolve again
+            return null;
+        }
+    }
+
+    public static void write(@NotNull File lockFile, @NotNull Resolution resolution) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("format", String.valueOf(FORMAT));
+        properties.setProperty("key", resolution.getKey());
+        properties.setProperty("created", String.valueOf(resolution.getCreated()));
+
+        int i = 0;
+        properties.setProperty("provided", String.valueOf(resolution.getProvidedDependencies().size()));
+        for (String provided : resolution.getProvidedDependencies()) {
+            properties.setProperty("provided." + i++, provided);
+        }
+
+        i = 0;
+        properties.setProperty("artifacts", String.valueOf(resolution.getArtifacts().size()));
+        for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+            String prefix = "artifact." + i++ + ".";
+            properties.setProperty(prefix + "groupId", artifact.getGroupId());
+            properties.setProperty(prefix + "artifactId", artifact.getArtifactId());
+            properties.setProperty(prefix + "version", artifact.getVersion());
+            properties.setProperty(prefix + "realVersion", artifact.getRealVersion());
+            properties.setProperty(prefix + "repositoryUrl", artifact.getRepositoryUrl());
+            properties.setProperty(prefix + "file", artifact.getFile().getAbsolutePath());
+            if (artifact.getPackages() != null) {
+                properties.setProperty(prefix + "packages", String.join(",", artifact.getPackages()));
+            }
+        }
+
+        File tmpFile = HttpUtils.getTempFile(lockFile);
+        try {
+            try (Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tmpFile)), StandardCharsets.UTF_8)) {
+                properties.store(out, null);
+            }
+            HttpUtils.moveAtomically(tmpFile, lockFile);
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    @NotNull
+    private static String get(@NotNull Properties properties, @NotNull String key) throws IOException {
+        String retVal = properties.getProperty(key);
+        if (retVal == null) {
+            throw new IOException("Missing " + key);
+        }
+        return retVal;
+    }
+
+    @NotNull
+    private static Set<@NotNull String> split(@NotNull String value) {
+        Set<@NotNull String> retVal = new TreeSet<>();
+        for (String part : value.split(",")) {
+            if (!part.isEmpty()) {
+                retVal.add(part);
+            }
+        }
+        return retVal;
+    }
+
+    @NotNull
+    static String hash(@NotNull String value) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available.", ex);
+        }
+        byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+        StringBuilder retVal = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            retVal.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return retVal.toString();
+    }
+}
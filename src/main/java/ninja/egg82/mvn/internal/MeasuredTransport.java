@@ -0,0 +1,141 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+public class MeasuredTransport implements Transport {
+    private final @NotNull Transport delegate;
+    private final @NotNull RepositoryHealth health;
+    private final @Nullable BytesListener bytesListener;
+
+    public MeasuredTransport(@NotNull Transport delegate, @NotNull RepositoryHealth health) {
+        this(delegate, health, null);
+    }
+
+    // The listener is handed the size of every chunk read from a response body, along with the URL it was requested from
+    public MeasuredTransport(@NotNull Transport delegate, @NotNull RepositoryHealth health, @Nullable BytesListener bytesListener) {
+        this.delegate = delegate;
+        this.health = health;
+        this.bytesListener = bytesListener;
+    }
+
+    @NotNull
+    public Transport getDelegate() { return delegate; }
+
+    @Override
+    @NotNull
+    public Response get(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Response retVal = delegate.get(url, headers);
+            // Time to first byte, body size shouldn't make a host look slow
+            health.getHealth(url).record(retVal.getStatus(), (System.nanoTime() - start) / 1_000_000L);
+            return bytesListener != null ? new CountingResponse(url, retVal, bytesListener) : retVal;
+        } catch (IOException ex) {
+            health.getHealth(url).recordFailure((System.nanoTime() - start) / 1_000_000L);
+            throw ex;
+        }
+    }
+
+    @Override
+    @NotNull
+    public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Response retVal = delegate.head(url, headers);
+            health.getHealth(url).record(retVal.getStatus(), (System.nanoTime() - start) / 1_000_000L);
+            return retVal;
+        } catch (IOException ex) {
+            health.getHealth(url).recordFailure((System.nanoTime() - start) / 1_000_000L);
+            throw ex;
+        }
+    }
+
+    @Override
+    @NotNull
+    public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers, @NotNull Abort abort) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Response retVal = delegate.head(url, headers, abort);
+            health.getHealth(url).record(retVal.getStatus(), (System.nanoTime() - start) / 1_000_000L);
+            return retVal;
+        } catch (IOException ex) {
+            // We hung up on it, which says nothing about the host
+            if (!abort.isAborted()) {
+                health.getHealth(url).recordFailure((System.nanoTime() - start) / 1_000_000L);
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public void warm(@NotNull String url) { delegate.warm(url); }
+
+    public interface BytesListener {
+        void onRead(@NotNull String url, long bytes);
+    }
+
+    private static class CountingResponse implements Response {
+        private final @NotNull String url;
+        private final @NotNull Response delegate;
+        private final @NotNull BytesListener bytesListener;
+
+        private CountingResponse(@NotNull String url, @NotNull Response delegate, @NotNull BytesListener bytesListener) {
+            this.url = url;
+            this.delegate = delegate;
+            this.bytesListener = bytesListener;
+        }
+
+        @Override
+        public int getStatus() { return delegate.getStatus(); }
+
+        @Override
+        @NotNull
+        public String getUrl() { return delegate.getUrl(); }
+
+        @Override
+        @Nullable
+        public String getHeader(@NotNull String name) { return delegate.getHeader(name); }
+
+        @Override
+        @NotNull
+        public InputStream getBody() throws IOException {
+            return new FilterInputStream(delegate.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    int retVal = super.read();
+                    if (retVal != -1) {
+                        bytesListener.onRead(url, 1L);
+                    }
+                    return retVal;
+                }
+
+                @Override
+                public int read(byte @NotNull [] b, int off, int len) throws IOException {
+                    int retVal = super.read(b, off, len);
+                    if (retVal > 0) {
+                        bytesListener.onRead(url, retVal);
+                    }
+                    return retVal;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    long retVal = super.skip(n);
+                    if (retVal > 0L) {
+                        bytesListener.onRead(url, retVal);
+                    }
+                    return retVal;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException { delegate.close(); }
+    }
+}
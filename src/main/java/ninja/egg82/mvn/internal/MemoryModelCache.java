@@ -0,0 +1,28 @@
+package ninja.egg82.mvn.internal;
+
+import org.apache.maven.model.building.ModelCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class MemoryModelCache implements ModelCache {
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull Object> cache = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull String tag, @NotNull Object data) {
+        cache.put(getKey(groupId, artifactId, version, tag), data);
+    }
+
+    @Override
+    @Nullable
+    public Object get(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull String tag) {
+        return cache.get(getKey(groupId, artifactId, version, tag));
+    }
+
+    @NotNull
+    private static String getKey(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull String tag) {
+        return groupId + ":" + artifactId + ":" + version + ":" + tag;
+    }
+}
@@ -0,0 +1,185 @@
+package ninja.egg82.mvn.internal;
+
+import ninja.egg82.mvn.ResolvedArtifact;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+public class MergedJarUtils {
+    private MergedJarUtils() { }
+
+    // Keyed by the exact files that go in, so the archive is only rebuilt when the resolved set changes
+    @NotNull
+    public static String getKey(@NotNull List<@NotNull ResolvedArtifact> artifacts) {
+        StringBuilder builder = new StringBuilder();
+        for (ResolvedArtifact artifact : artifacts) {
+            File file = artifact.getFile();
+            builder.append("artifact:")
+                    .append(artifact.getGroupId()).append(':')
+                    .append(artifact.getArtifactId()).append(':')
+                    .append(artifact.getRealVersion()).append('@')
+                    .append(file.getAbsolutePath()).append('|')
+                    .append(file.length()).append('|')
+                    .append(file.lastModified()).append('\n');
+        }
+        return LockFileUtils.hash(builder.toString());
+    }
+
+    @NotNull
+    public static File getMergedFile(@NotNull File cacheDir, @NotNull String key) throws IOException {
+        File retVal = new File(new File(new File(cacheDir, ".mvnloader"), "merged"), key + ".jar");
+        File parent = retVal.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+        return retVal;
+    }
+
+    @NotNull
+    public static File merge(@NotNull File cacheDir, @NotNull List<@NotNull ResolvedArtifact> artifacts) throws IOException {
+        File outFile = getMergedFile(cacheDir, getKey(artifacts));
+        CacheManifest manifest = CacheManifest.get(cacheDir);
+
+        CacheLock lock = CacheLock.acquire(outFile);
+        try {
+            if (manifest.isValid(outFile)) {
+                return outFile;
+            }
+
+            File tmpFile = HttpUtils.getTempFile(outFile);
+            try {
+                write(tmpFile, outFile.getName(), artifacts);
+                HttpUtils.moveAtomically(tmpFile, outFile);
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+            manifest.put(outFile, null);
+        } finally {
+            lock.close();
+        }
+        return outFile;
+    }
+
+    private static void write(@NotNull File outFile, @NotNull String fileName, @NotNull List<@NotNull ResolvedArtifact> artifacts) throws IOException {
+        // The first jar to provide an entry wins, same as a URLClassLoader searching them in order
+        Set<@NotNull String> written = new HashSet<>();
+        Map<@NotNull String, @NotNull ByteArrayOutputStream> services = new LinkedHashMap<>();
+        Set<@NotNull String> packages = new TreeSet<>();
+        boolean multiRelease = false;
+
+        for (ResolvedArtifact artifact : artifacts) {
+            try (JarFile jar = new JarFile(artifact.getFile())) {
+                Manifest jarManifest = jar.getManifest();
+                if (jarManifest != null && "true".equalsIgnoreCase(jarManifest.getMainAttributes().getValue("Multi-Release"))) {
+                    multiRelease = true;
+                }
+            }
+        }
+
+        try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(outFile), 65536))) {
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().putValue("Created-By", "MVNLoader");
+            if (multiRelease) {
+                manifest.getMainAttributes().putValue("Multi-Release", "true");
+            }
+            JarEntry manifestEntry = new JarEntry(JarFile.MANIFEST_NAME);
+            manifestEntry.setTime(0L);
+            out.putNextEntry(manifestEntry);
+            manifest.write(out);
+            out.closeEntry();
+            written.add(JarFile.MANIFEST_NAME);
+
+            byte[] buffer = new byte[8192];
+            for (ResolvedArtifact artifact : artifacts) {
+                try (JarFile jar = new JarFile(artifact.getFile(), false)) {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        JarEntry entry = entries.nextElement();
+                        String name = entry.getName();
+                        if (isSkipped(name)) {
+                            continue;
+                        }
+
+                        // Service files from every jar are kept, in jar order
+                        if (!entry.isDirectory() && name.startsWith("META-INF/services/")) {
+                            ByteArrayOutputStream service = services.computeIfAbsent(name, k -> new ByteArrayOutputStream());
+                            try (InputStream in = jar.getInputStream(entry)) {
+                                int read;
+                                while ((read = in.read(buffer)) != -1) {
+                                    service.write(buffer, 0, read);
+                                }
+                            }
+                            service.write('\n');
+                            continue;
+                        }
+
+                        if (!written.add(name)) {
+                            continue;
+                        }
+                        if (!entry.isDirectory() && !name.startsWith("META-INF/")) {
+                            int index = name.lastIndexOf('/');
+                            if (index > 0) {
+                                packages.add(name.substring(0, index));
+                            }
+                        }
+
+                        JarEntry outEntry = new JarEntry(name);
+                        outEntry.setTime(entry.getTime());
+                        out.putNextEntry(outEntry);
+                        if (!entry.isDirectory()) {
+                            try (InputStream in = jar.getInputStream(entry)) {
+                                int read;
+                                while ((read = in.read(buffer)) != -1) {
+                                    out.write(buffer, 0, read);
+                                }
+                            }
+                        }
+                        out.closeEntry();
+                    }
+                }
+            }
+
+            for (Map.Entry<@NotNull String, @NotNull ByteArrayOutputStream> service : services.entrySet()) {
+                JarEntry entry = new JarEntry(service.getKey());
+                entry.setTime(0L);
+                out.putNextEntry(entry);
+                service.getValue().writeTo(out);
+                out.closeEntry();
+            }
+
+            // Standard jar index over the merged archive, lets the class loader rule out packages it doesn't have
+            StringBuilder index = new StringBuilder("JarIndex-Version: 1.0\n\n").append(fileName).append('\n');
+            for (String p : packages) {
+                index.append(p).append('\n');
+            }
+            index.append('\n');
+            JarEntry indexEntry = new JarEntry("META-INF/INDEX.LIST");
+            indexEntry.setTime(0L);
+            out.putNextEntry(indexEntry);
+            out.write(index.toString().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+
+    private static boolean isSkipped(@NotNull String name) {
+        String upper = name.toUpperCase(Locale.ROOT);
+        if (upper.equals(JarFile.MANIFEST_NAME) || upper.equals("META-INF/INDEX.LIST")) {
+            return true;
+        }
+        // Signatures can't survive a merge, and a module descriptor doesn't make sense for a mix of modules
+        if (upper.startsWith("META-INF/") && upper.indexOf('/', "META-INF/".length()) == -1
+                && (upper.endsWith(".SF") || upper.endsWith(".DSA") || upper.endsWith(".RSA") || upper.endsWith(".EC"))) {
+            return true;
+        }
+        return name.equals("module-info.class") || (name.startsWith("META-INF/versions/") && name.endsWith("/module-info.class"));
+    }
+}
@@ -0,0 +1,140 @@
+package ninja.egg82.mvn.internal;
+
+import ninja.egg82.mvn.UpdatePolicy;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Misses are kept in memory and written out once per run by save(), which also drops whatever has expired
+public class NegativeCache {
+    private static final @NotNull ConcurrentMap<@NotNull String, @NotNull NegativeCache> caches = new ConcurrentHashMap<>();
+
+    private final @NotNull File cacheFile;
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull Long> entries = new ConcurrentHashMap<>();
+    // Only what we found ourselves is written back, everything else may be older than another process's copy
+    private final @NotNull Set<@NotNull String> changed = ConcurrentHashMap.newKeySet();
+
+    private NegativeCache(@NotNull File cacheDir) {
+        this.cacheFile = new File(new File(cacheDir.getAbsoluteFile(), ".mvnloader"), "missing.properties");
+        entries.putAll(read(cacheFile));
+    }
+
+    @NotNull
+    public static NegativeCache get(@NotNull File cacheDir) {
+        return caches.computeIfAbsent(cacheDir.getAbsolutePath(), k -> new NegativeCache(cacheDir));
+    }
+
+    // The URL already identifies the repository, GAV, and file type
+    public boolean isMissing(@NotNull String url, @NotNull UpdatePolicy updatePolicy) {
+        Long lastChecked = entries.get(url);
+        if (lastChecked == null || isSnapshot(url) || FileTransport.isFileUrl(url)) {
+            return false;
+        }
+        if (updatePolicy.isExpired(lastChecked)) {
+            entries.remove(url, lastChecked);
+            return false;
+        }
+        return true;
+    }
+
+    public void addMissing(@NotNull String url) {
+        // SNAPSHOTs can show up at any moment, so never remember them as missing
+        // Neither can local files, checking for those again is cheaper than remembering them
+        if (isSnapshot(url) || FileTransport.isFileUrl(url)) {
+            return;
+        }
+        entries.put(url, System.currentTimeMillis());
+        changed.add(url);
+    }
+
+    private static boolean isSnapshot(@NotNull String url) {
+        return url.toLowerCase(Locale.ROOT).contains("-snapshot/");
+    }
+
+    // Anything the policy considers expired is dropped from the file, whoever wrote it
+    public synchronized void save(@NotNull UpdatePolicy updatePolicy) throws IOException {
+        entries.values().removeIf(updatePolicy::isExpired);
+        if (changed.isEmpty() && !cacheFile.isFile()) {
+            return;
+        }
+
+        File parent = cacheFile.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+
+        CacheLock lock = CacheLock.acquire(cacheFile);
+        try {
+            // Another process may share this cache, so merge in whatever it wrote since we last looked
+            Map<@NotNull String, @NotNull Long> merged = read(cacheFile);
+            int read = merged.size();
+            merged.values().removeIf(updatePolicy::isExpired);
+            boolean pruned = merged.size() != read;
+
+            // Claimed before writing, so an addMissing() racing this save is picked up by the next one
+            List<@NotNull String> saved = new ArrayList<>();
+            for (String url : changed) {
+                if (changed.remove(url)) {
+                    saved.add(url);
+                    Long lastChecked = entries.get(url);
+                    if (lastChecked != null && !updatePolicy.isExpired(lastChecked)) {
+                        merged.merge(url, lastChecked, Math::max);
+                    }
+                }
+            }
+            if (saved.isEmpty() && !pruned) {
+                return;
+            }
+
+            Properties properties = new Properties();
+            for (Map.Entry<@NotNull String, @NotNull Long> entry : merged.entrySet()) {
+                properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+
+            File tmpFile = HttpUtils.getTempFile(cacheFile);
+            boolean written = false;
+            try {
+                try (Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tmpFile)), StandardCharsets.UTF_8)) {
+                    properties.store(out, null);
+                }
+                HttpUtils.moveAtomically(tmpFile, cacheFile);
+                written = true;
+            } finally {
+                if (!written) {
+                    changed.addAll(saved);
+                }
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    @NotNull
+    private static Map<@NotNull String, @NotNull Long> read(@NotNull File cacheFile) {
+        Map<@NotNull String, @NotNull Long> retVal = new ConcurrentHashMap<>();
+        if (!cacheFile.isFile()) {
+            return retVal;
+        }
+
+        Properties properties = new Properties();
+        try (Reader in = new InputStreamReader(new BufferedInputStream(new FileInputStream(cacheFile)), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (IOException ignored) {
+            // Corrupt cache, we'll just ask the repositories again
+            return retVal;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            try {
+                retVal.put(key, Long.parseLong(properties.getProperty(key)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return retVal;
+    }
+}
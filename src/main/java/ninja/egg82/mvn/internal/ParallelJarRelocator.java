@@ -0,0 +1,402 @@
+package ninja.egg82.mvn.internal;
+
+import me.lucko.jarrelocator.JarRelocator;
+import me.lucko.jarrelocator.Relocation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+// Produces the same entries JarRelocator does, but remaps and deflates them on a fork-join pool
+// Entries are written back strictly in source order so the output is deterministic
+public class ParallelJarRelocator {
+    // The writer below doesn't do Zip64, so anything that might need it goes through JarRelocator instead
+    private static final int MAX_ENTRIES = 60_000;
+    private static final long MAX_SIZE = 1024L * 1024L * 1024L;
+
+    private final @Nullable File input;
+    private final @Nullable InputStream stream;
+    private final @NotNull File output;
+    private final @NotNull Collection<@NotNull Relocation> relocations;
+    private final @NotNull ForkJoinPool pool;
+
+    public ParallelJarRelocator(@NotNull File input, @NotNull File output, @NotNull Collection<@NotNull Relocation> relocations) {
+        this(input, output, relocations, ForkJoinPool.commonPool());
+    }
+
+    public ParallelJarRelocator(
+            @NotNull File input,
+            @NotNull File output,
+            @NotNull Collection<@NotNull Relocation> relocations,
+            @NotNull ForkJoinPool pool
+    ) {
+        this.input = input;
+        this.stream = null;
+        this.output = output;
+        this.relocations = relocations;
+        this.pool = pool;
+    }
+
+    // Relocates a jar as it arrives, the stream is read to the end of its last entry but never closed
+    public ParallelJarRelocator(@NotNull InputStream input, @NotNull File output, @NotNull Collection<@NotNull Relocation> relocations) {
+        this(input, output, relocations, ForkJoinPool.commonPool());
+    }
+
+    public ParallelJarRelocator(
+            @NotNull InputStream input,
+            @NotNull File output,
+            @NotNull Collection<@NotNull Relocation> relocations,
+            @NotNull ForkJoinPool pool
+    ) {
+        this.input = null;
+        this.stream = input;
+        this.output = output;
+        this.relocations = relocations;
+        this.pool = pool;
+    }
+
+    public void run() throws IOException {
+        if (!RelocationUtils.canRemap()) {
+            if (input == null) {
+                throw new IOException("Streaming relocation is not available in this version of jar-relocator.");
+            }
+            new JarRelocator(input, output, relocations).run();
+            return;
+        }
+        Remapper remapper = RelocationUtils.newRemapper(relocations);
+
+        if (stream != null) {
+            // Entries have to be inflated in order here, only the remapping and deflating can fan out
+            try (ZipInputStream jarIn = new ZipInputStream(new FilterInputStream(stream) {
+                @Override
+                public void close() { }
+            })) {
+                run(() -> {
+                    ZipEntry entry;
+                    while ((entry = jarIn.getNextEntry()) != null) {
+                        if (!isSkipped(entry)) {
+                            String name = entry.getName();
+                            long time = entry.getTime();
+                            byte[] data = readFully(jarIn, entry.getSize());
+                            return () -> process(remapper, name, time, data);
+                        }
+                    }
+                    return null;
+                });
+            }
+            return;
+        }
+
+        try (ZipFile jarIn = new ZipFile(input)) {
+            List<@NotNull ZipEntry> entries = new ArrayList<>();
+            Enumeration<? extends ZipEntry> enumeration = jarIn.entries();
+            while (enumeration.hasMoreElements()) {
+                ZipEntry entry = enumeration.nextElement();
+                if (!isSkipped(entry)) {
+                    entries.add(entry);
+                }
+            }
+
+            if (entries.size() > MAX_ENTRIES || input.length() > MAX_SIZE) {
+                new JarRelocator(input, output, relocations).run();
+                return;
+            }
+
+            Iterator<@NotNull ZipEntry> iterator = entries.iterator();
+            run(() -> {
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+                ZipEntry entry = iterator.next();
+                return () -> {
+                    try (InputStream in = jarIn.getInputStream(entry)) {
+                        return process(remapper, entry.getName(), entry.getTime(), readFully(in, entry.getSize()));
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                };
+            });
+        }
+    }
+
+    private void run(@NotNull EntrySource source) throws IOException {
+        // Only keep a bounded window of processed entries in memory, the writer consumes them in order
+        int window = Math.max(1, pool.getParallelism() * 4);
+        Deque<@NotNull ForkJoinTask<@NotNull ProcessedEntry>> tasks = new ArrayDeque<>(window);
+        try (ZipWriter out = new ZipWriter(new BufferedOutputStream(new FileOutputStream(output), 65536))) {
+            Set<@NotNull String> resources = new HashSet<>();
+            boolean more = true;
+            while (true) {
+                while (more && tasks.size() < window) {
+                    Callable<@NotNull ProcessedEntry> next = source.next();
+                    if (next == null) {
+                        more = false;
+                    } else {
+                        tasks.add(pool.submit(next));
+                    }
+                }
+
+                ForkJoinTask<@NotNull ProcessedEntry> task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                ProcessedEntry entry;
+                try {
+                    entry = task.join();
+                } catch (UncheckedIOException ex) {
+                    throw ex.getCause();
+                }
+
+                writeDirectories(out, resources, entry.directoryName, true);
+                if (entry.isClass) {
+                    out.write(entry);
+                } else if (!resources.contains(entry.name)) {
+                    out.write(entry);
+                    resources.add(entry.name);
+                }
+            }
+        } finally {
+            for (ForkJoinTask<@NotNull ProcessedEntry> task : tasks) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private static boolean isSkipped(@NotNull ZipEntry entry) { return entry.isDirectory() || entry.getName().equals("META-INF/INDEX.LIST"); }
+
+    // Mirrors JarRelocatorTask: every parent directory of an entry gets written once, ahead of it
+    private static void writeDirectories(@NotNull ZipWriter out, @NotNull Set<@NotNull String> resources, @NotNull String name, boolean parentsOnly) throws IOException {
+        int index = name.lastIndexOf('/');
+        if (index != -1) {
+            String parent = name.substring(0, index);
+            if (!resources.contains(parent)) {
+                writeDirectories(out, resources, parent, false);
+            }
+        }
+        if (parentsOnly) {
+            return;
+        }
+        out.writeDirectory(name + "/");
+        resources.add(name);
+    }
+
+    @NotNull
+    private static ProcessedEntry process(@NotNull Remapper remapper, @NotNull String name, long time, byte @NotNull [] data) {
+        String directoryName = remapper.map(name);
+        if (name.endsWith(".class")) {
+            ClassReader reader = new ClassReader(data);
+            ClassWriter writer = new ClassWriter(0);
+            try {
+                reader.accept(RelocationUtils.newClassVisitor(writer, remapper, name), ClassReader.EXPAND_FRAMES);
+            } catch (Throwable ex) {
+                throw new RuntimeException("Error processing class " + name, ex);
+            }
+            return new ProcessedEntry(remapper.map(name.substring(0, name.indexOf('.'))) + ".class", directoryName, true, time, writer.toByteArray());
+        }
+        return new ProcessedEntry(directoryName, directoryName, false, time, data);
+    }
+
+    private static byte @NotNull [] readFully(@NotNull InputStream in, long sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint > 0L && sizeHint < Integer.MAX_VALUE ? (int) sizeHint : 8192);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private interface EntrySource {
+        // null once there are no entries left
+        @Nullable
+        Callable<@NotNull ProcessedEntry> next() throws IOException;
+    }
+
+    private static class ProcessedEntry {
+        private final @NotNull String name;
+        private final @NotNull String directoryName;
+        private final boolean isClass;
+        private final long time;
+
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final byte @NotNull [] data;
+
+        private ProcessedEntry(@NotNull String name, @NotNull String directoryName, boolean isClass, long time, byte @NotNull [] uncompressed) {
+            this.name = name;
+            this.directoryName = directoryName;
+            this.isClass = isClass;
+            this.time = time;
+
+            // Deflating here is the whole point, a single JarOutputStream would compress everything on one thread
+            CRC32 crc32 = new CRC32();
+            crc32.update(uncompressed, 0, uncompressed.length);
+            this.crc = crc32.getValue();
+            this.size = uncompressed.length;
+
+            byte[] compressed = deflate(uncompressed);
+            if (compressed.length < uncompressed.length) {
+                this.method = ZipEntry.DEFLATED;
+                this.data = compressed;
+            } else {
+                this.method = ZipEntry.STORED;
+                this.data = uncompressed;
+            }
+        }
+
+        private static byte @NotNull [] deflate(byte @NotNull [] data) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int written = deflater.deflate(buffer);
+                    out.write(buffer, 0, written);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    // Just enough of the zip format to write entries that are already compressed
+    private static class ZipWriter implements Closeable {
+        private static final int UTF8_FLAG = 0x0800;
+
+        private final @NotNull OutputStream out;
+        private final @NotNull ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        private long offset = 0L;
+        private int count = 0;
+
+        private ZipWriter(@NotNull OutputStream out) {
+            this.out = out;
+        }
+
+        private void write(@NotNull ProcessedEntry entry) throws IOException {
+            writeEntry(entry.name, entry.method, toDosTime(entry.time), entry.crc, entry.data.length, entry.size, entry.data, 0);
+        }
+
+        private void writeDirectory(@NotNull String name) throws IOException {
+            writeEntry(name, ZipEntry.STORED, toDosTime(-1L), 0L, 0L, 0L, new byte[0], 0x10);
+        }
+
+        private void writeEntry(
+                @NotNull String name,
+                int method,
+                long dosTime,
+                long crc,
+                long compressedSize,
+                long size,
+                byte @NotNull [] data,
+                int externalAttributes
+        ) throws IOException {
+            if (count >= 0xFFFF || offset + data.length >= 0xFFFFFFFFL) {
+                throw new IOException("Relocated jar would need Zip64, which is not supported when relocating a stream.");
+            }
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            int version = method == ZipEntry.DEFLATED ? 20 : 10;
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream(30 + nameBytes.length);
+            writeInt(header, 0x04034b50L);
+            writeShort(header, version);
+            writeShort(header, UTF8_FLAG);
+            writeShort(header, method);
+            writeInt(header, dosTime);
+            writeInt(header, crc);
+            writeInt(header, compressedSize);
+            writeInt(header, size);
+            writeShort(header, nameBytes.length);
+            writeShort(header, 0);
+            header.write(nameBytes);
+            header.writeTo(out);
+            out.write(data);
+
+            writeInt(centralDirectory, 0x02014b50L);
+            writeShort(centralDirectory, 20);
+            writeShort(centralDirectory, version);
+            writeShort(centralDirectory, UTF8_FLAG);
+            writeShort(centralDirectory, method);
+            writeInt(centralDirectory, dosTime);
+            writeInt(centralDirectory, crc);
+            writeInt(centralDirectory, compressedSize);
+            writeInt(centralDirectory, size);
+            writeShort(centralDirectory, nameBytes.length);
+            writeShort(centralDirectory, 0);
+            writeShort(centralDirectory, 0);
+            writeShort(centralDirectory, 0);
+            writeShort(centralDirectory, 0);
+            writeInt(centralDirectory, externalAttributes);
+            writeInt(centralDirectory, offset);
+            centralDirectory.write(nameBytes);
+
+            offset += header.size() + data.length;
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                centralDirectory.writeTo(out);
+
+                ByteArrayOutputStream end = new ByteArrayOutputStream(22);
+                writeInt(end, 0x06054b50L);
+                writeShort(end, 0);
+                writeShort(end, 0);
+                writeShort(end, count);
+                writeShort(end, count);
+                writeInt(end, centralDirectory.size());
+                writeInt(end, offset);
+                writeShort(end, 0);
+                end.writeTo(out);
+            } finally {
+                out.close();
+            }
+        }
+
+        private static long toDosTime(long time) {
+            LocalDateTime date = time == -1L
+                                 ? LocalDateTime.of(1980, 1, 1, 0, 0)
+                                 : LocalDateTime.ofInstant(new Date(time).toInstant(), ZoneId.systemDefault());
+            if (date.getYear() < 1980) {
+                return (1L << 21) | (1L << 16);
+            }
+            return ((long) (date.getYear() - 1980) << 25)
+                    | ((long) date.getMonthValue() << 21)
+                    | ((long) date.getDayOfMonth() << 16)
+                    | ((long) date.getHour() << 11)
+                    | ((long) date.getMinute() << 5)
+                    | ((long) date.getSecond() >> 1);
+        }
+
+        private static void writeShort(@NotNull OutputStream out, int value) throws IOException {
+            out.write(value & 0xFF);
+            out.write((value >>> 8) & 0xFF);
+        }
+
+        private static void writeInt(@NotNull OutputStream out, long value) throws IOException {
+            out.write((int) (value & 0xFF));
+            out.write((int) ((value >>> 8) & 0xFF));
+            out.write((int) ((value >>> 16) & 0xFF));
+            out.write((int) ((value >>> 24) & 0xFF));
+        }
+    }
+}
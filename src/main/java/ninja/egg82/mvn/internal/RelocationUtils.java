@@ -0,0 +1,158 @@
+package ninja.egg82.mvn.internal;
+
+import me.lucko.jarrelocator.Relocation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.Remapper;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+
+public class RelocationUtils {
+    // Keys for relocations built by RelocationBuilder, which knows their rules without having to look inside them
+    private static final @NotNull Map<@NotNull Relocation, @NotNull String> KEYS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    // Only for relocations made some other way, null if jar-relocator no longer has these fields
+    private static final @Nullable Field PATTERN_FIELD;
+    private static final @Nullable Field RELOCATED_PATTERN_FIELD;
+    private static final @Nullable Field INCLUDES_FIELD;
+    private static final @Nullable Field EXCLUDES_FIELD;
+
+    // jar-relocator keeps these package-private, but they're exactly the remapping rules JarRelocator applies
+    // Null if that's no longer true, in which case everything goes through JarRelocator itself
+    private static final @Nullable Constructor<?> REMAPPER_CONSTRUCTOR;
+    private static final @Nullable Constructor<?> CLASS_VISITOR_CONSTRUCTOR;
+
+    static {
+        Field pattern = null;
+        Field relocatedPattern = null;
+        Field includes = null;
+        Field excludes = null;
+        try {
+            pattern = Relocation.class.getDeclaredField("pattern");
+            pattern.setAccessible(true);
+            relocatedPattern = Relocation.class.getDeclaredField("relocatedPattern");
+            relocatedPattern.setAccessible(true);
+            includes = Relocation.class.getDeclaredField("includes");
+            includes.setAccessible(true);
+            excludes = Relocation.class.getDeclaredField("excludes");
+            excludes.setAccessible(true);
+        } catch (NoSuchFieldException | RuntimeException ex) {
+            pattern = null;
+        }
+        PATTERN_FIELD = pattern;
+        RELOCATED_PATTERN_FIELD = relocatedPattern;
+        INCLUDES_FIELD = includes;
+        EXCLUDES_FIELD = excludes;
+
+        Constructor<?> remapper = null;
+        Constructor<?> classVisitor = null;
+        try {
+            Class<?> remapperClass = Class.forName("me.lucko.jarrelocator.RelocatingRemapper");
+            remapper = remapperClass.getDeclaredConstructor(Collection.class);
+            remapper.setAccessible(true);
+            classVisitor = Class.forName("me.lucko.jarrelocator.RelocatingClassVisitor")
+                    .getDeclaredConstructor(ClassWriter.class, remapperClass, String.class);
+            classVisitor.setAccessible(true);
+        } catch (ClassNotFoundException | NoSuchMethodException | RuntimeException ex) {
+            remapper = null;
+            classVisitor = null;
+        }
+        REMAPPER_CONSTRUCTOR = remapper;
+        CLASS_VISITOR_CONSTRUCTOR = classVisitor;
+    }
+
+    private RelocationUtils() { }
+
+    @NotNull
+    public static Relocation register(@NotNull Relocation relocation, @NotNull String pattern, @NotNull String relocatedPattern) {
+        KEYS.put(relocation, toKey(pattern, relocatedPattern, Collections.emptyList(), Collections.emptyList()));
+        return relocation;
+    }
+
+    @NotNull
+    public static String toKey(@NotNull Relocation relocation) {
+        String retVal = KEYS.get(relocation);
+        if (retVal != null) {
+            return retVal;
+        }
+        if (PATTERN_FIELD != null && RELOCATED_PATTERN_FIELD != null && INCLUDES_FIELD != null && EXCLUDES_FIELD != null) {
+            try {
+                return toKey(
+                        String.valueOf(PATTERN_FIELD.get(relocation)),
+                        String.valueOf(RELOCATED_PATTERN_FIELD.get(relocation)),
+                        (Collection<?>) INCLUDES_FIELD.get(relocation),
+                        (Collection<?>) EXCLUDES_FIELD.get(relocation)
+                );
+            } catch (IllegalAccessException | RuntimeException ignored) {
+            }
+        }
+        // Nothing to tell this relocation's rules apart by, so nothing keyed on it outlives the instance
+        return "unknown@" + Integer.toHexString(System.identityHashCode(relocation));
+    }
+
+    @NotNull
+    private static String toKey(@NotNull String pattern, @NotNull String relocatedPattern, @Nullable Collection<?> includes, @Nullable Collection<?> excludes) {
+        return pattern + "->" + relocatedPattern + "+" + sorted(includes) + "-" + sorted(excludes);
+    }
+
+    // False if jar-relocator's internals changed, ParallelJarRelocator then hands everything to JarRelocator
+    public static boolean canRemap() { return REMAPPER_CONSTRUCTOR != null && CLASS_VISITOR_CONSTRUCTOR != null; }
+
+    // Stateless, so one instance can be shared by every thread relocating a jar
+    @NotNull
+    public static Remapper newRemapper(@NotNull Collection<@NotNull Relocation> relocations) {
+        if (REMAPPER_CONSTRUCTOR == null) {
+            throw new IllegalStateException("Relocating remapper is not available in this version of jar-relocator.");
+        }
+        try {
+            return (Remapper) REMAPPER_CONSTRUCTOR.newInstance(relocations);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+            throw new IllegalStateException("Could not create relocating remapper.", ex);
+        }
+    }
+
+    @NotNull
+    public static ClassVisitor newClassVisitor(@NotNull ClassWriter writer, @NotNull Remapper remapper, @NotNull String entryName) {
+        if (CLASS_VISITOR_CONSTRUCTOR == null) {
+            throw new IllegalStateException("Relocating class visitor is not available in this version of jar-relocator.");
+        }
+        try {
+            return (ClassVisitor) CLASS_VISITOR_CONSTRUCTOR.newInstance(writer, remapper, entryName);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+            throw new IllegalStateException("Could not create relocating class visitor.", ex);
+        }
+    }
+
+    // Rules are applied in order, so the order is part of the key
+    @NotNull
+    public static String getKey(@NotNull Collection<@NotNull Relocation> relocations) {
+        StringBuilder builder = new StringBuilder();
+        for (Relocation relocation : relocations) {
+            builder.append(toKey(relocation)).append('\n');
+        }
+        return LockFileUtils.hash(builder.toString());
+    }
+
+    // Short enough for a file name, still far too long to collide between a jar's rule sets
+    @NotNull
+    public static String getOutputKey(@NotNull String sourceHash, @NotNull Collection<@NotNull Relocation> relocations) {
+        return LockFileUtils.hash(sourceHash + "\n" + getKey(relocations)).substring(0, 16);
+    }
+
+    @NotNull
+    private static List<@NotNull String> sorted(@Nullable Collection<?> collection) {
+        List<@NotNull String> retVal = new ArrayList<>();
+        if (collection != null) {
+            for (Object o : collection) {
+                retVal.add(String.valueOf(o));
+            }
+        }
+        Collections.sort(retVal);
+        return retVal;
+    }
+}
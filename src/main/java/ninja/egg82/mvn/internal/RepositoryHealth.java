@@ -0,0 +1,275 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+public class RepositoryHealth {
+    private static final @NotNull ConcurrentMap<@NotNull String, @NotNull RepositoryHealth> healths = new ConcurrentHashMap<>();
+
+    private static final int MIN_SAMPLES = 3;
+
+    private final @NotNull File healthFile;
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull HostHealth> hosts = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    private RepositoryHealth(@NotNull File cacheDir) {
+        this.healthFile = new File(new File(cacheDir.getAbsoluteFile(), ".mvnloader"), "health.properties");
+    }
+
+    @NotNull
+    public static RepositoryHealth get(@NotNull File cacheDir) {
+        return healths.computeIfAbsent(cacheDir.getAbsolutePath(), k -> new RepositoryHealth(cacheDir));
+    }
+
+    @NotNull
+    public static String getHost(@NotNull String url) {
+        try {
+            URL u = new URL(url);
+            return u.getProtocol() + "://" + u.getHost() + ":" + (u.getPort() != -1 ? u.getPort() : u.getDefaultPort());
+        } catch (MalformedURLException ignored) {
+            return url;
+        }
+    }
+
+    @NotNull
+    public HostHealth getHealth(@NotNull String url) { return getHealthForHost(getHost(url)); }
+
+    @Nullable
+    public HostHealth peekHealth(@NotNull String url) { return hosts.get(getHost(url)); }
+
+    // Cheapest expected host first, with declared order breaking ties
+    // Costs are bucketed by powers of two so small jitter never shuffles the order
+    @NotNull
+    public <T> List<@NotNull T> order(@NotNull List<@NotNull T> candidates, @NotNull Function<@NotNull T, @NotNull String> toUrl) {
+        if (candidates.size() <= 1) {
+            return candidates;
+        }
+
+        int[] buckets = new int[candidates.size()];
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            HostHealth health = peekHealth(toUrl.apply(candidates.get(i)));
+            long cost = health != null ? health.getExpectedCost() : -1L;
+            buckets[i] = cost >= 0L ? 64 - Long.numberOfLeadingZeros(cost) : -1;
+            if (buckets[i] >= 0) {
+                best = Math.min(best, buckets[i]);
+            }
+        }
+        // Hosts we know nothing about are assumed to be as good as the best one, so they still get tried
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] < 0) {
+                buckets[i] = best != Integer.MAX_VALUE ? best : 0;
+            }
+        }
+
+        Integer[] indices = new Integer[candidates.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, Comparator.<Integer>comparingInt(i -> buckets[i]).thenComparingInt(i -> i));
+
+        List<@NotNull T> retVal = new ArrayList<>(candidates.size());
+        for (int index : indices) {
+            retVal.add(candidates.get(index));
+        }
+        return retVal;
+    }
+
+    public void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            for (Map.Entry<@NotNull String, @NotNull String> entry : read(healthFile).entrySet()) {
+                getHealthForHost(entry.getKey()).merge(entry.getValue());
+            }
+            loaded = true;
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        File parent = healthFile.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+
+        // Locked so numbers another process saved between our read and our rename aren't thrown away
+        CacheLock lock = CacheLock.acquire(healthFile);
+        try {
+            Properties properties = new Properties();
+            for (Map.Entry<@NotNull String, @NotNull String> entry : read(healthFile).entrySet()) {
+                properties.setProperty(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<@NotNull String, @NotNull HostHealth> entry : hosts.entrySet()) {
+                properties.setProperty(entry.getKey(), entry.getValue().toString());
+            }
+
+            File tmpFile = HttpUtils.getTempFile(healthFile);
+            try {
+                try (Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tmpFile)), StandardCharsets.UTF_8)) {
+                    properties.store(out, null);
+                }
+                HttpUtils.moveAtomically(tmpFile, healthFile);
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    @NotNull
+    private HostHealth getHealthForHost(@NotNull String host) { return hosts.computeIfAbsent(host, k -> new HostHealth()); }
+
+    @NotNull
+    private static Map<@NotNull String, @NotNull String> read(@NotNull File healthFile) {
+        Map<@NotNull String, @NotNull String> retVal = new HashMap<>();
+        if (!healthFile.isFile()) {
+            return retVal;
+        }
+
+        Properties properties = new Properties();
+        try (Reader in = new InputStreamReader(new BufferedInputStream(new FileInputStream(healthFile)), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (IOException ignored) {
+            // Corrupt file, we'll just measure again
+            return retVal;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            retVal.put(key, properties.getProperty(key));
+        }
+        return retVal;
+    }
+
+    public static class HostHealth {
+        private static final int WINDOW = 64;
+
+        private long successes = 0L;
+        private long failures = 0L;
+        private long throttled = 0L;
+        private long serverErrors = 0L;
+
+        private final long[] latencies = new long[WINDOW];
+        private int latencyCount = 0;
+        private int latencyIndex = 0;
+
+        private HostHealth() { }
+
+        // Any answer from the server is a success here, a 404 says nothing bad about the host
+        public synchronized void record(int status, long latencyMillis) {
+            if (status == 429) {
+                throttled++;
+            } else if (status >= 500) {
+                serverErrors++;
+            } else {
+                successes++;
+            }
+            addLatency(latencyMillis);
+        }
+
+        public synchronized void recordFailure(long latencyMillis) {
+            failures++;
+            addLatency(latencyMillis);
+        }
+
+        public synchronized long getSuccesses() { return successes; }
+
+        public synchronized long getFailures() { return failures; }
+
+        public synchronized long getThrottled() { return throttled; }
+
+        public synchronized long getServerErrors() { return serverErrors; }
+
+        public synchronized double getSuccessRate() {
+            long total = successes + failures + throttled + serverErrors;
+            return total == 0L ? 1.0D : (double) successes / total;
+        }
+
+        public long getP50() { return getPercentile(0.5D); }
+
+        public long getP99() { return getPercentile(0.99D); }
+
+        // -1 until there are enough samples
+        public synchronized long getPercentile(double percentile) {
+            if (latencyCount < MIN_SAMPLES) {
+                return -1L;
+            }
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            return sorted[Math.min(latencyCount - 1, (int) Math.ceil(percentile * latencyCount) - 1)];
+        }
+
+        // The typical request, plus the tail we pay every time the host fails on us
+        public synchronized long getExpectedCost() {
+            long p50 = getP50();
+            if (p50 < 0L) {
+                return -1L;
+            }
+            return p50 + (long) ((1.0D - getSuccessRate()) * Math.max(getP99(), 1000L));
+        }
+
+        private void addLatency(long latencyMillis) {
+            latencies[latencyIndex] = Math.max(0L, latencyMillis);
+            latencyIndex = (latencyIndex + 1) % WINDOW;
+            latencyCount = Math.min(WINDOW, latencyCount + 1);
+
+            // Let old history fade so a host that recovers isn't punished forever
+            if (successes + failures + throttled + serverErrors > 1024L) {
+                successes /= 2L;
+                failures /= 2L;
+                throttled /= 2L;
+                serverErrors /= 2L;
+            }
+        }
+
+        private synchronized void merge(@NotNull String value) {
+            String[] parts = value.split("\\|", 5);
+            if (parts.length != 5) {
+                return;
+            }
+            try {
+                successes += Long.parseLong(parts[0]);
+                failures += Long.parseLong(parts[1]);
+                throttled += Long.parseLong(parts[2]);
+                serverErrors += Long.parseLong(parts[3]);
+                if (!parts[4].isEmpty()) {
+                    for (String latency : parts[4].split(",")) {
+                        addLatency(Long.parseLong(latency));
+                    }
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        @Override
+        @NotNull
+        public synchronized String toString() {
+            StringBuilder retVal = new StringBuilder()
+                    .append(successes).append('|')
+                    .append(failures).append('|')
+                    .append(throttled).append('|')
+                    .append(serverErrors).append('|');
+            // Oldest first, so merging them back in keeps the window in order
+            for (int i = 0; i < latencyCount; i++) {
+                if (i > 0) {
+                    retVal.append(',');
+                }
+                retVal.append(latencies[(latencyIndex - latencyCount + i + WINDOW) % WINDOW]);
+            }
+            return retVal.toString();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class RepositoryProber {
+    private static final int PENDING = 1;
+    private static final int FOUND = 2;
+    private static final int MISSING = 3;
+
+    private static final @NotNull AtomicInteger threadCount = new AtomicInteger(0);
+    // Shared by every resolution in the JVM, so bounded - losing probes are hung up on, which keeps the threads moving
+    private static final @NotNull ThreadPoolExecutor pool = new ThreadPoolExecutor(16, 16, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread retVal = new Thread(r, "MVNLoader-Probe-" + threadCount.incrementAndGet());
+        retVal.setDaemon(true);
+        return retVal;
+    });
+
+    static {
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    private RepositoryProber() { }
+
+    // Moves the preferred candidate that actually has the file to the front, the rest keep their order as fallbacks
+    @NotNull
+    public static <T> List<@NotNull T> order(
+            @NotNull ResolutionContext context,
+            @NotNull List<@NotNull T> candidates,
+            @NotNull Function<@NotNull T, @NotNull String> toUrl
+    ) throws IOException {
+        if (candidates.size() <= 1) {
+            return candidates;
+        }
+
+        // Don't spend a probe on anything we already know is missing, just keep it as a last resort
+        List<@NotNull T> live = new ArrayList<>(candidates.size());
+        List<@NotNull T> missing = new ArrayList<>();
+        List<@NotNull String> urls = new ArrayList<>(candidates.size());
+        for (T candidate : candidates) {
+            String url = toUrl.apply(candidate);
+            if (context.getNegativeCache().isMissing(url, context.getNegativeCachePolicy())) {
+                missing.add(candidate);
+            } else {
+                live.add(candidate);
+                urls.add(url);
+            }
+        }
+
+        int winner = -1;
+        if (live.size() > 1) {
+            // Each hedge waits on the host it's hedging against, a slow mirror shouldn't set the pace for a fast one
+            long[] hedgeDelays = new long[urls.size()];
+            for (int i = 0; i < hedgeDelays.length; i++) {
+                hedgeDelays[i] = context.getHedgeDelay(urls.get(i));
+            }
+            try {
+                winner = probe(context.getTransport(), urls, hedgeDelays);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<@NotNull T> retVal = new ArrayList<>(candidates.size());
+        if (winner > 0) {
+            retVal.add(live.remove(winner));
+        }
+        retVal.addAll(live);
+        retVal.addAll(missing);
+        return retVal;
+    }
+
+    public static int probe(@NotNull Transport transport, @NotNull List<@NotNull String> urls, long hedgeDelay) throws IOException, InterruptedException {
+        long[] hedgeDelays = new long[urls.size()];
+        Arrays.fill(hedgeDelays, hedgeDelay);
+        return probe(transport, urls, hedgeDelays);
+    }
+
+    // Returns the index of the first URL (in preference order) that exists, or -1 if none do
+    // Probes start in order, with the next one hedged in after the last one's hedgeDelays entry or as soon as it misses
+    public static int probe(@NotNull Transport transport, @NotNull List<@NotNull String> urls, long @NotNull [] hedgeDelays) throws IOException, InterruptedException {
+        int[] states = new int[urls.size()];
+        Abort[] aborts = new Abort[urls.size()];
+        List<@NotNull Future<int @NotNull []>> futures = new ArrayList<>();
+        CompletionService<int @NotNull []> completion = new ExecutorCompletionService<>(pool);
+
+        int next = 0;
+        try {
+            aborts[next] = new Abort();
+            futures.add(completion.submit(probe(transport, urls.get(next), next, aborts[next])));
+            states[next++] = PENDING;
+
+            while (true) {
+                int winner = decide(states);
+                if (winner != -2) {
+                    return winner;
+                }
+
+                // Once anything has been found there's no point starting probes behind it
+                boolean canHedge = next < states.length && !hasFound(states);
+                Future<int @NotNull []> future = canHedge ? completion.poll(Math.max(0L, hedgeDelays[next - 1]), TimeUnit.MILLISECONDS) : completion.take();
+                if (future == null) {
+                    aborts[next] = new Abort();
+                    futures.add(completion.submit(probe(transport, urls.get(next), next, aborts[next])));
+                    states[next++] = PENDING;
+                    continue;
+                }
+
+                int[] result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException ex) {
+                    throw new IOException("Probe failed unexpectedly.", ex.getCause());
+                }
+                states[result[0]] = result[1];
+                if (result[1] == MISSING && next < states.length && !hasFound(states)) {
+                    aborts[next] = new Abort();
+                    futures.add(completion.submit(probe(transport, urls.get(next), next, aborts[next])));
+                    states[next++] = PENDING;
+                }
+            }
+        } finally {
+            // Interrupting a thread blocked on a socket does nothing, so the losers' connections are dropped outright
+            for (int i = 0; i < next; i++) {
+                if (states[i] == PENDING) {
+                    aborts[i].abort();
+                }
+            }
+            for (Future<int @NotNull []> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @NotNull
+    private static Callable<int @NotNull []> probe(@NotNull Transport transport, @NotNull String url, int index, @NotNull Abort abort) {
+        return () -> {
+            try (Transport.Response response = transport.head(url, HttpUtils.getDefaultHeaders(), abort)) {
+                return new int[] { index, response.getStatus() >= 200 && response.getStatus() < 300 ? FOUND : MISSING };
+            } catch (IOException ignored) {
+                return new int[] { index, MISSING };
+            }
+        };
+    }
+
+    // -2 while a more preferred probe is still outstanding
+    private static int decide(int @NotNull [] states) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FOUND) {
+                return i;
+            }
+            if (states[i] != MISSING) {
+                return -2;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasFound(int @NotNull [] states) {
+        for (int state : states) {
+            if (state == FOUND) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,247 @@
+package ninja.egg82.mvn.internal;
+
+import ninja.egg82.mvn.InjectionListener;
+import ninja.egg82.mvn.InjectionProgress;
+import ninja.egg82.mvn.UpdatePolicy;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.building.ModelCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+public class ResolutionContext {
+    private final @NotNull File cacheDir;
+    private final @NotNull UpdatePolicy updatePolicy;
+    private final boolean offline;
+    private final @NotNull Transport transport;
+    private final @NotNull CacheManifest manifest;
+    private final @NotNull NegativeCache negativeCache;
+    private final @NotNull RepositoryHealth health;
+    private volatile long hedgeDelay = -1L;
+    private volatile double hedgePercentile = -1.0D;
+    private volatile boolean adaptiveOrdering = false;
+    private volatile @NotNull UpdatePolicy negativeCachePolicy = UpdatePolicy.DAILY;
+    private volatile @NotNull InjectionProgress progress = new InjectionProgress();
+    private volatile @NotNull InjectionListener listener = new CompositeListener(Collections.emptyList());
+    // Bytes read so far for each download in flight, so the finished event can report them
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull AtomicLong> downloads = new ConcurrentHashMap<>();
+
+    private final @NotNull Set<@NotNull String> missing = Collections.synchronizedSet(new TreeSet<>());
+
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull Metadata> metadata = new ConcurrentHashMap<>();
+    private final @NotNull ModelCache modelCache = new MemoryModelCache();
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull Model> effectiveModels = new ConcurrentHashMap<>();
+
+    public ResolutionContext(@NotNull File cacheDir) {
+        this(cacheDir, UpdatePolicy.DAILY);
+    }
+
+    public ResolutionContext(@NotNull File cacheDir, @NotNull UpdatePolicy updatePolicy) {
+        this(cacheDir, updatePolicy, false);
+    }
+
+    public ResolutionContext(@NotNull File cacheDir, @NotNull UpdatePolicy updatePolicy, boolean offline) {
+        this(cacheDir, updatePolicy, offline, HttpUtils.getDefaultTransport());
+    }
+
+    public ResolutionContext(@NotNull File cacheDir, @NotNull UpdatePolicy updatePolicy, boolean offline, @NotNull Transport transport) {
+        this.cacheDir = cacheDir;
+        this.updatePolicy = updatePolicy;
+        this.offline = offline;
+        this.manifest = CacheManifest.get(cacheDir);
+        this.negativeCache = NegativeCache.get(cacheDir);
+        this.health = RepositoryHealth.get(cacheDir);
+        // Every request feeds the per-host health numbers, whether or not they're used for ordering
+        // Custom transports get file: repositories too, so they only ever need to speak HTTP
+        this.transport = transport instanceof MeasuredTransport ? transport : new MeasuredTransport(FileTransport.wrap(transport), health, (url, bytes) -> {
+            progress.addBytesTransferred(bytes);
+            if (!downloads.isEmpty()) {
+                AtomicLong read = downloads.get(url);
+                if (read != null) {
+                    read.addAndGet(bytes);
+                }
+            }
+            listener.onDownloadProgress(url, bytes);
+        });
+    }
+
+    @NotNull
+    public File getCacheDir() { return cacheDir; }
+
+    @NotNull
+    public UpdatePolicy getUpdatePolicy() { return updatePolicy; }
+
+    public boolean isOffline() { return offline; }
+
+    @NotNull
+    public Transport getTransport() { return transport; }
+
+    @NotNull
+    public CacheManifest getManifest() { return manifest; }
+
+    @NotNull
+    public NegativeCache getNegativeCache() { return negativeCache; }
+
+    @NotNull
+    public UpdatePolicy getNegativeCachePolicy() { return negativeCachePolicy; }
+
+    // How long a 404 is remembered before the repository is asked again, ALWAYS disables the cache
+    @NotNull
+    public ResolutionContext setNegativeCachePolicy(@NotNull UpdatePolicy negativeCachePolicy) {
+        this.negativeCachePolicy = negativeCachePolicy;
+        return this;
+    }
+
+    @NotNull
+    public RepositoryHealth getHealth() { return health; }
+
+    @NotNull
+    public InjectionProgress getProgress() { return progress; }
+
+    @NotNull
+    public ResolutionContext setProgress(@NotNull InjectionProgress progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    @NotNull
+    public InjectionListener getListener() { return listener; }
+
+    @NotNull
+    public ResolutionContext setListener(@NotNull InjectionListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public void startDownload(@NotNull String url) { downloads.put(url, new AtomicLong(0L)); }
+
+    // Bytes read for the URL since startDownload(), only counting requests made through this context's transport
+    public long finishDownload(@NotNull String url) {
+        AtomicLong retVal = downloads.remove(url);
+        return retVal != null ? retVal.get() : 0L;
+    }
+
+    public boolean isAdaptiveOrdering() { return adaptiveOrdering; }
+
+    @NotNull
+    public ResolutionContext setAdaptiveOrdering(boolean adaptiveOrdering) {
+        this.adaptiveOrdering = adaptiveOrdering;
+        return this;
+    }
+
+    // Declared order unless adaptive ordering is on, in which case the cheapest healthy host goes first
+    @NotNull
+    public <T> List<@NotNull T> order(@NotNull List<@NotNull T> candidates, @NotNull Function<@NotNull T, @NotNull String> toUrl) {
+        return adaptiveOrdering ? health.order(candidates, toUrl) : candidates;
+    }
+
+    // The hedge delay for a probe against the given URL's host, from its measured latency when a percentile is set
+    public long getHedgeDelay(@NotNull String url) {
+        if (hedgePercentile >= 0.0D) {
+            RepositoryHealth.HostHealth hostHealth = health.peekHealth(url);
+            long retVal = hostHealth != null ? hostHealth.getPercentile(hedgePercentile) : -1L;
+            if (retVal >= 0L) {
+                return retVal;
+            }
+        }
+        return hedgeDelay;
+    }
+
+    @NotNull
+    public ResolutionContext setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+        return this;
+    }
+
+    public long getHedgeDelay() { return hedgeDelay; }
+
+    public boolean isHedging() { return hedgeDelay >= 0L && !offline; }
+
+    // Negative disables hedged lookups, zero probes every repository at once
+    @NotNull
+    public ResolutionContext setHedgeDelay(long hedgeDelayMillis) {
+        this.hedgeDelay = hedgeDelayMillis;
+        return this;
+    }
+
+    public boolean isCached(@NotNull File file) {
+        // Files from before the manifest existed can't be verified, but offline they're still better than nothing
+        return manifest.isValid(file) || (offline && file.isFile());
+    }
+
+    public void addMissing(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull String type) {
+        missing.add(groupId + ":" + artifactId + ":" + version + " (" + type + ")");
+    }
+
+    @NotNull
+    public Set<@NotNull String> getMissing() {
+        synchronized (missing) {
+            return new TreeSet<>(missing);
+        }
+    }
+
+    @NotNull
+    public IOException getMissingException(@Nullable Throwable cause) {
+        StringBuilder builder = new StringBuilder("Offline mode is enabled and the following artifacts are missing from cache:");
+        for (String m : getMissing()) {
+            builder.append(System.lineSeparator()).append("  ").append(m);
+        }
+        return cause != null ? new IOException(builder.toString(), cause) : new IOException(builder.toString());
+    }
+
+    @Nullable
+    public Metadata getMetadata(@NotNull File cacheFile) { return metadata.get(cacheFile.getAbsolutePath()); }
+
+    @NotNull
+    public Metadata putMetadata(@NotNull File cacheFile, @NotNull Metadata metadata) {
+        this.metadata.put(cacheFile.getAbsolutePath(), metadata);
+        return metadata;
+    }
+
+    @NotNull
+    public ModelCache getModelCache() { return modelCache; }
+
+    // One per model build, the same as Maven's newCopy(): repositories a POM declares mustn't leak into another POM's lookups
+    // Everything expensive (the model cache, metadata, health) lives here in the context and is still shared
+    @NotNull
+    public URLModelResolver newModelResolver(@NotNull String repositoryUrl, @NotNull Map<@NotNull String, @Nullable String> proxies) {
+        return new URLModelResolver(this, repositoryUrl, proxies);
+    }
+
+    @Nullable
+    public Model getEffectiveModel(
+            @NotNull String repositoryUrl,
+            @NotNull Map<@NotNull String, @Nullable String> proxies,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version
+    ) {
+        return effectiveModels.get(getKey(repositoryUrl, proxies) + "|" + groupId + ":" + artifactId + ":" + version);
+    }
+
+    @NotNull
+    public Model putEffectiveModel(
+            @NotNull String repositoryUrl,
+            @NotNull Map<@NotNull String, @Nullable String> proxies,
+            @NotNull String groupId,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull Model model
+    ) {
+        Model retVal = effectiveModels.putIfAbsent(getKey(repositoryUrl, proxies) + "|" + groupId + ":" + artifactId + ":" + version, model);
+        return retVal != null ? retVal : model;
+    }
+
+    @NotNull
+    private static String getKey(@NotNull String repositoryUrl, @NotNull Map<@NotNull String, @Nullable String> proxies) {
+        return repositoryUrl + "|" + new TreeMap<>(proxies);
+    }
+}
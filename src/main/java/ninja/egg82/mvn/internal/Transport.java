@@ -0,0 +1,37 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+public interface Transport {
+    @NotNull
+    Response get(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException;
+
+    @NotNull
+    Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException;
+
+    // Same as head(), but abort can drop the connection from another thread while this one is still waiting on it
+    @NotNull
+    default Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers, @NotNull Abort abort) throws IOException { return head(url, headers); }
+
+    // Connects (and handshakes) to the URL's host so later requests can re-use the connection. Blocks, never throws
+    void warm(@NotNull String url);
+
+    interface Response extends Closeable {
+        int getStatus();
+
+        @NotNull
+        String getUrl();
+
+        @Nullable
+        String getHeader(@NotNull String name);
+
+        @NotNull
+        InputStream getBody() throws IOException;
+    }
+}
@@ -0,0 +1,13 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+
+// Replaced by an HTTP/2-capable version in META-INF/versions/11 of the multi-release jar
+public class Transports {
+    private Transports() { }
+
+    @NotNull
+    public static Transport create(int connectTimeout, int readTimeout) {
+        return FileTransport.wrap(new URLConnectionTransport(connectTimeout, readTimeout));
+    }
+}
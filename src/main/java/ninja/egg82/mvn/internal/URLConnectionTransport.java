@@ -0,0 +1,121 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+public class URLConnectionTransport implements Transport {
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    public URLConnectionTransport(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    @NotNull
+    public Response get(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        return open("GET", url, headers, null);
+    }
+
+    @Override
+    @NotNull
+    public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        return open("HEAD", url, headers, null);
+    }
+
+    @Override
+    @NotNull
+    public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers, @NotNull Abort abort) throws IOException {
+        return open("HEAD", url, headers, abort);
+    }
+
+    @Override
+    public void warm(@NotNull String url) {
+        try {
+            URL u = new URL(url);
+            // Closing it hands the connected socket to the keep-alive cache for this host
+            open("HEAD", new URL(u.getProtocol(), u.getHost(), u.getPort(), "/").toString(), HttpUtils.getDefaultHeaders(), null).close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @NotNull
+    private Response open(@NotNull String method, @NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers, @Nullable Abort abort) throws IOException {
+        URLConnection c = new URL(url).openConnection();
+        if (!(c instanceof HttpURLConnection)) {
+            throw new IOException("Unsupported protocol for " + url);
+        }
+        HttpURLConnection conn = (HttpURLConnection) c;
+        conn.setRequestMethod(method);
+        conn.setInstanceFollowRedirects(true);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setDoInput(true);
+        conn.setDoOutput(false);
+        for (Map.Entry<@NotNull String, @NotNull String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (abort != null) {
+            // The only way to unblock a connect or read on this thread, at the cost of the socket
+            abort.onAbort(conn::disconnect);
+            if (abort.isAborted()) {
+                throw new IOException("Aborted request to " + url);
+            }
+        }
+        return new URLConnectionResponse(conn, conn.getResponseCode());
+    }
+
+    private static class URLConnectionResponse implements Response {
+        private final @NotNull HttpURLConnection conn;
+        private final int status;
+        private @Nullable InputStream body = null;
+
+        private URLConnectionResponse(@NotNull HttpURLConnection conn, int status) {
+            this.conn = conn;
+            this.status = status;
+        }
+
+        @Override
+        public int getStatus() { return status; }
+
+        @Override
+        @NotNull
+        public String getUrl() { return conn.getURL().toString(); }
+
+        @Override
+        @Nullable
+        public String getHeader(@NotNull String name) { return conn.getHeaderField(name); }
+
+        @Override
+        @NotNull
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = conn.getInputStream();
+            }
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Never disconnect() - closing the stream is what hands the socket back to the keep-alive cache
+            if (body != null) {
+                body.close();
+            } else if (status >= 400) {
+                InputStream error = conn.getErrorStream();
+                if (error != null) {
+                    error.close();
+                }
+            } else if (!"HEAD".equals(conn.getRequestMethod())) {
+                conn.getInputStream().close();
+            }
+        }
+    }
+}
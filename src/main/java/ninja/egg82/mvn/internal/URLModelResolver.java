@@ -3,7 +3,6 @@ package ninja.egg82.mvn.internal;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Parent;
 import org.apache.maven.model.Repository;
-import org.apache.maven.model.building.ModelSource;
 import org.apache.maven.model.resolution.InvalidRepositoryException;
 import org.apache.maven.model.resolution.ModelResolver;
 import org.apache.maven.model.resolution.UnresolvableModelException;
@@ -15,13 +14,16 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class URLModelResolver implements ModelResolver {
-    private final @NotNull ReadWriteLock repositoryLock = new ReentrantReadWriteLock();
-    private final @NotNull List<@NotNull Repository> repositories = new ArrayList<>();
+    // Copy-on-write so resolveModel() never needs the lock
+    private final @NotNull Lock repositoryLock = new ReentrantLock();
+    private final @NotNull List<@NotNull Repository> repositories = new CopyOnWriteArrayList<>();
 
+    private final @NotNull ResolutionContext context;
     private final @NotNull File cacheDir;
     private final @NotNull String repositoryUrl;
     private final @NotNull Map<@NotNull String, @Nullable String> proxies = new HashMap<>();
@@ -31,16 +33,24 @@ public class URLModelResolver implements ModelResolver {
     }
 
     public URLModelResolver(@NotNull File cacheDir, @NotNull String repositoryUrl, @Nullable Map<@NotNull String, @Nullable String> proxies) {
-        this.cacheDir = cacheDir;
+        this(new ResolutionContext(cacheDir), repositoryUrl, proxies);
+    }
+
+    public URLModelResolver(@NotNull ResolutionContext context, @NotNull String repositoryUrl, @Nullable Map<@NotNull String, @Nullable String> proxies) {
+        this.context = context;
+        this.cacheDir = context.getCacheDir();
         this.repositoryUrl = repositoryUrl;
         if (proxies != null) {
             this.proxies.putAll(proxies);
         }
     }
 
+    // ModelResolver is still declared in terms of the deprecated ModelSource, spelled out since Java 8 source warns on the import
     @Override
+    @SuppressWarnings("deprecation")
     @NotNull
-    public ModelSource resolveModel(@NotNull String groupId, @NotNull String artifactId, @NotNull String version) throws UnresolvableModelException {
+    public org.apache.maven.model.building.ModelSource resolveModel(@NotNull String groupId, @NotNull String artifactId, @NotNull String version) throws UnresolvableModelException {
+        long start = System.nanoTime();
         String proxy;
         try {
             proxy = proxies.get(HttpUtils.simplify(repositoryUrl));
@@ -50,8 +60,11 @@ public class URLModelResolver implements ModelResolver {
 
         String realVersion;
         try {
-            realVersion = HttpUtils.getRealVersion(repositoryUrl, proxy, groupId, artifactId, version, null);
+            realVersion = HttpUtils.getRealVersion(context, context.getUpdatePolicy(), repositoryUrl, proxy, groupId, artifactId, version, null);
         } catch (IOException ex) {
+            if (context.isOffline()) {
+                context.addMissing(groupId, artifactId, version, "maven-metadata.xml");
+            }
             throw new UnresolvableModelException(ex, groupId, artifactId, version);
         }
 
@@ -65,36 +78,49 @@ public class URLModelResolver implements ModelResolver {
         } catch (IOException ex) {
             throw new UnresolvableModelException(ex, groupId, artifactId, version);
         }
-        if (outFile.exists()) {
+        if (context.isCached(outFile)) {
+            context.getListener().onCacheHit(outFile);
+            context.getListener().onPomResolved(groupId, artifactId, realVersion, repositoryUrl, true, (System.nanoTime() - start) / 1_000_000L);
             return new URLModelSource(outFile.getAbsolutePath(), outFile);
         }
+        context.getListener().onCacheMiss(outFile);
+        if (context.isOffline()) {
+            context.addMissing(groupId, artifactId, realVersion, "pom");
+            throw new UnresolvableModelException("Offline mode is enabled and artifact POM is not cached", groupId, artifactId, version);
+        }
 
+        // Pairs of (URL to fetch from, URL to report as the source) in preference order
+        List<Map.@NotNull Entry<@NotNull String, @NotNull String>> candidates = new ArrayList<>();
         if (proxy != null) {
-            try {
-                if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
-                    return new URLModelSource(repositoryUrl, HttpUtils.tryDownloadPom(outFile, proxy, groupId, artifactId, version, realVersion));
-                } else {
-                    return new URLModelSource(repositoryUrl, HttpUtils.tryDownloadPom(outFile, proxy, groupId, artifactId, realVersion));
-                }
-            } catch (IOException ignored) {
-            }
+            candidates.add(new AbstractMap.SimpleImmutableEntry<>(proxy, repositoryUrl));
         }
-        try {
-            if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
-                return new URLModelSource(repositoryUrl, HttpUtils.tryDownloadPom(outFile, repositoryUrl, groupId, artifactId, version, realVersion));
-            } else {
-                return new URLModelSource(repositoryUrl, HttpUtils.tryDownloadPom(outFile, repositoryUrl, groupId, artifactId, realVersion));
+        candidates.add(new AbstractMap.SimpleImmutableEntry<>(repositoryUrl, repositoryUrl));
+        for (Repository repository : repositories) {
+            candidates.add(new AbstractMap.SimpleImmutableEntry<>(repository.getUrl(), repository.getUrl()));
+        }
+        candidates = context.order(candidates, Map.Entry::getKey);
+        if (context.isHedging() && realVersion.equals(version)) {
+            try {
+                candidates = RepositoryProber.order(
+                        context,
+                        candidates,
+                        c -> HttpUtils.getArtifactUrl(c.getKey(), groupId, artifactId, version, artifactId + "-" + version + ".pom")
+                );
+            } catch (IOException ex) {
+                throw new UnresolvableModelException("Could not probe repositories", groupId, artifactId, version, ex);
             }
-        } catch (IOException ignored) {
         }
 
-        for (Repository repository : repositories) {
+        for (Map.Entry<@NotNull String, @NotNull String> candidate : candidates) {
             try {
+                URLModelSource retVal;
                 if (version.toLowerCase(Locale.ROOT).endsWith("-snapshot")) {
-                    return new URLModelSource(repository.getUrl(), HttpUtils.tryDownloadPom(outFile, repository.getUrl(), groupId, artifactId, version, realVersion));
+                    retVal = new URLModelSource(candidate.getValue(), HttpUtils.tryDownloadPom(context, outFile, candidate.getKey(), groupId, artifactId, version, realVersion));
                 } else {
-                    return new URLModelSource(repository.getUrl(), HttpUtils.tryDownloadPom(outFile, repository.getUrl(), groupId, artifactId, realVersion));
+                    retVal = new URLModelSource(candidate.getValue(), HttpUtils.tryDownloadPom(context, outFile, candidate.getKey(), groupId, artifactId, realVersion));
                 }
+                context.getListener().onPomResolved(groupId, artifactId, realVersion, candidate.getValue(), false, (System.nanoTime() - start) / 1_000_000L);
+                return retVal;
             } catch (IOException ignored) {
             }
         }
@@ -102,8 +128,9 @@ public class URLModelResolver implements ModelResolver {
     }
 
     @Override
+    @SuppressWarnings("deprecation")
     @NotNull
-    public ModelSource resolveModel(@NotNull Parent parent) throws UnresolvableModelException {
+    public org.apache.maven.model.building.ModelSource resolveModel(@NotNull Parent parent) throws UnresolvableModelException {
         try {
             parent.setRelativePath(HttpUtils.getPomCacheFile(cacheDir, parent.getGroupId(), parent.getArtifactId(), parent.getVersion()).getPath());
         } catch (IOException ex) {
@@ -113,8 +140,9 @@ public class URLModelResolver implements ModelResolver {
     }
 
     @Override
+    @SuppressWarnings("deprecation")
     @NotNull
-    public ModelSource resolveModel(@NotNull Dependency dependency) throws UnresolvableModelException {
+    public org.apache.maven.model.building.ModelSource resolveModel(@NotNull Dependency dependency) throws UnresolvableModelException {
         return resolveModel(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
     }
 
@@ -136,7 +164,7 @@ public class URLModelResolver implements ModelResolver {
         }
 
         if (!replace) {
-            repositoryLock.writeLock().lock();
+            repositoryLock.lock();
             try {
                 for (Repository r : repositories) {
                     if (Objects.equals(repository.getId(), r.getId())) {
@@ -148,12 +176,12 @@ public class URLModelResolver implements ModelResolver {
                 }
                 repositories.add(repository);
             } finally {
-                repositoryLock.writeLock().unlock();
+                repositoryLock.unlock();
             }
             return;
         }
 
-        repositoryLock.writeLock().lock();
+        repositoryLock.lock();
         try {
             int index = -1;
             for (int i = 0; i < repositories.size(); i++) {
@@ -174,26 +202,22 @@ public class URLModelResolver implements ModelResolver {
                 }
             }
         } finally {
-            repositoryLock.writeLock().unlock();
+            repositoryLock.unlock();
         }
     }
 
     @Override
     @NotNull
     public ModelResolver newCopy() {
-        URLModelResolver retVal = new URLModelResolver(cacheDir, repositoryUrl, proxies);
-        repositoryLock.readLock().lock();
-        try {
-            for (Repository repository : repositories) {
-                retVal.repositories.add(repository.clone());
-            }
-        } finally {
-            repositoryLock.readLock().unlock();
+        URLModelResolver retVal = new URLModelResolver(context, repositoryUrl, proxies);
+        for (Repository repository : repositories) {
+            retVal.repositories.add(repository.clone());
         }
         return retVal;
     }
 
-    private static class URLModelSource implements ModelSource {
+    @SuppressWarnings("deprecation")
+    private static class URLModelSource implements org.apache.maven.model.building.ModelSource {
         private @NotNull String url;
         private @NotNull File file;
 
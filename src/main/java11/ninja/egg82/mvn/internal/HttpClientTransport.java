@@ -0,0 +1,218 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class HttpClientTransport implements Transport {
+    // Closes bodies that stall mid-read, since the request timeout stops counting once the headers are in
+    private static final @NotNull ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread retVal = new Thread(r, "MVNLoader-read-timeout");
+        retVal.setDaemon(true);
+        return retVal;
+    });
+
+    static {
+        watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    private final @NotNull HttpClient client;
+    private final @NotNull Duration readTimeout;
+
+    public HttpClientTransport(int connectTimeout, int readTimeout) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .build();
+        this.readTimeout = Duration.ofMillis(readTimeout);
+    }
+
+    @Override
+    @NotNull
+    public Response get(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        return send(request(url, headers).GET().build());
+    }
+
+    @Override
+    @NotNull
+    public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        return send(request(url, headers).method("HEAD", HttpRequest.BodyPublishers.noBody()).build());
+    }
+
+    @Override
+    @NotNull
+    public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers, @NotNull Abort abort) throws IOException {
+        HttpRequest request = request(url, headers).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        CompletableFuture<HttpResponse<InputStream>> future;
+        try {
+            future = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Could not request " + request.uri(), ex);
+        }
+        // Cancelling the async exchange is what releases its stream (or, for HTTP/1.1, its connection)
+        abort.onAbort(() -> future.cancel(true));
+        try {
+            return new HttpClientResponse(future.get(), readTimeout.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while requesting " + request.uri(), ex);
+        } catch (CancellationException | ExecutionException ex) {
+            if (abort.isAborted()) {
+                throw new IOException("Aborted request to " + request.uri(), ex);
+            }
+            throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException("Could not request " + request.uri(), ex.getCause());
+        }
+    }
+
+    @Override
+    public void warm(@NotNull String url) {
+        try {
+            URI uri = new URI(url);
+            // The client keeps the (multiplexed, for HTTP/2) connection open for this host after the response is closed
+            head(new URI(uri.getScheme(), null, uri.getHost(), uri.getPort(), "/", null, null).toString(), HttpUtils.getDefaultHeaders()).close();
+        } catch (IOException | URISyntaxException ignored) {
+        }
+    }
+
+    @NotNull
+    private HttpRequest.Builder request(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+        HttpRequest.Builder retVal;
+        try {
+            retVal = HttpRequest.newBuilder(new URI(url)).timeout(readTimeout);
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            throw new IOException("Invalid URL " + url, ex);
+        }
+        for (Map.Entry<@NotNull String, @NotNull String> header : headers.entrySet()) {
+            retVal.setHeader(header.getKey(), header.getValue());
+        }
+        return retVal;
+    }
+
+    @NotNull
+    private Response send(@NotNull HttpRequest request) throws IOException {
+        try {
+            return new HttpClientResponse(client.send(request, HttpResponse.BodyHandlers.ofInputStream()), readTimeout.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while requesting " + request.uri(), ex);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Could not request " + request.uri(), ex);
+        }
+    }
+
+    private static class HttpClientResponse implements Response {
+        private final @NotNull HttpResponse<InputStream> response;
+        private final @NotNull InputStream body;
+
+        private HttpClientResponse(@NotNull HttpResponse<InputStream> response, long readTimeout) {
+            this.response = response;
+            this.body = readTimeout > 0L ? new DeadlineInputStream(response.body(), readTimeout) : response.body();
+        }
+
+        @Override
+        public int getStatus() { return response.statusCode(); }
+
+        @Override
+        @NotNull
+        public String getUrl() { return response.uri().toString(); }
+
+        @Override
+        @Nullable
+        public String getHeader(@NotNull String name) { return response.headers().firstValue(name).orElse(null); }
+
+        @Override
+        @NotNull
+        public InputStream getBody() { return body; }
+
+        @Override
+        public void close() throws IOException { body.close(); }
+    }
+
+    // Every read gets readTimeout to return something, the same as a socket's SO_TIMEOUT
+    private static class DeadlineInputStream extends FilterInputStream {
+        private final long timeout;
+        private volatile boolean timedOut = false;
+
+        private DeadlineInputStream(@NotNull InputStream in, long timeout) {
+            super(in);
+            this.timeout = timeout;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ScheduledFuture<?> deadline = schedule();
+            int retVal;
+            try {
+                retVal = in.read();
+            } catch (IOException ex) {
+                throw timedOut ? timeout(ex) : ex;
+            } finally {
+                deadline.cancel(false);
+            }
+            return check(retVal);
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            ScheduledFuture<?> deadline = schedule();
+            int retVal;
+            try {
+                retVal = in.read(b, off, len);
+            } catch (IOException ex) {
+                throw timedOut ? timeout(ex) : ex;
+            } finally {
+                deadline.cancel(false);
+            }
+            return check(retVal);
+        }
+
+        // Closing the body mid-read can look like a clean end of stream
+        private int check(int read) throws IOException {
+            if (read == -1 && timedOut) {
+                throw timeout(null);
+            }
+            return read;
+        }
+
+        @NotNull
+        private ScheduledFuture<?> schedule() throws IOException {
+            if (timedOut) {
+                throw timeout(null);
+            }
+            return watchdog.schedule(() -> {
+                timedOut = true;
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+
+        @NotNull
+        private SocketTimeoutException timeout(@Nullable IOException cause) {
+            SocketTimeoutException retVal = new SocketTimeoutException("Read timed out after " + timeout + "ms");
+            if (cause != null) {
+                retVal.initCause(cause);
+            }
+            return retVal;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package ninja.egg82.mvn.internal;
+
+import org.jetbrains.annotations.NotNull;
+
+public class Transports {
+    private Transports() { }
+
+    @NotNull
+    public static Transport create(int connectTimeout, int readTimeout) {
+        return FileTransport.wrap(new HttpClientTransport(connectTimeout, readTimeout));
+    }
+}
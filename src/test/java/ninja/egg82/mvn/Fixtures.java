@@ -0,0 +1,266 @@
+package ninja.egg82.mvn;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+// Synthetic jars and repositories, so neither the tests nor the benchmarks depend on the internet
+public class Fixtures {
+    public static final @NotNull String GROUP_ID = "ninja.egg82.test";
+    public static final @NotNull String VERSION = "1.0";
+
+    private Fixtures() { }
+
+    @NotNull
+    public static File createTempDir(@NotNull String prefix) throws IOException { return Files.createTempDirectory("mvnloader-test-" + prefix).toFile(); }
+
+    // Classes are spread over a few packages and reference each other, so relocation has real work to do
+    public static void writeJar(@NotNull File file, @NotNull String basePackage, int classes) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536), manifest)) {
+            for (int i = 0; i < classes; i++) {
+                String name = getClassName(basePackage, i).replace('.', '/');
+                out.putNextEntry(new JarEntry(name + ".class"));
+                out.write(writeClass(name, getClassName(basePackage, (i + 1) % classes).replace('.', '/')));
+                out.closeEntry();
+            }
+            out.putNextEntry(new JarEntry("META-INF/services/" + basePackage + ".Service"));
+            out.write((getClassName(basePackage, 0) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+
+    // A jar the host already has, announcing the artifact through META-INF/maven like any Maven-built jar does
+    public static void writeProvidedJar(@NotNull File file, @NotNull String artifactId, @NotNull String version) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+
+        String prefix = "META-INF/maven/" + GROUP_ID + "/" + artifactId + "/";
+        try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+            out.putNextEntry(new JarEntry(prefix + "pom.xml"));
+            out.write(pom(artifactId, version, null, "jar", "").getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+            out.putNextEntry(new JarEntry(prefix + "pom.properties"));
+            out.write(("groupId=" + GROUP_ID + "\nartifactId=" + artifactId + "\nversion=" + version + "\n").getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+
+    @NotNull
+    public static String getClassName(@NotNull String basePackage, int index) { return basePackage + ".p" + (index % 16) + ".C" + index; }
+
+    // A BOM, a parent importing it, and libraries that each depend on the next few, managed versions and all
+    // The parent replaces central with repositoryUrl, so nothing ever leaves the machine
+    public static void writeRepository(@NotNull File root, @NotNull String repositoryUrl, int artifacts, int fanout, int classesPerJar) throws IOException {
+        StringBuilder managed = new StringBuilder();
+        for (int i = 0; i < artifacts; i++) {
+            managed.append("            <dependency>\n")
+                    .append("                <groupId>").append(GROUP_ID).append("</groupId>\n")
+                    .append("                <artifactId>lib-").append(i).append("</artifactId>\n")
+                    .append("                <version>").append(VERSION).append("</version>\n")
+                    .append("            </dependency>\n");
+        }
+        writeFile(getPomFile(root, "bom", VERSION), pom("bom", VERSION, null, "pom", "    <dependencyManagement>\n        <dependencies>\n" + managed + "        </dependencies>\n    </dependencyManagement>\n"));
+
+        writeFile(getPomFile(root, "parent", VERSION), pom(
+                "parent",
+                VERSION,
+                null,
+                "pom",
+                "    <properties>\n        <project.build.sourceEncoding>UTF-8</project.build.sourceEncoding>\n    </properties>\n"
+                        + "    <repositories>\n        <repository>\n"
+                        + "            <id>central</id>\n"
+                        + "            <url>" + repositoryUrl + "</url>\n"
+                        + "        </repository>\n    </repositories>\n"
+                        + "    <dependencyManagement>\n        <dependencies>\n"
+                        + "            <dependency>\n"
+                        + "                <groupId>" + GROUP_ID + "</groupId>\n"
+                        + "                <artifactId>bom</artifactId>\n"
+                        + "                <version>" + VERSION + "</version>\n"
+                        + "                <type>pom</type>\n"
+                        + "                <scope>import</scope>\n"
+                        + "            </dependency>\n"
+                        + "        </dependencies>\n    </dependencyManagement>\n"
+        ));
+
+        for (int i = 0; i < artifacts; i++) {
+            StringBuilder dependencies = new StringBuilder("    <dependencies>\n");
+            for (int j = i + 1; j <= i + fanout && j < artifacts; j++) {
+                dependencies.append("        <dependency>\n")
+                        .append("            <groupId>").append(GROUP_ID).append("</groupId>\n")
+                        .append("            <artifactId>lib-").append(j).append("</artifactId>\n")
+                        .append("        </dependency>\n");
+            }
+            dependencies.append("    </dependencies>\n");
+            writeFile(getPomFile(root, "lib-" + i, VERSION), pom("lib-" + i, VERSION, "parent", "jar", dependencies.toString()));
+
+            File jar = new File(getPomFile(root, "lib-" + i, VERSION).getParentFile(), "lib-" + i + "-" + VERSION + ".jar");
+            writeJar(jar, GROUP_ID + ".lib" + i, classesPerJar);
+            writeChecksum(jar);
+        }
+    }
+
+    public static void writeChecksum(@NotNull File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("SHA-1 is not available.", ex);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 65536)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        writeFile(new File(file.getParentFile(), file.getName() + ".sha1"), hex.toString());
+    }
+
+    public static void deleteContents(@NotNull File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        Path root = dir.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException ex) throws IOException {
+                if (!d.equals(root)) {
+                    Files.delete(d);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public static void delete(@NotNull File dir) throws IOException {
+        deleteContents(dir);
+        Files.deleteIfExists(dir.toPath());
+    }
+
+    public static void writePom(@NotNull File root, @NotNull String artifactId, @Nullable String parentArtifactId, @NotNull String packaging, @NotNull String body) throws IOException {
+        writeFile(getPomFile(root, artifactId, VERSION), pom(artifactId, VERSION, parentArtifactId, packaging, body));
+    }
+
+    // A standalone library with a few classes, depending on exactly the given artifactId:version pairs
+    public static void writeLibrary(
+            @NotNull File root,
+            @NotNull String repositoryUrl,
+            @NotNull String artifactId,
+            @NotNull String version,
+            @NotNull String @NotNull ... dependencies
+    ) throws IOException {
+        StringBuilder body = new StringBuilder("    <repositories>\n        <repository>\n")
+                .append("            <id>central</id>\n")
+                .append("            <url>").append(repositoryUrl).append("</url>\n")
+                .append("        </repository>\n    </repositories>\n")
+                .append("    <dependencies>\n");
+        for (String dependency : dependencies) {
+            int index = dependency.indexOf(':');
+            body.append("        <dependency>\n")
+                    .append("            <groupId>").append(GROUP_ID).append("</groupId>\n")
+                    .append("            <artifactId>").append(dependency, 0, index).append("</artifactId>\n")
+                    .append("            <version>").append(dependency.substring(index + 1)).append("</version>\n")
+                    .append("        </dependency>\n");
+        }
+        body.append("    </dependencies>\n");
+        File pomFile = getPomFile(root, artifactId, version);
+        writeFile(pomFile, pom(artifactId, version, null, "jar", body.toString()));
+
+        File jar = new File(pomFile.getParentFile(), artifactId + "-" + version + ".jar");
+        writeJar(jar, GROUP_ID + "." + artifactId.replace("-", ""), 2);
+        writeChecksum(jar);
+    }
+
+    @NotNull
+    private static File getPomFile(@NotNull File root, @NotNull String artifactId, @NotNull String version) {
+        return new File(root, GROUP_ID.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version + ".pom");
+    }
+
+    @NotNull
+    private static String pom(@NotNull String artifactId, @NotNull String version, @Nullable String parentArtifactId, @NotNull String packaging, @NotNull String body) {
+        StringBuilder retVal = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n")
+                .append("    <modelVersion>4.0.0</modelVersion>\n");
+        if (parentArtifactId != null) {
+            retVal.append("    <parent>\n")
+                    .append("        <groupId>").append(GROUP_ID).append("</groupId>\n")
+                    .append("        <artifactId>").append(parentArtifactId).append("</artifactId>\n")
+                    .append("        <version>").append(VERSION).append("</version>\n")
+                    .append("    </parent>\n");
+        }
+        retVal.append("    <groupId>").append(GROUP_ID).append("</groupId>\n")
+                .append("    <artifactId>").append(artifactId).append("</artifactId>\n")
+                .append("    <version>").append(version).append("</version>\n")
+                .append("    <packaging>").append(packaging).append("</packaging>\n")
+                .append(body)
+                .append("</project>\n");
+        return retVal.toString();
+    }
+
+    private static void writeFile(@NotNull File file, @NotNull String content) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory structure for " + parent.getAbsolutePath());
+        }
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        if (!file.getName().endsWith(".sha1")) {
+            writeChecksum(file);
+        }
+    }
+
+    private static byte @NotNull [] writeClass(@NotNull String name, @NotNull String next) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PUBLIC, "next", "L" + next + ";", null, null).visitEnd();
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "describe", "(L" + next + ";)Ljava/lang/String;", null, null);
+        method.visitCode();
+        method.visitLdcInsn(name.replace('/', '.'));
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,129 @@
+package ninja.egg82.mvn;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves a directory over loopback HTTP, counting what gets asked for
+// Shared with the benchmarks through the test jar, so downloads measure the client instead of the internet
+public class LocalRepository implements Closeable {
+    private final @NotNull File root;
+    private final @NotNull HttpServer server;
+    private final @NotNull ExecutorService executor;
+    private final boolean rangeSupported;
+    private final @NotNull ConcurrentMap<@NotNull String, @NotNull AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    public LocalRepository(@NotNull File root, boolean rangeSupported) throws IOException {
+        this.root = root.getCanonicalFile();
+        this.rangeSupported = rangeSupported;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        this.executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread retVal = new Thread(r, "LocalRepository");
+            retVal.setDaemon(true);
+            return retVal;
+        });
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @NotNull
+    public String getUrl() { return "http://127.0.0.1:" + server.getAddress().getPort() + "/"; }
+
+    // GETs and HEADs for any path ending with suffix
+    public int getRequests(@NotNull String suffix) {
+        int retVal = 0;
+        for (Map.Entry<@NotNull String, @NotNull AtomicInteger> entry : requests.entrySet()) {
+            if (entry.getKey().endsWith(suffix)) {
+                retVal += entry.getValue().get();
+            }
+        }
+        return retVal;
+    }
+
+    public int getRequests() {
+        int retVal = 0;
+        for (AtomicInteger count : requests.values()) {
+            retVal += count.get();
+        }
+        return retVal;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(@NotNull HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+
+            File file = new File(root, path).getCanonicalFile();
+            boolean head = "HEAD".equalsIgnoreCase(exchange.getRequestMethod());
+            if (!file.getPath().startsWith(root.getPath()) || !file.isFile()) {
+                exchange.sendResponseHeaders(404, -1L);
+                return;
+            }
+
+            long length = file.length();
+            long start = 0L;
+            long end = length - 1L;
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Last-Modified", "Thu, 01 Jan 2015 00:00:00 GMT");
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            boolean partial = rangeSupported && range != null && range.startsWith("bytes=");
+            if (partial) {
+                String spec = range.substring("bytes=".length());
+                int dash = spec.indexOf('-');
+                if (dash == 0) {
+                    start = Math.max(0L, length - Long.parseLong(spec.substring(1)));
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash < spec.length() - 1) {
+                        end = Math.min(end, Long.parseLong(spec.substring(dash + 1)));
+                    }
+                }
+                if (start >= length) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1L);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(200, -1L);
+                return;
+            }
+
+            exchange.sendResponseHeaders(partial ? 206 : 200, end - start + 1L);
+            try (RandomAccessFile in = new RandomAccessFile(file, "r"); OutputStream out = exchange.getResponseBody()) {
+                in.seek(start);
+                byte[] buffer = new byte[65536];
+                long remaining = end - start + 1L;
+                int read;
+                while (remaining > 0L && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } catch (IOException ignored) {
+                // The client hung up early
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
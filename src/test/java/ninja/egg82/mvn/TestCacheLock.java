@@ -0,0 +1,76 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.internal.CacheLock;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+class TestCacheLock {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void otherProcess() throws IOException, InterruptedException {
+        File file = new File(tempDir, "shared.jar");
+        Process process = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                "-cp",
+                System.getProperty("java.class.path"),
+                HoldLock.class.getName(),
+                file.getAbsolutePath(),
+                "1000"
+        ).redirectErrorStream(true).start();
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            // Skipping anything the logger might print first
+            while ((line = in.readLine()) != null && !line.equals("locked")) { }
+            Assertions.assertEquals("locked", line);
+
+            long start = System.nanoTime();
+            // Only ours once the other process lets go
+            CacheLock.acquire(file).close();
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 500L);
+            Assertions.assertTrue(process.waitFor(10L, TimeUnit.SECONDS));
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    @Test
+    void holdersEvicted() throws IOException, ReflectiveOperationException {
+        File file = new File(tempDir, "a.jar");
+        CacheLock lock = CacheLock.acquire(file);
+        CacheLock again = CacheLock.acquire(file);
+        Assertions.assertTrue(getHolders().containsKey(file.getAbsolutePath()));
+        again.close();
+        Assertions.assertTrue(getHolders().containsKey(file.getAbsolutePath()));
+        lock.close();
+        Assertions.assertFalse(getHolders().containsKey(file.getAbsolutePath()));
+    }
+
+    private static Map<?, ?> getHolders() throws ReflectiveOperationException {
+        Field field = CacheLock.class.getDeclaredField("holders");
+        field.setAccessible(true);
+        return (Map<?, ?>) field.get(null);
+    }
+
+    static class HoldLock {
+        public static void main(String[] args) throws IOException, InterruptedException {
+            CacheLock lock = CacheLock.acquire(new File(args[0]));
+            try {
+                System.out.println("locked");
+                System.out.flush();
+                Thread.sleep(Long.parseLong(args[1]));
+            } finally {
+                lock.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.internal.CacheManifest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+class TestCacheManifest {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void sharedAndCompacted() throws IOException {
+        File cacheDir = new File(tempDir, "cache");
+        // A second path to the same directory gets its own manifest instance, the same as another process would
+        File otherDir = new File(tempDir, "other");
+        Assertions.assertTrue(cacheDir.mkdirs());
+        Files.createSymbolicLink(otherDir.toPath(), cacheDir.toPath());
+
+        CacheManifest manifest = CacheManifest.get(cacheDir);
+        CacheManifest other = CacheManifest.get(otherDir);
+        File manifestFile = new File(cacheDir, ".mvnloader/manifest.properties");
+
+        for (int i = 0; i < 20; i++) {
+            File file = new File(cacheDir, "a/lib-" + i + ".jar");
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), new byte[i]);
+            manifest.put(file, "sha1:" + i);
+            Assertions.assertEquals("sha1:" + i, other.getHash(new File(otherDir, "a/lib-" + i + ".jar")));
+        }
+
+        // Rewriting the same few entries over and over mustn't grow the file forever
+        File file = new File(cacheDir, "a/lib-0.jar");
+        for (int i = 0; i < 2000; i++) {
+            manifest.put(file, "sha1:x" + i);
+        }
+        Assertions.assertTrue(Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8).size() <= 512);
+        File last = new File(cacheDir, "a/lib-20.jar");
+        Files.write(last.toPath(), new byte[20]);
+        manifest.put(last, "sha1:20");
+        Assertions.assertEquals("sha1:20", other.getHash(new File(otherDir, "a/lib-20.jar")));
+        Assertions.assertEquals("sha1:19", other.getHash(new File(otherDir, "a/lib-19.jar")));
+    }
+}
@@ -0,0 +1,62 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+// Dynamic archiving only exists from JDK 13
+@EnabledForJreRange(min = JRE.JAVA_13)
+class TestCdsTraining {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void argumentsWritten() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        String url = root.toURI().toString();
+        Fixtures.writeRepository(root, url, 2, 1, 2);
+        File cdsDir = new File(tempDir, "cache/.mvnloader/cds");
+
+        JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, url));
+        Resolution resolution = injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+        injector.inject(new IsolatedInjectableClassLoader(getClass().getClassLoader()), resolution);
+        Assertions.assertEquals(0, getArgumentsFiles(cdsDir).length);
+
+        // Nothing archived yet, so the next launch is the training run
+        injector.setCdsTraining(true);
+        injector.inject(new IsolatedInjectableClassLoader(getClass().getClassLoader()), resolution);
+        File[] argumentsFiles = getArgumentsFiles(cdsDir);
+        Assertions.assertEquals(1, argumentsFiles.length);
+        List<@NotNull String> arguments = injector.getCdsArguments(resolution);
+        Assertions.assertEquals(1, arguments.size());
+        Assertions.assertTrue(arguments.get(0).startsWith("-XX:ArchiveClassesAtExit="));
+        Assertions.assertEquals(Collections.singletonList("\"" + arguments.get(0).replace("\\", "\\\\") + "\""), Files.readAllLines(argumentsFiles[0].toPath(), StandardCharsets.UTF_8));
+
+        // Once the training run has dumped the archive, later launches use it
+        File archiveFile = new File(arguments.get(0).substring("-XX:ArchiveClassesAtExit=".length()));
+        Files.write(archiveFile.toPath(), new byte[] { 1 });
+        injector.inject(new IsolatedInjectableClassLoader(getClass().getClassLoader()), resolution);
+        Assertions.assertEquals(Collections.singletonList("-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath()), injector.getCdsArguments(resolution));
+        Assertions.assertTrue(Files.readAllLines(argumentsFiles[0].toPath(), StandardCharsets.UTF_8).get(0).contains("-XX:SharedArchiveFile="));
+        // This JVM wasn't launched with it
+        Assertions.assertFalse(injector.isCdsArchiveInUse(resolution));
+    }
+
+    private static File @NotNull [] getArgumentsFiles(@NotNull File cdsDir) {
+        File[] retVal = cdsDir.listFiles((dir, name) -> name.endsWith(".args"));
+        return retVal != null ? retVal : new File[0];
+    }
+}
@@ -0,0 +1,74 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+class TestChecksum {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void mismatchRejected() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        File cacheDir = new File(tempDir, "cache");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 2, 1, 5);
+            File jar = new File(root, Fixtures.GROUP_ID.replace('.', '/') + "/lib-1/" + Fixtures.VERSION + "/lib-1-" + Fixtures.VERSION + ".jar");
+            File sidecar = new File(jar.getParentFile(), jar.getName() + ".sha1");
+            Files.write(sidecar.toPath(), "0123456789abcdef0123456789abcdef01234567".getBytes(StandardCharsets.UTF_8));
+
+            Resolution resolution = resolve(cacheDir, repository, "lib-0");
+            Assertions.assertFalse(resolution.isComplete());
+            Assertions.assertTrue(resolution.getFailures().containsKey(Fixtures.GROUP_ID + ":lib-1:" + Fixtures.VERSION));
+            for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+                Assertions.assertNotEquals("lib-1", artifact.getArtifactId());
+            }
+
+            // Nothing bad was kept, so the next run picks up the fixed repository
+            Fixtures.writeChecksum(jar);
+            resolution = resolve(cacheDir, repository, "lib-0");
+            Assertions.assertTrue(resolution.isComplete());
+            Assertions.assertEquals(2, resolution.getArtifacts().size());
+        }
+    }
+
+    @Test
+    void damagedCacheReplaced() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        File cacheDir = new File(tempDir, "cache");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 2, 1, 5);
+            File jar = new File(root, Fixtures.GROUP_ID.replace('.', '/') + "/lib-1/" + Fixtures.VERSION + "/lib-1-" + Fixtures.VERSION + ".jar");
+
+            File cached = null;
+            for (ResolvedArtifact artifact : resolve(cacheDir, repository, "lib-0").getArtifacts()) {
+                if ("lib-1".equals(artifact.getArtifactId())) {
+                    cached = artifact.getFile();
+                }
+            }
+            Assertions.assertNotNull(cached);
+            int requests = repository.getRequests(jar.getName());
+
+            // Truncated behind our back, the manifest no longer vouches for it
+            Files.write(cached.toPath(), new byte[10]);
+            Resolution resolution = resolve(cacheDir, repository, "lib-1");
+            Assertions.assertTrue(resolution.isComplete());
+            Assertions.assertTrue(repository.getRequests(jar.getName()) > requests);
+            Assertions.assertArrayEquals(Files.readAllBytes(jar.toPath()), Files.readAllBytes(resolution.getArtifacts().get(0).getFile().toPath()));
+        }
+    }
+
+    private Resolution resolve(File cacheDir, LocalRepository repository, String artifactId) throws IOException, ModelBuildingException {
+        return new JarInjector(cacheDir)
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, artifactId, Fixtures.VERSION, repository.getUrl()))
+                .resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+    }
+}
@@ -0,0 +1,63 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import ninja.egg82.mvn.internal.Transport;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TestFileRepository {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void resolvedFromDisk() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        Fixtures.writeRepository(root, root.toURI().toString(), 3, 1, 5);
+
+        // Anything reaching the transport would have gone over the network
+        AtomicInteger requests = new AtomicInteger();
+        Transport transport = new Transport() {
+            @Override
+            @NotNull
+            public Response get(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+                requests.incrementAndGet();
+                throw new IOException("Unexpected request for " + url);
+            }
+
+            @Override
+            @NotNull
+            public Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException {
+                requests.incrementAndGet();
+                throw new IOException("Unexpected request for " + url);
+            }
+
+            @Override
+            public void warm(@NotNull String url) { }
+        };
+
+        // A plain directory works as well as a file: URL
+        Resolution resolution = new JarInjector(new File(tempDir, "cache"))
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, root.getAbsolutePath()))
+                .setTransport(transport)
+                .resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 2);
+        Assertions.assertTrue(resolution.isComplete());
+        Assertions.assertEquals(3, resolution.getArtifacts().size());
+        Assertions.assertEquals(0, requests.get());
+
+        for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+            File source = new File(root, Fixtures.GROUP_ID.replace('.', '/') + "/" + artifact.getArtifactId() + "/" + Fixtures.VERSION + "/" + artifact.getArtifactId() + "-" + Fixtures.VERSION + ".jar");
+            Assertions.assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(artifact.getFile().toPath()));
+            // A copy, never the repository's own file
+            Assertions.assertFalse(Files.isSameFile(source.toPath(), artifact.getFile().toPath()));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IndexedInjectableClassLoader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+class TestIndexedClassLoader {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void searchOrderKept() throws IOException, ClassNotFoundException {
+        File first = new File(tempDir, "first.jar");
+        File second = new File(tempDir, "second.jar");
+        // Both jars share packages, only the second has C2
+        Fixtures.writeJar(first, "indexed.one", 2);
+        Fixtures.writeJar(second, "indexed.one", 3);
+
+        try (IndexedInjectableClassLoader classLoader = new IndexedInjectableClassLoader(getClass().getClassLoader())) {
+            classLoader.addJar(first.toURI().toURL());
+            classLoader.addJar(second.toURI().toURL());
+
+            Class<?> shared = Class.forName(Fixtures.getClassName("indexed.one", 1), false, classLoader);
+            Assertions.assertEquals(first.toURI().toURL(), shared.getProtectionDomain().getCodeSource().getLocation());
+            Class<?> only = Class.forName(Fixtures.getClassName("indexed.one", 2), false, classLoader);
+            Assertions.assertEquals(second.toURI().toURL(), only.getProtectionDomain().getCodeSource().getLocation());
+            Assertions.assertThrows(ClassNotFoundException.class, () -> Class.forName("indexed.two.Missing", false, classLoader));
+
+            List<URL> services = Collections.list(classLoader.getResources("META-INF/services/indexed.one.Service"));
+            Assertions.assertEquals(2, services.size());
+            Assertions.assertTrue(services.get(0).toExternalForm().contains(first.getName()));
+            Assertions.assertTrue(services.get(1).toExternalForm().contains(second.getName()));
+        }
+        Assertions.assertTrue(new File(tempDir, "first.jar.idx").isFile());
+    }
+
+    @Test
+    void staleIndexIgnored() throws IOException, ClassNotFoundException {
+        File jar = new File(tempDir, "lib.jar");
+        Fixtures.writeJar(jar, "indexed.one", 1);
+        try (IndexedInjectableClassLoader classLoader = new IndexedInjectableClassLoader(getClass().getClassLoader())) {
+            classLoader.addJar(jar.toURI().toURL());
+        }
+        Assertions.assertTrue(new File(tempDir, "lib.jar.idx").isFile());
+
+        // Rebuilt with a package the old index has never heard of
+        Fixtures.writeJar(jar, "indexed.one", 5);
+        try (IndexedInjectableClassLoader classLoader = new IndexedInjectableClassLoader(getClass().getClassLoader())) {
+            classLoader.addJar(jar.toURI().toURL());
+            Class.forName(Fixtures.getClassName("indexed.one", 4), false, classLoader);
+        }
+    }
+}
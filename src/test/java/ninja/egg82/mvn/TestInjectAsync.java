@@ -0,0 +1,63 @@
+package ninja.egg82.mvn;
+
+import me.lucko.jarrelocator.Relocation;
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+class TestInjectAsync {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void progressCounted() throws Exception {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 3, 1, 5);
+
+            JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()))
+                    .addRelocation(new Relocation(Fixtures.GROUP_ID, "shaded.test"));
+            IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+            InjectionProgress progress = new InjectionProgress();
+            InjectionResult result = injector.injectAsync(classLoader, 2, progress).get(1L, TimeUnit.MINUTES);
+
+            Assertions.assertSame(progress, result.getProgress());
+            Assertions.assertTrue(result.isComplete());
+            Assertions.assertTrue(progress.isDone());
+            Assertions.assertEquals(3, progress.getArtifacts());
+            Assertions.assertEquals(3, progress.getResolved());
+            Assertions.assertEquals(3, progress.getDownloaded());
+            Assertions.assertEquals(3, progress.getRelocated());
+            Assertions.assertEquals(0, progress.getFailed());
+            Assertions.assertTrue(progress.getBytesTransferred() > 0L);
+            Assertions.assertEquals(3, classLoader.getURLs().length);
+            Class.forName(Fixtures.getClassName("shaded.test.lib2", 4), false, classLoader);
+        }
+    }
+
+    @Test
+    void failuresCounted() throws Exception {
+        File root = new File(tempDir, "repo");
+        String url = root.toURI().toString();
+        Fixtures.writeRepository(root, url, 3, 1, 2);
+        File missing = new File(root, Fixtures.GROUP_ID.replace('.', '/') + "/lib-2/" + Fixtures.VERSION + "/lib-2-" + Fixtures.VERSION + ".jar");
+        Assertions.assertTrue(missing.delete());
+
+        JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, url));
+        IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+        InjectionResult result = injector.injectAsync(classLoader, 2, new InjectionProgress()).get(1L, TimeUnit.MINUTES);
+
+        // Still completes normally, what's missing is reported rather than thrown
+        Assertions.assertFalse(result.isComplete());
+        Assertions.assertEquals(1, result.getProgress().getFailed());
+        Assertions.assertTrue(result.getFailures().containsKey(Fixtures.GROUP_ID + ":lib-2:" + Fixtures.VERSION));
+        Assertions.assertEquals(2, result.getProgress().getResolved());
+        Assertions.assertEquals(2, classLoader.getURLs().length);
+    }
+}
@@ -0,0 +1,90 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+class TestLazyInjection {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void fetchOnFirstUse() throws IOException, ModelBuildingException, ClassNotFoundException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 3, 1, 20);
+
+            JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()))
+                    .setLazyInjection(true);
+            IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+            Resolution resolution = injector.resolve(classLoader, 1);
+            for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+                Assertions.assertTrue(artifact.isLazy());
+            }
+
+            injector.inject(classLoader, resolution);
+            Assertions.assertEquals(0, repository.getRequests("lib-1-" + Fixtures.VERSION + ".jar.sha1"));
+            Assertions.assertTrue(classLoader.hasPendingJars());
+
+            Class.forName(Fixtures.getClassName(Fixtures.GROUP_ID + ".lib1", 3), false, classLoader);
+            Assertions.assertEquals(1, repository.getRequests("lib-1-" + Fixtures.VERSION + ".jar.sha1"));
+            Assertions.assertEquals(0, repository.getRequests("lib-2-" + Fixtures.VERSION + ".jar.sha1"));
+        }
+    }
+
+    @Test
+    void rangeNotSupported() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, false)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 2, 1, 200);
+
+            Map<@NotNull String, @NotNull AtomicLong> read = new ConcurrentHashMap<>();
+            JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()))
+                    .setLazyInjection(true)
+                    .addListener(new InjectionListener() {
+                        @Override
+                        public void onDownloadProgress(@NotNull String url, long bytes) { read.computeIfAbsent(url, k -> new AtomicLong()).addAndGet(bytes); }
+                    });
+            Resolution resolution = injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+
+            Assertions.assertEquals(2, resolution.getArtifacts().size());
+            for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+                // Downloaded during resolution, and only once
+                Assertions.assertFalse(artifact.isLazy());
+                Assertions.assertTrue(artifact.getFile().isFile());
+                String url = repository.getUrl() + Fixtures.GROUP_ID.replace('.', '/') + "/" + artifact.getArtifactId() + "/" + Fixtures.VERSION + "/" + artifact.getFile().getName();
+                Assertions.assertEquals(artifact.getFile().length(), read.get(url).get());
+            }
+        }
+    }
+
+    @Test
+    void splitPackage() throws IOException, ClassNotFoundException {
+        File first = new File(tempDir, "first.jar");
+        File second = new File(tempDir, "second.jar");
+        // Both jars have classes in split/one/p0, as relocating two libraries to one prefix would give you
+        // Only the second has C16
+        Fixtures.writeJar(first, "split.one", 2);
+        Fixtures.writeJar(second, "split.one", 17);
+
+        IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+        classLoader.addLazyJar(Collections.singleton("split/one/p0"), () -> first.toURI().toURL());
+        classLoader.addLazyJar(Collections.singleton("split/one/p0"), () -> second.toURI().toURL());
+
+        Class.forName(Fixtures.getClassName("split.one", 16), false, classLoader);
+        Assertions.assertFalse(classLoader.hasPendingJars());
+        Assertions.assertEquals(2, classLoader.getURLs().length);
+    }
+}
@@ -0,0 +1,71 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import ninja.egg82.mvn.internal.LockFileUtils;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+class TestLockFile {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void roundTrip() throws IOException {
+        Resolution resolution = new Resolution(
+                "key",
+                1234L,
+                Arrays.asList(
+                        new ResolvedArtifact("a.b", "c", "1.0", "1.0", "https://repo.example/", new File(tempDir, "c-1.0.jar")),
+                        new ResolvedArtifact("a.b", "d", "1.0-SNAPSHOT", "1.0-20200101.000000-1", "https://repo.example/", new File(tempDir, "d.jar"), new HashSet<>(Arrays.asList("x/y", "x/z")))
+                ),
+                new LinkedHashSet<>(Arrays.asList("e:f", "g:h"))
+        );
+        File lockFile = LockFileUtils.getLockFile(tempDir, "key");
+        LockFileUtils.write(lockFile, resolution);
+
+        Assertions.assertEquals(resolution, LockFileUtils.read(lockFile, "key"));
+        Assertions.assertNull(LockFileUtils.read(lockFile, "other"));
+    }
+
+    @Test
+    void serializedObjectsIgnored() throws IOException {
+        File lockFile = LockFileUtils.getLockFile(tempDir, "key");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(lockFile))) {
+            out.writeObject(new HashMap<>(Collections.singletonMap("key", "key")));
+        }
+        Assertions.assertNull(LockFileUtils.read(lockFile, "key"));
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(lockFile), StandardCharsets.UTF_8)) {
+            out.write("format=2\nkey=key\ncreated=0\nprovided=1\n");
+        }
+        Assertions.assertNull(LockFileUtils.read(lockFile, "key"));
+    }
+
+    @Test
+    void loaderChecked() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 2, 1, 5);
+            JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()));
+            Assertions.assertEquals(2, injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1).getArtifacts().size());
+
+            // Same builders, so the same lock file, but this loader already has lib-1
+            File provided = new File(tempDir, "host/lib-1.jar");
+            Fixtures.writeProvidedJar(provided, "lib-1", Fixtures.VERSION);
+            IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+            classLoader.addJar(provided.toURI().toURL());
+
+            Resolution resolution = injector.resolve(classLoader, 1);
+            Assertions.assertEquals(1, resolution.getArtifacts().size());
+            Assertions.assertEquals("lib-0", resolution.getArtifacts().get(0).getArtifactId());
+            Assertions.assertTrue(resolution.getProvidedDependencies().contains(Fixtures.GROUP_ID + ":lib-1"));
+        }
+    }
+}
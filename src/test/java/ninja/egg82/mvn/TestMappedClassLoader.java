@@ -0,0 +1,81 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.MappedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+class TestMappedClassLoader {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void loadAndClose() throws IOException, ClassNotFoundException {
+        File jar = new File(tempDir, "mapped.jar");
+        Fixtures.writeJar(jar, "mapped.one", 20);
+
+        MappedInjectableClassLoader classLoader = new MappedInjectableClassLoader(getClass().getClassLoader());
+        classLoader.addJar(jar.toURI().toURL());
+        for (int i = 0; i < 10; i++) {
+            Class<?> clazz = Class.forName(Fixtures.getClassName("mapped.one", i), false, classLoader);
+            Assertions.assertSame(classLoader, clazz.getClassLoader());
+        }
+
+        URL service = classLoader.getResource("META-INF/services/mapped.one.Service");
+        Assertions.assertNotNull(service);
+        try (InputStream in = service.openStream()) {
+            Assertions.assertEquals(Fixtures.getClassName("mapped.one", 0), readAll(in).trim());
+        }
+
+        // Closed loaders keep the classes they defined, but find nothing new
+        classLoader.close();
+        Assertions.assertNotNull(Class.forName(Fixtures.getClassName("mapped.one", 0), false, classLoader));
+        Assertions.assertThrows(ClassNotFoundException.class, () -> Class.forName(Fixtures.getClassName("mapped.one", 15), false, classLoader));
+    }
+
+    @Test
+    void localRepositoryCopied() throws IOException, ModelBuildingException, ClassNotFoundException {
+        File root = new File(tempDir, "repo");
+        Fixtures.writeRepository(root, root.toURI().toString(), 2, 1, 20);
+
+        JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, root.toURI().toString()));
+        MappedInjectableClassLoader classLoader = new MappedInjectableClassLoader(getClass().getClassLoader());
+        Resolution resolution = injector.resolve(classLoader, 1);
+        Assertions.assertEquals(2, resolution.getArtifacts().size());
+        injector.inject(classLoader, resolution);
+
+        File source = new File(root, Fixtures.GROUP_ID.replace('.', '/') + "/lib-1/" + Fixtures.VERSION + "/lib-1-" + Fixtures.VERSION + ".jar");
+        for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+            if ("lib-1".equals(artifact.getArtifactId())) {
+                Assertions.assertFalse(Files.isSameFile(source.toPath(), artifact.getFile().toPath()));
+            }
+        }
+
+        // Someone rebuilding the repository in place mustn't pull the pages out from under the mapping
+        try (RandomAccessFile out = new RandomAccessFile(source, "rw")) {
+            out.setLength(0L);
+        }
+        Class.forName(Fixtures.getClassName(Fixtures.GROUP_ID + ".lib1", 7), false, classLoader);
+        classLoader.close();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        StringBuilder retVal = new StringBuilder();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            retVal.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+        }
+        return retVal.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import ninja.egg82.mvn.internal.MergedJarUtils;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+class TestMergedOutput {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void injectedAsOne() throws IOException, ModelBuildingException, ClassNotFoundException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 3, 1, 5);
+
+            JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()))
+                    .setMergedOutput(true);
+            Resolution resolution = injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+            Assertions.assertEquals(3, resolution.getArtifacts().size());
+
+            IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+            injector.inject(classLoader, resolution);
+            Assertions.assertEquals(1, classLoader.getURLs().length);
+            for (int i = 0; i < 3; i++) {
+                Class.forName(Fixtures.getClassName(Fixtures.GROUP_ID + ".lib" + i, 4), false, classLoader);
+                Assertions.assertNotNull(classLoader.getResource("META-INF/services/" + Fixtures.GROUP_ID + ".lib" + i + ".Service"));
+            }
+
+            // Nothing changed, so the same archive is reused rather than rebuilt
+            File merged = new File(classLoader.getURLs()[0].getPath());
+            long modified = merged.lastModified();
+            IsolatedInjectableClassLoader second = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+            injector.inject(second, resolution);
+            Assertions.assertArrayEquals(classLoader.getURLs(), second.getURLs());
+            Assertions.assertEquals(modified, merged.lastModified());
+        }
+    }
+
+    @Test
+    void firstJarWins() throws IOException {
+        File first = new File(tempDir, "first.jar");
+        File second = new File(tempDir, "second.jar");
+        Fixtures.writeJar(first, "same.one", 2);
+        Fixtures.writeJar(second, "same.one", 3);
+        List<@NotNull ResolvedArtifact> artifacts = Arrays.asList(
+                new ResolvedArtifact(Fixtures.GROUP_ID, "first", Fixtures.VERSION, Fixtures.VERSION, "file:/", first),
+                new ResolvedArtifact(Fixtures.GROUP_ID, "second", Fixtures.VERSION, Fixtures.VERSION, "file:/", second)
+        );
+
+        File merged = MergedJarUtils.merge(new File(tempDir, "cache"), artifacts);
+        try (ZipFile zip = new ZipFile(merged); ZipFile firstZip = new ZipFile(first)) {
+            String shared = Fixtures.getClassName("same.one", 1).replace('.', '/') + ".class";
+            // C1 is in both jars but refers to C0 in the first and C2 in the second
+            Assertions.assertArrayEquals(read(firstZip, firstZip.getEntry(shared)), read(zip, zip.getEntry(shared)));
+            Assertions.assertNotNull(zip.getEntry(Fixtures.getClassName("same.one", 2).replace('.', '/') + ".class"));
+
+            // Service files are concatenated rather than picked
+            String service = new String(read(zip, zip.getEntry("META-INF/services/same.one.Service")), StandardCharsets.UTF_8);
+            Assertions.assertEquals(2, service.split(Fixtures.getClassName("same.one", 0), -1).length - 1);
+
+            String index = new String(read(zip, zip.getEntry("META-INF/INDEX.LIST")), StandardCharsets.UTF_8);
+            Assertions.assertTrue(index.contains("same/one/p0\n"));
+            Assertions.assertTrue(index.contains("same/one/p2\n"));
+        }
+    }
+
+    private static byte @NotNull [] read(@NotNull ZipFile zip, @NotNull ZipEntry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zip.getInputStream(entry)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,32 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.internal.ResolutionContext;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+class TestModelResolver {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void repositoriesDontLeak() throws IOException, ModelBuildingException {
+        File main = new File(tempDir, "main");
+        File extra = new File(tempDir, "extra");
+        // "declares" brings in the extra repository, "inherits" doesn't, so it can't see the parent that only lives there
+        Fixtures.writePom(main, "declares", null, "pom", "    <repositories>\n        <repository>\n"
+                + "            <id>extra</id>\n"
+                + "            <url>" + extra.toURI() + "</url>\n"
+                + "        </repository>\n    </repositories>\n");
+        Fixtures.writePom(main, "inherits", "parent", "pom", "");
+        Fixtures.writePom(extra, "parent", null, "pom", "");
+
+        ResolutionContext context = new ResolutionContext(new File(tempDir, "cache"), UpdatePolicy.DAILY, false);
+        Assertions.assertNotNull(new JarBuilder(Fixtures.GROUP_ID, "declares", Fixtures.VERSION, main.toURI().toString()).build(context));
+        Assertions.assertThrows(ModelBuildingException.class, () -> new JarBuilder(Fixtures.GROUP_ID, "inherits", Fixtures.VERSION, main.toURI().toString()).build(context));
+    }
+}
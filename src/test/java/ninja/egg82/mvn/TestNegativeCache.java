@@ -0,0 +1,63 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+class TestNegativeCache {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void missRemembered() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        File cacheDir = new File(tempDir, "cache");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 1, 0, 1);
+            String pom = "missing-" + Fixtures.VERSION + ".pom";
+
+            resolve(cacheDir, repository, false);
+            int requests = repository.getRequests(pom);
+            Assertions.assertTrue(requests > 0);
+            Properties saved = read(cacheDir);
+            Assertions.assertTrue(saved.stringPropertyNames().stream().anyMatch(k -> k.endsWith(pom)));
+
+            // Left by some earlier run, long since expired
+            saved.setProperty(repository.getUrl() + "old/old-1.0.pom", "0");
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(getCacheFile(cacheDir)), StandardCharsets.UTF_8)) {
+                saved.store(out, null);
+            }
+
+            // A different set of builders, so this isn't answered by the first run's lock file
+            resolve(cacheDir, repository, true);
+            Assertions.assertEquals(requests, repository.getRequests(pom));
+            saved = read(cacheDir);
+            Assertions.assertTrue(saved.stringPropertyNames().stream().anyMatch(k -> k.endsWith(pom)));
+            Assertions.assertFalse(saved.stringPropertyNames().stream().anyMatch(k -> k.endsWith("old-1.0.pom")));
+        }
+    }
+
+    private void resolve(File cacheDir, LocalRepository repository, boolean withExisting) throws IOException, ModelBuildingException {
+        JarInjector injector = new JarInjector(cacheDir).addBuilder(new JarBuilder(Fixtures.GROUP_ID, "missing", Fixtures.VERSION, repository.getUrl()));
+        if (withExisting) {
+            injector.addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()));
+        }
+        injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+    }
+
+    private static File getCacheFile(File cacheDir) { return new File(cacheDir, ".mvnloader/missing.properties"); }
+
+    private static Properties read(File cacheDir) throws IOException {
+        Properties retVal = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(getCacheFile(cacheDir)), StandardCharsets.UTF_8)) {
+            retVal.load(in);
+        }
+        return retVal;
+    }
+}
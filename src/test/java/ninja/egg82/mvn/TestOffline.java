@@ -0,0 +1,55 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+class TestOffline {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void resolvesFromCache() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        File cacheDir = new File(tempDir, "cache");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 3, 1, 5);
+
+            Resolution online = new JarInjector(cacheDir)
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()))
+                    .resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+            Assertions.assertEquals(3, online.getArtifacts().size());
+            int requests = repository.getRequests();
+
+            // A different set of builders, so this is built from the cached POMs rather than the first run's lock file
+            Resolution offline = new JarInjector(cacheDir)
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-1", Fixtures.VERSION, repository.getUrl()))
+                    .setOffline(true)
+                    .resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+            Assertions.assertTrue(offline.isComplete());
+            Assertions.assertEquals(2, offline.getArtifacts().size());
+            for (ResolvedArtifact artifact : offline.getArtifacts()) {
+                Assertions.assertTrue(artifact.getFile().isFile());
+            }
+            Assertions.assertEquals(requests, repository.getRequests());
+        }
+    }
+
+    @Test
+    void nothingCached() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 2, 1, 5);
+
+            JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()).setOffline(true));
+            Assertions.assertThrows(IOException.class, () -> injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1));
+            Assertions.assertEquals(0, repository.getRequests());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ninja.egg82.mvn;
+
+import me.lucko.jarrelocator.JarRelocator;
+import me.lucko.jarrelocator.Relocation;
+import ninja.egg82.mvn.internal.ParallelJarRelocator;
+import ninja.egg82.mvn.internal.RelocationUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+class TestParallelRelocator {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void matchesJarRelocator() throws IOException {
+        File input = new File(tempDir, "input.jar");
+        Fixtures.writeJar(input, "relocate.me", 300);
+        List<@NotNull Relocation> relocations = Collections.singletonList(new Relocation("relocate.me", "shaded.relocate.me"));
+
+        File expected = new File(tempDir, "expected.jar");
+        new JarRelocator(input, expected, relocations).run();
+
+        File actual = new File(tempDir, "actual.jar");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new ParallelJarRelocator(input, actual, relocations, pool).run();
+        } finally {
+            pool.shutdown();
+        }
+
+        Map<@NotNull String, byte @NotNull []> expectedEntries = read(expected);
+        Map<@NotNull String, byte @NotNull []> actualEntries = read(actual);
+        Assertions.assertEquals(expectedEntries.keySet(), actualEntries.keySet());
+        Assertions.assertTrue(actualEntries.containsKey("shaded/relocate/me/p0/C0.class"));
+        for (Map.Entry<@NotNull String, byte @NotNull []> entry : expectedEntries.entrySet()) {
+            Assertions.assertArrayEquals(entry.getValue(), actualEntries.get(entry.getKey()), entry.getKey());
+        }
+    }
+
+    @Test
+    void deterministic() throws IOException {
+        File input = new File(tempDir, "input.jar");
+        Fixtures.writeJar(input, "relocate.me", 300);
+        List<@NotNull Relocation> relocations = Collections.singletonList(new Relocation("relocate.me", "shaded.relocate.me"));
+
+        // Same bytes no matter how many threads did the work, or whether the jar came from a file or a stream
+        File single = new File(tempDir, "single.jar");
+        File parallel = new File(tempDir, "parallel.jar");
+        File streamed = new File(tempDir, "streamed.jar");
+        ForkJoinPool singlePool = new ForkJoinPool(1);
+        ForkJoinPool parallelPool = new ForkJoinPool(8);
+        try {
+            new ParallelJarRelocator(input, single, relocations, singlePool).run();
+            new ParallelJarRelocator(input, parallel, relocations, parallelPool).run();
+            try (InputStream in = new BufferedInputStream(new FileInputStream(input))) {
+                new ParallelJarRelocator(in, streamed, relocations, parallelPool).run();
+            }
+        } finally {
+            singlePool.shutdown();
+            parallelPool.shutdown();
+        }
+
+        byte[] bytes = Files.readAllBytes(single.toPath());
+        Assertions.assertArrayEquals(bytes, Files.readAllBytes(parallel.toPath()));
+        Assertions.assertArrayEquals(bytes, Files.readAllBytes(streamed.toPath()));
+    }
+
+    @Test
+    void builderKeyMatches() {
+        // Built relocations are keyed without looking inside them, existing caches and lock files still have to match
+        Relocation built = new RelocationBuilder("relocate{}me", "shaded").build("{}", ".");
+        Assertions.assertEquals(RelocationUtils.toKey(new Relocation("relocate.me", "shaded.relocate.me")), RelocationUtils.toKey(built));
+        Assertions.assertNotEquals(RelocationUtils.toKey(new Relocation("relocate.me", "other.relocate.me")), RelocationUtils.toKey(built));
+    }
+
+    @NotNull
+    private static Map<@NotNull String, byte @NotNull []> read(@NotNull File file) throws IOException {
+        Map<@NotNull String, byte @NotNull []> retVal = new HashMap<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                retVal.put(entry.getName(), out.toByteArray());
+            }
+        }
+        return retVal;
+    }
+}
@@ -0,0 +1,42 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+class TestPresenceIndex {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void providedSkipped() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        String url = root.toURI().toString();
+        Fixtures.writeRepository(root, url, 3, 1, 2);
+
+        File provided = new File(tempDir, "host/lib-1.jar");
+        Fixtures.writeProvidedJar(provided, "lib-1", Fixtures.VERSION);
+        IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+        classLoader.addJar(provided.toURI().toURL());
+
+        PresenceIndex index = PresenceIndex.build(classLoader);
+        Assertions.assertTrue(index.contains(Fixtures.GROUP_ID, "lib-1"));
+        Assertions.assertEquals(Collections.singleton(Fixtures.VERSION), index.getVersions(Fixtures.GROUP_ID, "lib-1"));
+        Assertions.assertFalse(index.contains(Fixtures.GROUP_ID, "lib-0"));
+
+        // lib-1 and everything below it are the host's business
+        Resolution resolution = new JarInjector(new File(tempDir, "cache"))
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, url))
+                .resolve(classLoader, 1);
+        Assertions.assertTrue(resolution.isComplete());
+        Assertions.assertEquals(1, resolution.getArtifacts().size());
+        Assertions.assertEquals("lib-0", resolution.getArtifacts().get(0).getArtifactId());
+        Assertions.assertTrue(resolution.getProvidedDependencies().contains(Fixtures.GROUP_ID + ":lib-1"));
+    }
+}
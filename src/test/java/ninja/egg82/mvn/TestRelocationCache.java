@@ -0,0 +1,67 @@
+package ninja.egg82.mvn;
+
+import me.lucko.jarrelocator.Relocation;
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TestRelocationCache {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void relocatedJarsReused() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 2, 1, 5);
+
+            AtomicInteger relocated = new AtomicInteger();
+            File first = getFile(resolve(repository, "lib-0", "shaded.test", relocated), "lib-1");
+            Assertions.assertEquals(2, relocated.get());
+
+            // A different resolution, but lib-1's source and rules haven't changed, so neither has its output
+            relocated.set(0);
+            File second = getFile(resolve(repository, "lib-1", "shaded.test", relocated), "lib-1");
+            Assertions.assertEquals(0, relocated.get());
+            Assertions.assertEquals(first, second);
+
+            // New rules, new output
+            File third = getFile(resolve(repository, "lib-1", "other.test", relocated), "lib-1");
+            Assertions.assertEquals(1, relocated.get());
+            Assertions.assertNotEquals(first, third);
+            Assertions.assertTrue(first.isFile());
+        }
+    }
+
+    @NotNull
+    private Resolution resolve(@NotNull LocalRepository repository, @NotNull String artifactId, @NotNull String prefix, @NotNull AtomicInteger relocated) throws IOException, ModelBuildingException {
+        // A new injector each time, as if the process had restarted
+        return new JarInjector(new File(tempDir, "cache"))
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, artifactId, Fixtures.VERSION, repository.getUrl()))
+                .addRelocation(new Relocation(Fixtures.GROUP_ID, prefix))
+                .addListener(new InjectionListener() {
+                    @Override
+                    public void onRelocationStarted(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @NotNull File inFile) {
+                        relocated.incrementAndGet();
+                    }
+                })
+                .resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+    }
+
+    @NotNull
+    private static File getFile(@NotNull Resolution resolution, @NotNull String artifactId) {
+        for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+            if (artifactId.equals(artifact.getArtifactId())) {
+                return artifact.getFile();
+            }
+        }
+        throw new AssertionError(artifactId + " was not resolved");
+    }
+}
@@ -0,0 +1,93 @@
+package ninja.egg82.mvn;
+
+import com.sun.net.httpserver.HttpServer;
+import ninja.egg82.mvn.internal.Abort;
+import ninja.egg82.mvn.internal.RepositoryProber;
+import ninja.egg82.mvn.internal.Transport;
+import ninja.egg82.mvn.internal.URLConnectionTransport;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TestRepositoryProber {
+    @Test
+    void losersDisconnected() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HttpServer fast = server(executor, 200L);
+        HttpServer stalled = server(executor, 30_000L);
+        try {
+            AtomicInteger inFlight = new AtomicInteger();
+            Transport transport = new CountingTransport(new URLConnectionTransport(5_000, 30_000), inFlight);
+
+            int winner = RepositoryProber.probe(transport, Arrays.asList(getUrl(fast), getUrl(stalled)), 0L);
+            Assertions.assertEquals(0, winner);
+
+            // The stalled probe would otherwise sit out the whole 30s read timeout
+            long deadline = System.currentTimeMillis() + 2_000L;
+            while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            Assertions.assertEquals(0, inFlight.get());
+        } finally {
+            fast.stop(0);
+            stalled.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private static HttpServer server(ExecutorService executor, long delay) throws IOException {
+        HttpServer retVal = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        retVal.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delay);
+                exchange.sendResponseHeaders(200, -1L);
+            } catch (InterruptedException ignored) {
+            } finally {
+                exchange.close();
+            }
+        });
+        retVal.setExecutor(executor);
+        retVal.start();
+        return retVal;
+    }
+
+    private static String getUrl(HttpServer server) { return "http://127.0.0.1:" + server.getAddress().getPort() + "/a.jar"; }
+
+    private static class CountingTransport implements Transport {
+        private final @NotNull Transport delegate;
+        private final @NotNull AtomicInteger inFlight;
+
+        private CountingTransport(@NotNull Transport delegate, @NotNull AtomicInteger inFlight) {
+            this.delegate = delegate;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public @NotNull Response get(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException { return delegate.get(url, headers); }
+
+        @Override
+        public @NotNull Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers) throws IOException { return delegate.head(url, headers); }
+
+        @Override
+        public @NotNull Response head(@NotNull String url, @NotNull Map<@NotNull String, @NotNull String> headers, @NotNull Abort abort) throws IOException {
+            inFlight.incrementAndGet();
+            try {
+                return delegate.head(url, headers, abort);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void warm(@NotNull String url) { delegate.warm(url); }
+    }
+}
@@ -0,0 +1,72 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+class TestResolution {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void failuresSequential() throws IOException, ModelBuildingException { assertFailures(1); }
+
+    @Test
+    void failuresParallel() throws IOException, ModelBuildingException { assertFailures(4); }
+
+    @Test
+    void builderOrder() throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        String url = root.toURI().toString();
+        // The first builder reaches z two levels down, the second one level down but at another version
+        Fixtures.writeLibrary(root, url, "a", "1.0", "x:1.0");
+        Fixtures.writeLibrary(root, url, "x", "1.0", "z:1.0");
+        Fixtures.writeLibrary(root, url, "z", "1.0");
+        Fixtures.writeLibrary(root, url, "b", "1.0", "z:2.0");
+        Fixtures.writeLibrary(root, url, "z", "2.0");
+
+        for (int threads : new int[] { 1, 4 }) {
+            Resolution resolution = new JarInjector(new File(tempDir, "cache-" + threads))
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "a", "1.0", url))
+                    .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "b", "1.0", url))
+                    .resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), threads);
+
+            Assertions.assertTrue(resolution.isComplete());
+            for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+                if (artifact.getArtifactId().equals("z")) {
+                    Assertions.assertEquals("1.0", artifact.getVersion());
+                }
+            }
+            Assertions.assertEquals(4, resolution.getArtifacts().size());
+        }
+    }
+
+    private void assertFailures(int threads) throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        String url = root.toURI().toString();
+        Fixtures.writeRepository(root, url, 4, 1, 2);
+        File missing = new File(root, Fixtures.GROUP_ID.replace('.', '/') + "/lib-2/" + Fixtures.VERSION + "/lib-2-" + Fixtures.VERSION + ".jar");
+        Assertions.assertTrue(missing.delete());
+
+        JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, url));
+        Resolution resolution = injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), threads);
+
+        Assertions.assertFalse(resolution.isComplete());
+        Assertions.assertEquals(1, resolution.getFailures().size());
+        Assertions.assertTrue(resolution.getFailures().containsKey(Fixtures.GROUP_ID + ":lib-2:" + Fixtures.VERSION));
+        Assertions.assertEquals(3, resolution.getArtifacts().size());
+
+        // Incomplete resolutions aren't persisted, so the next run tries again
+        Fixtures.writeJar(missing, Fixtures.GROUP_ID + ".lib2", 2);
+        Fixtures.writeChecksum(missing);
+        resolution = injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), threads);
+        Assertions.assertTrue(resolution.isComplete());
+        Assertions.assertEquals(4, resolution.getArtifacts().size());
+    }
+}
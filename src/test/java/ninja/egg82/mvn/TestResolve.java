@@ -0,0 +1,41 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+class TestResolve {
+    @Test
+    void resolveSimple() throws URISyntaxException, ModelBuildingException, IOException {
+        JarInjector injector = new JarInjector(new File(getCurrentDir(), "cache"))
+                .addBuilder(new JarBuilder("com.github.ben-manes.caffeine", "caffeine", "2.9.0", "https://repo.maven.apache.org/maven2"));
+
+        Resolution resolution = injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()));
+        Assertions.assertFalse(resolution.getArtifacts().isEmpty());
+        for (ResolvedArtifact artifact : resolution.getArtifacts()) {
+            System.out.println(artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getRealVersion() + " [" + artifact.getRepositoryUrl() + "] - " + artifact
+                    .getFile()
+                    .getAbsolutePath());
+            Assertions.assertTrue(artifact.getFile().exists());
+        }
+
+        // Second resolution should come straight from the lock file
+        Resolution cached = injector.resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()));
+        Assertions.assertEquals(resolution, cached);
+
+        IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+        injector.inject(classLoader, cached);
+        Assertions.assertEquals(cached.getArtifacts().size(), classLoader.getURLs().length);
+    }
+
+    @NotNull
+    private File getCurrentDir() throws URISyntaxException {
+        return new File(getClass().getProtectionDomain().getCodeSource().getLocation().toURI()).getParentFile();
+    }
+}
@@ -0,0 +1,98 @@
+package ninja.egg82.mvn;
+
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+class TestResume {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void partialResumed() throws IOException, ModelBuildingException {
+        Download download = download(true, bytes -> Arrays.copyOf(bytes, bytes.length / 2));
+        Assertions.assertArrayEquals(download.expected, download.bytes);
+        // Only the missing half crossed the wire
+        Assertions.assertEquals(download.expected.length - download.expected.length / 2, download.read);
+    }
+
+    @Test
+    void badPartialReplaced() throws IOException, ModelBuildingException {
+        // Not what the server has, the checksum catches it and the whole file is fetched again
+        Download download = download(true, bytes -> {
+            byte[] retVal = new byte[bytes.length / 2];
+            Arrays.fill(retVal, (byte) 7);
+            return retVal;
+        });
+        Assertions.assertArrayEquals(download.expected, download.bytes);
+    }
+
+    @Test
+    void rangeNotSupported() throws IOException, ModelBuildingException {
+        Download download = download(false, bytes -> Arrays.copyOf(bytes, bytes.length / 2));
+        Assertions.assertArrayEquals(download.expected, download.bytes);
+        Assertions.assertEquals(download.expected.length, download.read);
+    }
+
+    // Downloads lib-0 into a cache that already holds a .part for it, made from the jar the repository serves
+    @NotNull
+    private Download download(boolean rangeSupported, @NotNull UnaryOperator<byte @NotNull []> toPart) throws IOException, ModelBuildingException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, rangeSupported)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 1, 0, 200);
+            byte[] expected = Files.readAllBytes(new File(root, Fixtures.GROUP_ID.replace('.', '/') + "/lib-0/" + Fixtures.VERSION + "/lib-0-" + Fixtures.VERSION + ".jar").toPath());
+
+            // A first run in a scratch cache tells us where the jar lives
+            File scratch = new File(tempDir, "scratch");
+            File scratchFile = resolve(scratch, repository, new AtomicLong()).getArtifacts().get(0).getFile();
+            String path = scratch.getCanonicalFile().toPath().relativize(scratchFile.getCanonicalFile().toPath()).toString();
+
+            File cacheDir = new File(tempDir, "cache");
+            File partFile = new File(cacheDir, path + ".part");
+            Assertions.assertTrue(partFile.getParentFile().mkdirs());
+            Files.write(partFile.toPath(), toPart.apply(expected));
+
+            AtomicLong read = new AtomicLong();
+            File file = resolve(cacheDir, repository, read).getArtifacts().get(0).getFile();
+            Assertions.assertFalse(partFile.exists());
+            return new Download(expected, Files.readAllBytes(file.toPath()), read.get());
+        }
+    }
+
+    @NotNull
+    private Resolution resolve(@NotNull File cacheDir, @NotNull LocalRepository repository, @NotNull AtomicLong read) throws IOException, ModelBuildingException {
+        return new JarInjector(cacheDir)
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()))
+                .addListener(new InjectionListener() {
+                    @Override
+                    public void onDownloadProgress(@NotNull String url, long bytes) {
+                        if (url.endsWith(".jar")) {
+                            read.addAndGet(bytes);
+                        }
+                    }
+                })
+                .resolve(new IsolatedInjectableClassLoader(getClass().getClassLoader()), 1);
+    }
+
+    private static class Download {
+        private final byte @NotNull [] expected;
+        private final byte @NotNull [] bytes;
+        private final long read;
+
+        private Download(byte @NotNull [] expected, byte @NotNull [] bytes, long read) {
+            this.expected = expected;
+            this.bytes = bytes;
+            this.read = read;
+        }
+    }
+}
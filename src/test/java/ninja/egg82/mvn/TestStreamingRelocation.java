@@ -0,0 +1,98 @@
+package ninja.egg82.mvn;
+
+import me.lucko.jarrelocator.Relocation;
+import ninja.egg82.mvn.classloaders.IsolatedInjectableClassLoader;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+class TestStreamingRelocation {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void relocatedWhileStreaming() throws IOException, ModelBuildingException, ClassNotFoundException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 1, 0, 20);
+
+            inject(repository);
+            Assertions.assertEquals(1, repository.getRequests("lib-0-" + Fixtures.VERSION + ".jar"));
+        }
+    }
+
+    @Test
+    void downloadedWhenStreamFails() throws IOException, ModelBuildingException, ClassNotFoundException {
+        File root = new File(tempDir, "repo");
+        try (LocalRepository repository = new LocalRepository(root, true)) {
+            Fixtures.writeRepository(root, repository.getUrl(), 1, 0, 20);
+            // Fine as a file, but ZipInputStream gives up on the first entry
+            File jar = new File(root, Fixtures.GROUP_ID.replace('.', '/') + "/lib-0/" + Fixtures.VERSION + "/lib-0-" + Fixtures.VERSION + ".jar");
+            writeStoredWithDescriptor(jar);
+            Fixtures.writeChecksum(jar);
+
+            inject(repository);
+            // The stream attempt, then the download the jar was relocated from
+            Assertions.assertEquals(2, repository.getRequests(jar.getName()));
+        }
+    }
+
+    private void inject(@NotNull LocalRepository repository) throws IOException, ModelBuildingException, ClassNotFoundException {
+        JarInjector injector = new JarInjector(new File(tempDir, "cache"))
+                .addBuilder(new JarBuilder(Fixtures.GROUP_ID, "lib-0", Fixtures.VERSION, repository.getUrl()))
+                .addRelocation(new Relocation(Fixtures.GROUP_ID, "shaded.test"))
+                .setStreamingRelocation(true);
+        IsolatedInjectableClassLoader classLoader = new IsolatedInjectableClassLoader(getClass().getClassLoader());
+        Resolution resolution = injector.resolve(classLoader, 1);
+        Assertions.assertTrue(resolution.isComplete());
+        injector.inject(classLoader, resolution);
+        Class.forName(Fixtures.getClassName("shaded.test.lib0", 7), false, classLoader);
+    }
+
+    // Rewrites every entry STORED, then flags the first local header as having a data descriptor
+    // ZipFile only reads the central directory, but ZipInputStream refuses STORED entries with descriptors
+    private static void writeStoredWithDescriptor(@NotNull File jar) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipFile in = new ZipFile(jar); ZipOutputStream out = new ZipOutputStream(bytes)) {
+            Enumeration<? extends ZipEntry> entries = in.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                byte[] data;
+                try (InputStream entryIn = in.getInputStream(entry)) {
+                    ByteArrayOutputStream entryOut = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = entryIn.read(buffer)) != -1) {
+                        entryOut.write(buffer, 0, read);
+                    }
+                    data = entryOut.toByteArray();
+                }
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                ZipEntry stored = new ZipEntry(entry.getName());
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(data.length);
+                stored.setCompressedSize(data.length);
+                stored.setCrc(crc.getValue());
+                out.putNextEntry(stored);
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+
+        byte[] retVal = bytes.toByteArray();
+        // General purpose flags of the first local header, bit 3 is the data descriptor
+        retVal[6] |= 0x08;
+        Files.write(jar.toPath(), retVal);
+    }
+}